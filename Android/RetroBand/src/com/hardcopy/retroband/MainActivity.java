@@ -227,6 +227,10 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 			if(mService != null)
 				mService.startServiceMonitoring();
 			break;
+		case IFragmentListener.CALLBACK_WEIGHT_CHANGED:
+			if(mService != null)
+				mService.setUserWeight(arg0);
+			break;
 
 		default:
 			break;
@@ -432,7 +436,7 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 				ContentObject co = (ContentObject)msg.obj;
 				if(co != null) {
 					GraphFragment frg = (GraphFragment) mSectionsPagerAdapter.getItem(LLFragmentAdapter.FRAGMENT_POS_GRAPH);
-					frg.drawAccelData(co.mAccelData);
+					frg.drawAccelData(co);
 				}
 				break;
 			
@@ -19,11 +19,12 @@ package com.hardcopy.retroband.bluetooth;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
 
+import com.hardcopy.retroband.contents.ContentObject;
+
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothServerSocket;
@@ -57,6 +58,7 @@ public class BluetoothManager {
     public static final int MESSAGE_WRITE = 3;
     public static final int MESSAGE_DEVICE_NAME = 4;
     public static final int MESSAGE_TOAST = 5;
+    public static final int MESSAGE_READ_OBJECT = 6;    // Parsed on reader thread. obj: ContentObject, arg1: backlog
     
     // 
 	public static final String SERVICE_HANDLER_MSG_KEY_DEVICE_NAME = "device_name";
@@ -71,6 +73,9 @@ public class BluetoothManager {
     // Unique UUID for this application
     private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int DRAIN_BUFFER_SIZE = 8;
+
     // Member fields
     private final BluetoothAdapter mAdapter;
     private final Handler mHandler;
@@ -78,6 +83,8 @@ public class BluetoothManager {
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
     private int mState;
+    private TransactionReceiver mFrameReceiver = null;    // If set, reader thread parses stream
+    private IFrameListener mFrameListener = null;         // If set, gets parsed objects instead of Handler
 
     private static final long RECONNECT_DELAY_MAX = 60*60*1000;
     
@@ -112,6 +119,21 @@ public class BluetoothManager {
         mHandler.obtainMessage(MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
     }
 
+    /**
+     * Parse received stream on the reader thread.
+     * Reader thread reuses its buffer and sends MESSAGE_READ_OBJECT for each
+     * parsed object instead of sending MESSAGE_READ for each read().
+     * Takes effect from the next connection. Receiver must not be used
+     * by other threads except recycleObject().
+     * @param receiver  stream parser. null to send raw bytes with MESSAGE_READ.
+     * @param listener  called on reader thread for each parsed object.
+     *                  null to send MESSAGE_READ_OBJECT to the Handler.
+     */
+    public synchronized void setFrameReceiver(TransactionReceiver receiver, IFrameListener listener) {
+        mFrameReceiver = receiver;
+        mFrameListener = listener;
+    }
+
     /**
      * Return the current connection state. */
     public synchronized int getState() {
@@ -181,7 +203,7 @@ public class BluetoothManager {
         if (mAcceptThread != null) {mAcceptThread.cancel(); mAcceptThread = null;}
 
         // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket);
+        mConnectedThread = new ConnectedThread(socket, mFrameReceiver, mFrameListener);
         mConnectedThread.start();
 
         // Send the name of the connected device back to the UI Activity
@@ -451,10 +473,14 @@ public class BluetoothManager {
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private final TransactionReceiver mmReceiver;
+        private final IFrameListener mmListener;
 
-        public ConnectedThread(BluetoothSocket socket) {
+        public ConnectedThread(BluetoothSocket socket, TransactionReceiver receiver, IFrameListener listener) {
             Log.d(TAG, "create ConnectedThread");
             mmSocket = socket;
+            mmReceiver = receiver;
+            mmListener = listener;
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
 
@@ -472,14 +498,17 @@ public class BluetoothManager {
 
         public void run() {
             Log.i(TAG, "BEGIN mConnectedThread");
+            if (mmReceiver != null) {
+                readFrames();
+                return;
+            }
             int bytes;
 
             // Keep listening to the InputStream while connected
             while (true) {
                 try {
                     // Read from the InputStream
-                    byte[] buffer = new byte[128];
-                    Arrays.fill(buffer, (byte)0x00);
+                    byte[] buffer = new byte[READ_BUFFER_SIZE];
                     bytes = mmInStream.read(buffer);
 
                     // Send the obtained bytes to the main thread
@@ -493,6 +522,59 @@ public class BluetoothManager {
             }
         }
 
+        /**
+         * Read into one buffer and parse on this thread.
+         * Only completed objects are sent to the listener or the Handler.
+         */
+        private void readFrames() {
+            // Forget bytes and sequence of previous connection
+            mmReceiver.resetSession();
+
+            if (mmListener != null) {
+                try {
+                    mmReceiver.readStream(mmInStream, new byte[READ_BUFFER_SIZE], mmListener);
+                    Log.e(TAG, "disconnected: end of stream");
+                } catch (IOException e) {
+                    Log.e(TAG, "disconnected", e);
+                }
+                connectionLost();
+                return;
+            }
+
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            ContentObject[] objects = new ContentObject[DRAIN_BUFFER_SIZE];
+            int bytes;
+
+            while (true) {
+                try {
+                    bytes = mmInStream.read(buffer);
+                } catch (IOException e) {
+                    Log.e(TAG, "disconnected", e);
+                    connectionLost();
+                    break;
+                }
+                if (bytes < 0) {
+                    Log.e(TAG, "disconnected: end of stream");
+                    connectionLost();
+                    break;
+                }
+
+                mmReceiver.setByteArray(buffer, bytes);
+                int backlog = mmReceiver.getBacklogCount();
+
+                // Handler owns the objects and recycles them
+                int count;
+                do {
+                    count = mmReceiver.drainObjects(objects);
+                    for (int i = 0; i < count; i++) {
+                        mHandler.obtainMessage(MESSAGE_READ_OBJECT, backlog, -1, objects[i])
+                                .sendToTarget();
+                        objects[i] = null;
+                    }
+                } while (count == objects.length);
+            }
+        }
+
         /**
          * Write to the connected OutStream.
          * @param buffer  The bytes to write
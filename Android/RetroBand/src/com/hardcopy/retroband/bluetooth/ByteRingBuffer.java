@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+/**
+ * Fixed size byte ring buffer.
+ * Holds received bytes which are not parsed yet. Buffer is allocated once
+ * and bytes can be inspected before they are consumed.
+ * This class is not thread-safe.
+ */
+public class ByteRingBuffer {
+
+	private final byte[] mBuffer;
+	private final int mMask;
+	private int mHead = 0;		// Read position
+	private int mCount = 0;		// Bytes in buffer
+
+
+	/**
+	 * Constructor
+	 * @param capacity		buffer size. Rounded up to power of 2
+	 */
+	public ByteRingBuffer(int capacity) {
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+		mBuffer = new byte[size];
+		mMask = size - 1;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	public void clear() {
+		mHead = 0;
+		mCount = 0;
+	}
+
+	public int capacity() {
+		return mBuffer.length;
+	}
+
+	/**
+	 * @return	int		count of bytes which are not consumed yet
+	 */
+	public int available() {
+		return mCount;
+	}
+
+	/**
+	 * @return	int		count of bytes which can be written
+	 */
+	public int remaining() {
+		return mBuffer.length - mCount;
+	}
+
+	/**
+	 * Copy bytes into buffer.
+	 * @param src		source array
+	 * @param offset	start position in source array
+	 * @param length	count of bytes to copy
+	 * @return	int		count of bytes copied. Less than length if buffer is full.
+	 */
+	public int write(byte[] src, int offset, int length) {
+		int count = Math.min(length, remaining());
+		int tail = (mHead + mCount) & mMask;
+		int first = Math.min(count, mBuffer.length - tail);
+		System.arraycopy(src, offset, mBuffer, tail, first);
+		if(count > first)
+			System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+		mCount += count;
+		return count;
+	}
+
+	/**
+	 * Returns byte at specified position without consuming it.
+	 * @param index		position from read position. Must be smaller than available()
+	 * @return	byte
+	 */
+	public byte peek(int index) {
+		return mBuffer[(mHead + index) & mMask];
+	}
+
+	/**
+	 * Consume bytes
+	 * @param count		count of bytes to discard
+	 */
+	public void skip(int count) {
+		if(count > mCount)
+			count = mCount;
+		mHead = (mHead + count) & mMask;
+		mCount -= count;
+	}
+
+}
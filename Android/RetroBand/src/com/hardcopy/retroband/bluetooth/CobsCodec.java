@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+/**
+ * Consistent Overhead Byte Stuffing.
+ * Encoded data has no 0x00 byte, so 0x00 can be used as frame delimiter.
+ * Overhead is 1 byte per 254 bytes.
+ * Use CobsDecoder to decode received stream.
+ */
+public class CobsCodec {
+
+	public static final byte DELIMITER = 0x00;
+
+	/**
+	 * Returns max size of encoded data (without delimiter)
+	 * @param length	size of data to encode
+	 * @return	int		max encoded size
+	 */
+	public static int getMaxEncodedLength(int length) {
+		return length + length / 254 + 1;
+	}
+
+	/**
+	 * Encode bytes. Delimiter is not added.
+	 * @param src			data to encode
+	 * @param offset		start position of data
+	 * @param length		size of data
+	 * @param dst			array to write encoded data. Must have getMaxEncodedLength(length) bytes.
+	 * @param dstOffset		start position to write
+	 * @return	int			size of encoded data
+	 */
+	public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int codeIndex = dstOffset;		// Position of current code byte
+		int index = dstOffset + 1;
+		int code = 1;
+
+		for(int i=offset; i < offset + length; i++) {
+			if(src[i] == 0) {
+				dst[codeIndex] = (byte)code;
+				codeIndex = index;
+				index++;
+				code = 1;
+			} else {
+				dst[index] = src[i];
+				index++;
+				code++;
+				if(code == 0xff) {
+					// Block is full
+					dst[codeIndex] = (byte)code;
+					codeIndex = index;
+					index++;
+					code = 1;
+				}
+			}
+		}
+		dst[codeIndex] = (byte)code;
+
+		return index - dstOffset;
+	}
+
+	/**
+	 * Decode a whole encoded frame. Delimiter must not be included.
+	 * @param src			encoded data
+	 * @param offset		start position
+	 * @param length		size of encoded data
+	 * @param dst			array to write decoded data. Must have length bytes.
+	 * @param dstOffset		start position to write
+	 * @return	int			size of decoded data or -1 if data is invalid
+	 */
+	public static int decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int index = dstOffset;
+		int i = offset;
+		int end = offset + length;
+
+		while(i < end) {
+			int code = src[i] & 0xff;
+			if(code == 0 || i + code > end)
+				return -1;
+			i++;
+			for(int j=1; j<code; j++) {
+				dst[index] = src[i];
+				index++;
+				i++;
+			}
+			if(code < 0xff && i < end) {
+				dst[index] = 0;
+				index++;
+			}
+		}
+
+		return index - dstOffset;
+	}
+
+}
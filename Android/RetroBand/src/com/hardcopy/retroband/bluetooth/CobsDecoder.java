@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+/**
+ * Streaming COBS decoder.
+ * Feed received bytes one by one. When delimiter(0x00) arrives, decoded frame
+ * is available in the buffer until next byte is fed.
+ * Output buffer is allocated once.
+ */
+public class CobsDecoder {
+
+	public static final int RESULT_NONE = 0;				// Frame is not completed
+	public static final int RESULT_FRAME_COMPLETED = 1;		// Decoded frame is in buffer
+	public static final int RESULT_ERROR = -1;				// Invalid data or too long frame
+
+	private final byte[] mBuffer;
+	private int mLength = 0;
+	private int mRemaining = 0;		// Bytes remaining in current block
+	private int mBlockCode = 0;		// Code byte of current block
+	private boolean mCompleted = false;
+
+
+	/**
+	 * Constructor
+	 * @param maxFrameLength	max size of decoded frame
+	 */
+	public CobsDecoder(int maxFrameLength) {
+		mBuffer = new byte[maxFrameLength];
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	public void reset() {
+		mLength = 0;
+		mRemaining = 0;
+		mBlockCode = 0;
+		mCompleted = false;
+	}
+
+	/**
+	 * Decode a byte
+	 * @param b			received byte
+	 * @return	int		RESULT_NONE, RESULT_FRAME_COMPLETED or RESULT_ERROR.
+	 * 					Empty frame makes RESULT_NONE.
+	 */
+	public int feed(byte b) {
+		if(mCompleted)
+			reset();
+
+		if(b == CobsCodec.DELIMITER) {
+			boolean isValid = (mRemaining == 0);
+			boolean isEmpty = (mBlockCode == 0);
+			if(isValid && !isEmpty) {
+				mCompleted = true;
+				return RESULT_FRAME_COMPLETED;
+			}
+			reset();
+			return isValid ? RESULT_NONE : RESULT_ERROR;
+		}
+
+		if(mRemaining == 0) {
+			// Code byte. Previous block ends with zero unless it was full block.
+			if(mBlockCode != 0 && mBlockCode != 0xff) {
+				if(!append((byte)0))
+					return RESULT_ERROR;
+			}
+			mBlockCode = b & 0xff;
+			mRemaining = mBlockCode - 1;
+		} else {
+			if(!append(b))
+				return RESULT_ERROR;
+			mRemaining--;
+		}
+		return RESULT_NONE;
+	}
+
+	/**
+	 * @return	byte[]		decoded bytes. Valid after RESULT_FRAME_COMPLETED.
+	 */
+	public byte[] getBuffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * @return	int		size of decoded frame
+	 */
+	public int getLength() {
+		return mLength;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private boolean append(byte b) {
+		if(mLength >= mBuffer.length) {
+			reset();
+			return false;
+		}
+		mBuffer[mLength] = b;
+		mLength++;
+		return true;
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+/**
+ * CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF).
+ * Remote device(Arduino) uses same algorithm.
+ */
+public class Crc16 {
+
+	public static final int INITIAL_VALUE = 0xffff;
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for(int i=0; i<256; i++) {
+			int crc = i << 8;
+			for(int j=0; j<8; j++) {
+				if((crc & 0x8000) != 0)
+					crc = (crc << 1) ^ 0x1021;
+				else
+					crc = crc << 1;
+			}
+			TABLE[i] = crc & 0xffff;
+		}
+	}
+
+	/**
+	 * Add a byte to CRC
+	 * @param crc		current CRC value
+	 * @param b			byte to add
+	 * @return	int		new CRC value
+	 */
+	public static int update(int crc, byte b) {
+		return ((crc << 8) ^ TABLE[((crc >>> 8) ^ b) & 0xff]) & 0xffff;
+	}
+
+	/**
+	 * Calculate CRC of byte array
+	 * @param buffer	byte array
+	 * @param offset	start position
+	 * @param length	count of bytes
+	 * @return	int		CRC value
+	 */
+	public static int calculate(byte[] buffer, int offset, int length) {
+		int crc = INITIAL_VALUE;
+		for(int i=offset; i<offset+length; i++) {
+			crc = update(crc, buffer[i]);
+		}
+		return crc;
+	}
+
+	/**
+	 * Calculate CRC of bytes in ring buffer without consuming them
+	 * @param buffer	ring buffer
+	 * @param offset	start position from read position
+	 * @param length	count of bytes
+	 * @return	int		CRC value
+	 */
+	public static int calculate(ByteRingBuffer buffer, int offset, int length) {
+		int crc = INITIAL_VALUE;
+		for(int i=offset; i<offset+length; i++) {
+			crc = update(crc, buffer.peek(i));
+		}
+		return crc;
+	}
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import com.hardcopy.retroband.contents.ContentObject;
+
+/**
+ * Parse frames of protocol version 2 and 3.
+ * <p>
+ * Protocol description -----------------------------------------------------------
+ * <pre>
+ * 	[Start byte: 2byte]			0xFE 0xFB
+ * 	[Version: 1byte]			0x02
+ * 	[Flags: 1byte]				FLAG_DELTA_VARINT or 0x00
+ * 	[Sequence: 2byte]			increased by 1 for each frame, wraps at 0xFFFF
+ * 	[Sample count: 1byte]
+ * 	[Payload length: 2byte]		sample count * 3 axis * 2byte
+ * 	[Payload]					x, y, z of each sample. 2-byte signed integer, high byte first
+ * 	[CRC: 2byte]				CRC-16/CCITT-FALSE from version byte to end of payload
+ * </pre>
+ * Multi-byte values are sent high byte first.
+ * Payload has no byte substitution, so every value is sent as it is.
+ * <p>
+ * If FLAG_DELTA_VARINT is set, payload is compressed. Each axis value is
+ * the difference from the same axis of the previous sample (first sample
+ * is the value itself), zigzag encoded and written as varint
+ * (7 bits per byte, low bits first, MSB set if more bytes follow).
+ * Remote sends compressed payload only if it's smaller than raw payload.
+ * <p>
+ * Version 3 has the same frame body (from version byte to CRC) with version 0x03.
+ * Instead of start bytes, the body is COBS encoded and followed by 0x00 delimiter.
+ * <p>
+ * Frame bytes are consumed only after CRC check passes. If anything is wrong,
+ * caller drops the first start byte and searches next start byte.
+ */
+public class FrameParserV2 {
+
+	public static final int PROTOCOL_VERSION = 0x02;
+	public static final int PROTOCOL_VERSION_COBS = 0x03;
+
+	public static final int START_BYTE_SIZE = 2;
+	// Offsets in frame body
+	public static final int OFFSET_VERSION = 0;
+	public static final int OFFSET_FLAGS = 1;
+	public static final int OFFSET_SEQUENCE = 2;
+	public static final int OFFSET_SAMPLE_COUNT = 4;
+	public static final int OFFSET_PAYLOAD_LENGTH = 5;
+	public static final int HEADER_SIZE = 7;
+	public static final int CRC_SIZE = 2;
+	
+	// Flags
+	public static final int FLAG_DELTA_VARINT = 0x01;
+
+	public static final int MAX_SAMPLE_COUNT = ContentObject.MAX_DATA_COUNT;
+	public static final int MAX_BODY_SIZE = HEADER_SIZE + MAX_SAMPLE_COUNT * 3 * 2 + CRC_SIZE;
+
+	// Parse result
+	public static final int RESULT_NEED_MORE_BYTES = 0;
+	public static final int RESULT_FRAME_COMPLETED = 1;
+	public static final int RESULT_INVALID_FRAME = -1;
+
+	private byte[] mBody = new byte[MAX_BODY_SIZE];
+	private int mLastSequence = -1;
+	private volatile int mSamplingInterval = ContentObject.DEFAULT_SAMPLING_INTERVAL;	// Set by other thread
+	private int[] mPrevious = new int[3];		// Previous value of each axis for delta decoding
+
+	// Statistics
+	private int mFrameCount = 0;
+	private int mLostFrameCount = 0;
+	private int mCrcErrorCount = 0;
+	private int mHeaderErrorCount = 0;
+	private long mPayloadByteCount = 0;
+	private long mSampleCount = 0;
+
+
+	public FrameParserV2() {
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Forget previous sequence number. Call this when connection is changed.
+	 */
+	public void reset() {
+		mLastSequence = -1;
+	}
+
+	/**
+	 * Set sampling interval of remote device. Parsed objects have this value.
+	 * @param interval		time between samples in milli-second
+	 */
+	public void setSamplingInterval(int interval) {
+		if(interval > 0)
+			mSamplingInterval = interval;
+	}
+
+	/**
+	 * Parse a version 2 frame which starts at read position of the buffer.
+	 * Buffer must start with start bytes of version 2.
+	 * @param in		stream buffer. Frame bytes are consumed only if frame is valid.
+	 * @param out		queue to push parsed object
+	 * @return	int		RESULT_NEED_MORE_BYTES, RESULT_FRAME_COMPLETED or RESULT_INVALID_FRAME
+	 */
+	public int parse(ByteRingBuffer in, FrameQueue out) {
+		if(in.available() < START_BYTE_SIZE + HEADER_SIZE)
+			return RESULT_NEED_MORE_BYTES;
+
+		// Check header before waiting whole frame
+		int version = in.peek(START_BYTE_SIZE + OFFSET_VERSION) & 0xff;
+		int flags = in.peek(START_BYTE_SIZE + OFFSET_FLAGS) & 0xff;
+		int sampleCount = in.peek(START_BYTE_SIZE + OFFSET_SAMPLE_COUNT) & 0xff;
+		int payloadLength = ((in.peek(START_BYTE_SIZE + OFFSET_PAYLOAD_LENGTH) & 0xff) << 8)
+				| (in.peek(START_BYTE_SIZE + OFFSET_PAYLOAD_LENGTH + 1) & 0xff);
+		if(version != PROTOCOL_VERSION || !isValidLength(flags, sampleCount, payloadLength)) {
+			mHeaderErrorCount++;
+			return RESULT_INVALID_FRAME;
+		}
+
+		int bodySize = HEADER_SIZE + payloadLength + CRC_SIZE;
+		if(in.available() < START_BYTE_SIZE + bodySize)
+			return RESULT_NEED_MORE_BYTES;
+
+		for(int i=0; i<bodySize; i++) {
+			mBody[i] = in.peek(START_BYTE_SIZE + i);
+		}
+		int result = parseBody(mBody, 0, bodySize, PROTOCOL_VERSION, out);
+		if(result == RESULT_FRAME_COMPLETED)
+			in.skip(START_BYTE_SIZE + bodySize);
+		return result;
+	}
+
+	/**
+	 * Parse a frame body (from version byte to CRC)
+	 * @param body			byte array which has frame body
+	 * @param offset		start position of frame body
+	 * @param length		size of frame body
+	 * @param version		expected protocol version
+	 * @param out			queue to push parsed object
+	 * @return	int			RESULT_FRAME_COMPLETED or RESULT_INVALID_FRAME
+	 */
+	public int parseBody(byte[] body, int offset, int length, int version, FrameQueue out) {
+		if(length < HEADER_SIZE + CRC_SIZE) {
+			mHeaderErrorCount++;
+			return RESULT_INVALID_FRAME;
+		}
+
+		// Check header
+		int flags = body[offset + OFFSET_FLAGS] & 0xff;
+		int sampleCount = body[offset + OFFSET_SAMPLE_COUNT] & 0xff;
+		int payloadLength = readUnsignedShort(body, offset + OFFSET_PAYLOAD_LENGTH);
+		if((body[offset + OFFSET_VERSION] & 0xff) != version
+				|| !isValidLength(flags, sampleCount, payloadLength)
+				|| length != HEADER_SIZE + payloadLength + CRC_SIZE) {
+			mHeaderErrorCount++;
+			return RESULT_INVALID_FRAME;
+		}
+
+		// Check CRC
+		int crc = Crc16.calculate(body, offset, HEADER_SIZE + payloadLength);
+		if(crc != readUnsignedShort(body, offset + HEADER_SIZE + payloadLength)) {
+			mCrcErrorCount++;
+			return RESULT_INVALID_FRAME;
+		}
+
+		// Make content object
+		ContentObject co = out.obtain(System.currentTimeMillis());
+		co.mSamplingInterval = mSamplingInterval;
+		int start = offset + HEADER_SIZE;
+		int end = start + payloadLength;
+		if((flags & FLAG_DELTA_VARINT) != 0) {
+			if(!readDeltaVarint(body, start, end, sampleCount, co)) {
+				out.recycle(co);
+				mHeaderErrorCount++;
+				return RESULT_INVALID_FRAME;
+			}
+		} else {
+			for(int i=start; i < end; i+=2) {
+				co.setAccelData((short)readUnsignedShort(body, i));
+			}
+		}
+		out.push(co);
+
+		// Check dropped frames
+		int sequence = readUnsignedShort(body, offset + OFFSET_SEQUENCE);
+		if(mLastSequence > -1)
+			mLostFrameCount += (sequence - mLastSequence - 1) & 0xffff;
+		mLastSequence = sequence;
+
+		mFrameCount++;
+		mPayloadByteCount += payloadLength;
+		mSampleCount += sampleCount;
+		return RESULT_FRAME_COMPLETED;
+	}
+
+	/**
+	 * @return	int		count of valid frames
+	 */
+	public int getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * @return	int		count of frames which are missing in sequence number
+	 */
+	public int getLostFrameCount() {
+		return mLostFrameCount;
+	}
+
+	/**
+	 * @return	int		count of frames rejected by CRC check
+	 */
+	public int getCrcErrorCount() {
+		return mCrcErrorCount;
+	}
+
+	/**
+	 * @return	int		count of frames rejected by header check
+	 */
+	public int getHeaderErrorCount() {
+		return mHeaderErrorCount;
+	}
+
+	/**
+	 * @return	long	sum of payload size of valid frames
+	 */
+	public long getPayloadByteCount() {
+		return mPayloadByteCount;
+	}
+
+	/**
+	 * @return	long	sum of sample count of valid frames
+	 */
+	public long getSampleCount() {
+		return mSampleCount;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private static boolean isValidLength(int flags, int sampleCount, int payloadLength) {
+		if(sampleCount > MAX_SAMPLE_COUNT)
+			return false;
+		if((flags & FLAG_DELTA_VARINT) != 0)
+			return payloadLength <= sampleCount * 3 * 2;	// Never larger than raw payload
+		return payloadLength == sampleCount * 3 * 2;
+	}
+
+	/**
+	 * Decode compressed payload into content object.
+	 * @return	boolean		payload has exactly sampleCount samples
+	 */
+	private boolean readDeltaVarint(byte[] buffer, int start, int end, int sampleCount, ContentObject co) {
+		mPrevious[0] = 0;
+		mPrevious[1] = 0;
+		mPrevious[2] = 0;
+
+		int index = start;
+		for(int i=0; i < sampleCount * 3; i++) {
+			// Read varint
+			int encoded = 0;
+			int shift = 0;
+			int b;
+			do {
+				if(index >= end || shift > 28)
+					return false;
+				b = buffer[index] & 0xff;
+				index++;
+				encoded |= (b & 0x7f) << shift;
+				shift += 7;
+			} while((b & 0x80) != 0);
+
+			// Zigzag decode and add to previous value
+			int axis = i % 3;
+			int value = (short)(mPrevious[axis] + ((encoded >>> 1) ^ -(encoded & 1)));
+			mPrevious[axis] = value;
+			co.setAccelData(value);
+		}
+		return index == end;
+	}
+
+	private static int readUnsignedShort(byte[] buffer, int index) {
+		return ((buffer[index] & 0xff) << 8) | (buffer[index + 1] & 0xff);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
+
+/**
+ * Fixed capacity queue of parsed frames.
+ * Content objects come from ContentObjectPool and go back to the pool
+ * after the consumer recycles them, so steady-state parsing doesn't make new objects.
+ * If the queue is full, the oldest frame is dropped.
+ * Queue methods are not thread-safe. Pool methods (obtain, recycle) can be
+ * called from the consumer thread while the parser thread is running.
+ */
+public class FrameQueue {
+
+	private final ContentObject[] mQueue;
+	private int mHead = 0;
+	private int mCount = 0;
+
+	private final ContentObjectPool mPool;
+
+	private int mDroppedCount = 0;
+	private int mMaxCount = 0;
+
+
+	/**
+	 * Constructor
+	 * @param capacity		max count of frames waiting in queue
+	 * @param pool			pool of content objects
+	 */
+	public FrameQueue(int capacity, ContentObjectPool pool) {
+		mQueue = new ContentObject[capacity];
+		mPool = pool;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Returns empty content object to fill.
+	 * Makes new instance only when every pooled object is in use.
+	 * @param timeInMilli	time of the frame
+	 * @return	ContentObject
+	 */
+	public ContentObject obtain(long timeInMilli) {
+		return mPool.acquire(timeInMilli);
+	}
+
+	/**
+	 * Return content object to pool.
+	 * Caller must not use the object after calling this.
+	 * @param co	content object
+	 */
+	public void recycle(ContentObject co) {
+		mPool.release(co);
+	}
+
+	/**
+	 * Add completed frame to queue.
+	 * If queue is full, oldest frame is dropped and recycled.
+	 * @param co	completed frame
+	 */
+	public void push(ContentObject co) {
+		if(mCount == mQueue.length) {
+			recycle(poll());
+			mDroppedCount++;
+		}
+		mQueue[(mHead + mCount) % mQueue.length] = co;
+		mCount++;
+		if(mCount > mMaxCount)
+			mMaxCount = mCount;
+	}
+
+	/**
+	 * Remove and return oldest frame
+	 * @return	ContentObject		null if queue is empty
+	 */
+	public ContentObject poll() {
+		if(mCount < 1)
+			return null;
+		ContentObject co = mQueue[mHead];
+		mQueue[mHead] = null;
+		mHead = (mHead + 1) % mQueue.length;
+		mCount--;
+		return co;
+	}
+
+	/**
+	 * Move waiting frames to caller's array in arrival order.
+	 * @param out		array to fill
+	 * @return	int		count of frames moved. Frames which don't fit remain in queue.
+	 */
+	public int drain(ContentObject[] out) {
+		int count = 0;
+		while(mCount > 0 && count < out.length) {
+			out[count] = poll();
+			count++;
+		}
+		return count;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public void clear() {
+		while(mCount > 0) {
+			recycle(poll());
+		}
+	}
+
+	/**
+	 * @return	int		max count of frames which waited in queue at the same time
+	 */
+	public int getMaxSize() {
+		return mMaxCount;
+	}
+
+	/**
+	 * @return	int		count of frames dropped because queue was full
+	 */
+	public int getDroppedCount() {
+		return mDroppedCount;
+	}
+
+}
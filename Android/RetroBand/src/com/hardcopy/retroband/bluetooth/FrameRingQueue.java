@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.hardcopy.retroband.contents.ContentObject;
+
+/**
+ * Bounded lock-free queue between one producer thread (bluetooth reader)
+ * and one consumer thread (analysis).
+ * <p>
+ * Slots are preallocated content objects. Producer copies a frame into a slot
+ * and consumer copies it out, so objects are never shared between threads.
+ * <p>
+ * When the queue is full:
+ * <pre>
+ * 	POLICY_DROP_OLDEST		oldest frame is overwritten
+ * 	POLICY_DROP_NEWEST		new frame is rejected
+ * 	POLICY_BLOCK			producer waits until consumer takes a frame
+ * </pre>
+ * Every dropped frame is counted in getOverflowCount().
+ * <p>
+ * For drop-oldest, producer moves head with CAS before overwriting the slot.
+ * Consumer copies a slot and then moves head with CAS. If the CAS fails,
+ * the slot was overwritten while copying and consumer reads again.
+ */
+public class FrameRingQueue {
+
+	public static final int POLICY_DROP_OLDEST = 1;
+	public static final int POLICY_DROP_NEWEST = 2;
+	public static final int POLICY_BLOCK = 3;
+
+	private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final ContentObject[] mSlots;
+	private final int mMask;
+	private final int mPolicy;
+
+	private final AtomicLong mHead = new AtomicLong(0);		// Next slot to read
+	private final AtomicLong mTail = new AtomicLong(0);		// Next slot to write
+	private final AtomicLong mOverflowCount = new AtomicLong(0);
+
+	private volatile Thread mWaitingConsumer = null;
+	private volatile Thread mWaitingProducer = null;
+
+
+	/**
+	 * Constructor
+	 * @param capacity		count of slots. Rounded up to power of 2.
+	 * @param policy		POLICY_DROP_OLDEST, POLICY_DROP_NEWEST or POLICY_BLOCK
+	 */
+	public FrameRingQueue(int capacity, int policy) {
+		int size = 1;
+		while(size < capacity) {
+			size <<= 1;
+		}
+		mSlots = new ContentObject[size];
+		for(int i=0; i<size; i++) {
+			mSlots[i] = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, -1, 0);
+		}
+		mMask = size - 1;
+		mPolicy = policy;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Copy a frame into the queue. Producer thread only.
+	 * @param src			frame to copy. Caller can reuse it after this returns.
+	 * @return	boolean		false if frame is rejected (POLICY_DROP_NEWEST or interrupted)
+	 */
+	public boolean offer(ContentObject src) {
+		long tail = mTail.get();
+		while(tail - mHead.get() >= mSlots.length) {
+			if(mPolicy == POLICY_DROP_OLDEST) {
+				long head = mHead.get();
+				if(tail - head >= mSlots.length && mHead.compareAndSet(head, head + 1))
+					mOverflowCount.incrementAndGet();
+			} else if(mPolicy == POLICY_BLOCK) {
+				mWaitingProducer = Thread.currentThread();
+				if(tail - mHead.get() >= mSlots.length)
+					LockSupport.parkNanos(this, WAIT_NANOS);
+				mWaitingProducer = null;
+				if(Thread.currentThread().isInterrupted()) {
+					mOverflowCount.incrementAndGet();
+					return false;
+				}
+			} else {
+				mOverflowCount.incrementAndGet();
+				return false;
+			}
+		}
+
+		mSlots[(int)tail & mMask].copyFrom(src);
+		mTail.set(tail + 1);		// Publish slot
+
+		Thread consumer = mWaitingConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Copy oldest frame out of the queue. Consumer thread only.
+	 * @param dst			object to fill
+	 * @return	boolean		false if queue is empty
+	 */
+	public boolean poll(ContentObject dst) {
+		while(true) {
+			long head = mHead.get();
+			if(head >= mTail.get())
+				return false;
+
+			dst.copyFrom(mSlots[(int)head & mMask]);
+			if(mHead.compareAndSet(head, head + 1)) {
+				Thread producer = mWaitingProducer;
+				if(producer != null)
+					LockSupport.unpark(producer);
+				return true;
+			}
+			// Producer overwrote the slot while copying. Read next oldest.
+		}
+	}
+
+	/**
+	 * Wait until a frame arrives and copy it out. Consumer thread only.
+	 * @param dst			object to fill
+	 * @return	boolean		false if thread is interrupted
+	 */
+	public boolean take(ContentObject dst) {
+		while(!poll(dst)) {
+			mWaitingConsumer = Thread.currentThread();
+			if(mHead.get() >= mTail.get())
+				LockSupport.parkNanos(this, WAIT_NANOS);
+			mWaitingConsumer = null;
+			if(Thread.interrupted())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until a frame arrives or timeout, and copy it out. Consumer thread only.
+	 * Interrupt status is kept, so caller can check it.
+	 * @param dst			object to fill
+	 * @param timeout		max wait time in milli-second
+	 * @return	boolean		false if timeout, interrupted or woken by wakeConsumer()
+	 */
+	public boolean take(ContentObject dst, long timeout) {
+		if(poll(dst))
+			return true;
+		long waitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
+		if(waitNanos <= 0)
+			return false;
+		mWaitingConsumer = Thread.currentThread();
+		if(mHead.get() >= mTail.get())
+			LockSupport.parkNanos(this, waitNanos);
+		mWaitingConsumer = null;
+		return poll(dst);
+	}
+
+	/**
+	 * Wake consumer waiting in take(dst, timeout)
+	 */
+	public void wakeConsumer() {
+		Thread consumer = mWaitingConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Remove every waiting frame. Consumer thread only.
+	 */
+	public void clear() {
+		mHead.set(mTail.get());
+	}
+
+	/**
+	 * @return	int		count of waiting frames
+	 */
+	public int size() {
+		long size = mTail.get() - mHead.get();
+		return (int)Math.max(0, Math.min(size, mSlots.length));
+	}
+
+	public int capacity() {
+		return mSlots.length;
+	}
+
+	/**
+	 * @return	long	count of frames dropped or rejected because queue was full
+	 */
+	public long getOverflowCount() {
+		return mOverflowCount.get();
+	}
+
+}
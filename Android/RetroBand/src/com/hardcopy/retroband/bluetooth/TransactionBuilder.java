@@ -50,6 +50,20 @@ public class TransactionBuilder {
 		
 		public static final int MAX_MESSAGE_LENGTH = 16;
 		
+		// Commands to remote
+		// [Start byte: 2byte: 0xFE 0xFB][Command: 1byte][Parameter: 1byte]
+		public static final int COMMAND_SET_PROTOCOL_VERSION = 0x10;
+		public static final int COMMAND_SET_COMPRESSION = 0x11;		// Parameter: 1 = delta varint, 0 = raw
+		public static final int COMMAND_SET_SAMPLE_RATE = 0x12;		// Parameter: samples per second (Hz). Divisor of 1000 only.
+		public static final int COMMAND_SET_FRAME_SIZE = 0x13;		// Parameter: samples per frame
+		
+		public static final int DEFAULT_SAMPLE_RATE = 20;
+		public static final int MAX_SAMPLE_RATE = 100;
+		
+		public static final int PROTOCOL_VERSION_LEGACY = 0x01;
+		public static final int PROTOCOL_VERSION_2 = FrameParserV2.PROTOCOL_VERSION;
+		public static final int PROTOCOL_VERSION_COBS = FrameParserV2.PROTOCOL_VERSION_COBS;
+		
 		// Transaction instance status
 		private static final int STATE_NONE = 0;		// Instance created
 		private static final int STATE_BEGIN = 1;		// Initialize transaction
@@ -61,6 +75,7 @@ public class TransactionBuilder {
 		private int mState = STATE_NONE;
 		private byte[] mBuffer = null;
 		private String mMsg = null;
+		private byte[] mCommand = null;
 		
 		
 		/**
@@ -70,6 +85,7 @@ public class TransactionBuilder {
 			mState = STATE_BEGIN;
 			mMsg = null;
 			mBuffer = null;
+			mCommand = null;
 		}
 		
 		/**
@@ -80,12 +96,28 @@ public class TransactionBuilder {
 			mMsg = msg;
 		}
 		
+		/**
+		 * Set command to send
+		 * @param command		command type
+		 * @param param			parameter of the command
+		 */
+		public void setCommand(int command, int param) {
+			mCommand = new byte[4];
+			mCommand[0] = TransactionReceiver.Transaction.TRANSACTION_START_BYTE;
+			mCommand[1] = TransactionReceiver.Transaction.TRANSACTION_START_BYTE_V2;
+			mCommand[2] = (byte)command;
+			mCommand[3] = (byte)param;
+		}
+		
 		/**
 		 * Ready to send data to remote
 		 */
 		public void settingFinished() {
 			mState = STATE_SETTING_FINISHED;
-			mBuffer = mMsg.getBytes();
+			if(mCommand != null)
+				mBuffer = mCommand;
+			else if(mMsg != null)
+				mBuffer = mMsg.getBytes();
 		}
 		
 		/**
@@ -16,8 +16,11 @@
 
 package com.hardcopy.retroband.bluetooth;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+
 import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
 import android.os.Handler;
 
 /**
@@ -32,13 +35,27 @@ public class TransactionReceiver {
 	private static final int PARSE_MODE_WAIT_COMMAND = 2;
 	private static final int PARSE_MODE_WAIT_DATA = 3;
 	private static final int PARSE_MODE_WAIT_END_BYTE = 4;
+	private static final int PARSE_MODE_WAIT_FRAME_V2 = 5;
+	private static final int PARSE_MODE_WAIT_COBS_FRAME = 6;
 	private static final int PARSE_MODE_COMPLETED = 101;
 	
+	private static final int STREAM_BUFFER_SIZE = 512;
+	private static final int FRAME_QUEUE_SIZE = 16;
+	private static final int DRAIN_BUFFER_SIZE = 8;
+	
+	// Legacy frame has 20 samples. Remote device(Arduino) uses 2-byte integer. 3 axis per sample.
+	private static final int FRAME_DATA_BYTES = ContentObject.DATA_COUNT * 3 * 2;
+	
 	private Handler mHandler = null;
-	private ArrayList<ContentObject> mObjectQueue = new ArrayList<ContentObject>();
+	private ByteRingBuffer mStreamBuffer = new ByteRingBuffer(STREAM_BUFFER_SIZE);
+	private FrameQueue mObjectQueue = new FrameQueue(FRAME_QUEUE_SIZE, ContentObjectPool.getInstance());
+	private FrameParserV2 mParserV2 = new FrameParserV2();
+	private CobsDecoder mCobsDecoder = new CobsDecoder(FrameParserV2.MAX_BODY_SIZE);
+	private int mCobsOffset = 0;		// Count of bytes fed to COBS decoder but not consumed
+	private ContentObject[] mDrainBuffer = new ContentObject[DRAIN_BUFFER_SIZE];
 	
 	private int mParseMode = PARSE_MODE_WAIT_START_BYTE;
-	private ContentObject mContentObject = null;
+	private long mFrameTime = 0;
 	
 	
 	
@@ -49,14 +66,27 @@ public class TransactionReceiver {
 	
 	
 	/**
-	 * Reset transaction receiver.
+	 * Reset parse state of current frame.
+	 * Cached bytes and parsed objects are kept.
 	 */
 	public void reset() {
 		mParseMode = PARSE_MODE_WAIT_START_BYTE;
-		mCacheStart = 0x00;
-		mCacheEnd = 0x00;
-		mCacheData = 0x00;
-		mCached = false;
+		mFrameTime = 0;
+		mCobsOffset = 0;
+		mCobsDecoder.reset();
+	}
+	
+	/**
+	 * Forget everything of previous connection. Cached bytes are discarded,
+	 * parsed objects which are not taken yet are returned to pool,
+	 * and sequence of frame parser is reset.
+	 * Call from the reading thread before the first read of a new connection.
+	 */
+	public void resetSession() {
+		reset();
+		mStreamBuffer.clear();
+		mObjectQueue.clear();
+		mParserV2.reset();
 	}
 	
 	/**
@@ -74,18 +104,95 @@ public class TransactionReceiver {
 	 * @return	ContentObject		parsed object
 	 */
 	public ContentObject getObject() {
-		ContentObject object = null;
-		if(mObjectQueue != null && mObjectQueue.size() > 0)
-			object = mObjectQueue.remove(0);
-		
-		return object;
+		return mObjectQueue.poll();
+	}
+	
+	/**
+	 * Returns every parsed object at once.
+	 * @param out		array to fill with parsed objects in arrival order
+	 * @return	int		count of objects filled. If it's same with array size,
+	 * 					call again to get remaining objects.
+	 */
+	public int drainObjects(ContentObject[] out) {
+		if(out == null)
+			return 0;
+		return mObjectQueue.drain(out);
+	}
+	
+	/**
+	 * @return	int		count of parsed objects waiting to be taken
+	 */
+	public int getBacklogCount() {
+		return mObjectQueue.size();
+	}
+	
+	/**
+	 * @return	int		max backlog count since this receiver was made
+	 */
+	public int getMaxBacklogCount() {
+		return mObjectQueue.getMaxSize();
+	}
+	
+	/**
+	 * @return	int		count of parsed objects dropped because nobody took them
+	 */
+	public int getDroppedCount() {
+		return mObjectQueue.getDroppedCount();
+	}
+	
+	/**
+	 * Set sampling interval negotiated with remote device.
+	 * Applied to version 2 and 3 frames. Legacy frames always use default interval.
+	 * @param interval		time between samples in milli-second
+	 */
+	public void setSamplingInterval(int interval) {
+		mParserV2.setSamplingInterval(interval);
+	}
+	
+	/**
+	 * @return	FrameParserV2		parser of protocol version 2. Use this to get frame statistics.
+	 */
+	public FrameParserV2 getParserV2() {
+		return mParserV2;
+	}
+	
+	/**
+	 * Return content object which came from getObject() to the pool.
+	 * Do not use the object after calling this.
+	 * @param co		content object to reuse
+	 */
+	public void recycleObject(ContentObject co) {
+		mObjectQueue.recycle(co);
+	}
+	
+	/**
+	 * Read stream until it ends and parse on the calling thread.
+	 * Every object completed by a read is given to listener and recycled after that.
+	 * Bluetooth reader thread calls this with socket stream. Any stream works, e.g. piped stream.
+	 * @param in			stream to read
+	 * @param buffer		read buffer. Reused for every read.
+	 * @param listener		receives parsed objects
+	 * @throws IOException	when read fails. Returns normally at end of stream.
+	 */
+	public void readStream(InputStream in, byte[] buffer, IFrameListener listener) throws IOException {
+		int bytes;
+		while((bytes = in.read(buffer)) >= 0) {
+			parseStream(buffer, bytes);
+			int backlog = mObjectQueue.size();
+			
+			// Hand over every frame completed by this read
+			int count;
+			do {
+				count = mObjectQueue.drain(mDrainBuffer);
+				for(int i = 0; i < count; i++) {
+					ContentObject co = mDrainBuffer[i];
+					mDrainBuffer[i] = null;
+					listener.OnFrameReceived(co, backlog);
+					mObjectQueue.recycle(co);
+				}
+			} while(count == mDrainBuffer.length);
+		}
 	}
-
-	// Temporary variables for parsing
-	private byte mCacheStart = 0x00;
-	private byte mCacheEnd = 0x00;
-	private int mCacheData = 0x00;
-	private boolean mCached = false;
 	
 	/**
 	 * Caching received stream.
@@ -95,125 +202,167 @@ public class TransactionReceiver {
 	 */
 	public void parseStream(byte[] buffer, int count) {
 		if(buffer != null && buffer.length > 0 && count > 0) {
-			for(int i=0; i < buffer.length && i < count; i++) {
-				
-				// Parse received data
-				// Protocol description -----------------------------------------------------------
-				// [*] Accel data
-				// 		[Start byte: 2byte]
-				//		[Data: 6byte: 3 integer data]... 
-				//		[End byte: 2byte]
-				
-				switch(mParseMode) {
+			if(count > buffer.length)
+				count = buffer.length;
+			
+			int offset = 0;
+			while(offset < count) {
+				// Cache bytes as many as possible and parse cached bytes
+				int written = mStreamBuffer.write(buffer, offset, count - offset);
+				if(written < 1) {
+					// Parser is stuck with full buffer. Never happens with valid frames.
+					mStreamBuffer.clear();
+					reset();
+					continue;
+				}
+				offset += written;
+				parseCachedStream();
+			}
+		}
+	}
+	
+	/**
+	 * Parse cached bytes. Bytes of incomplete frame remain in the stream buffer.
+	 */
+	private void parseCachedStream() {
+		// Parse received data
+		// Protocol description -----------------------------------------------------------
+		// [*] Accel data (legacy)
+		// 		[Start byte: 2byte]
+		//		[Data: 6byte: 3 integer data]... 
+		//		[End byte: 2byte]
+		// [*] Accel data (version 2, 3): See FrameParserV2
+		while(true) {
+			switch(mParseMode) {
+			
+			case PARSE_MODE_WAIT_START_BYTE:
+				if(!findStartByte())
+					return;
+				if(mStreamBuffer.peek(0) == CobsCodec.DELIMITER) {
+					// Next COBS frame starts after delimiter
+					mStreamBuffer.skip(1);
+					mParseMode = PARSE_MODE_WAIT_COBS_FRAME;
+				} else if(mStreamBuffer.peek(1) == Transaction.TRANSACTION_START_BYTE_V2) {
+					// Version 2 parser consumes start bytes with the frame
+					mParseMode = PARSE_MODE_WAIT_FRAME_V2;
+				} else {
+					//Logs.d("Read data: TRANSACTION_START_BYTE");
+					mStreamBuffer.skip(2);
+					mParseMode = PARSE_MODE_WAIT_DATA;
+					mFrameTime = System.currentTimeMillis();
+				}
+				break;
 				
-				case PARSE_MODE_WAIT_START_BYTE:
-					if(buffer[i] == Transaction.TRANSACTION_START_BYTE_2
-							&& mCacheStart == Transaction.TRANSACTION_START_BYTE) {
-						//Logs.d("Read data: TRANSACTION_START_BYTE");
-						mParseMode = PARSE_MODE_WAIT_DATA;
-						if(mContentObject == null) {
-							mContentObject = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, -1, 0);
-							mContentObject.mTimeInMilli = System.currentTimeMillis();
-						}
-					} else {
-						mCacheStart = buffer[i];
-					}
-					break;
-				/* Disabled: 
-				case PARSE_MODE_WAIT_COMMAND:
-					Logs.d("Read data: PARSE_MODE_WAIT_COMMAND = " + String.format("%02X ", buffer[i]));
-					switch(buffer[i]) {
-					case Transaction.COMMAND_TYPE_PING:
-						mParseMode = PARSE_MODE_WAIT_END_BYTE;
-						break;
-						
-					case Transaction.COMMAND_TYPE_ACCEL_DATA:
-						mParseMode = PARSE_MODE_WAIT_DATA;
-						break;
-
-					default:
-						mParseMode = PARSE_MODE_WAIT_START_BYTE;
-						break;
-					}	// End of switch()
-					break;
-				*/
-				case PARSE_MODE_WAIT_DATA:
-					/*
-					 * TODO: Check end byte (sometimes data byte is same with end byte)
-					 * 
-					if(buffer[i] == Transaction.TRANSACTION_END_BYTE
-							|| buffer[i] == Transaction.TRANSACTION_END_BYTE_2) {
-						if(buffer[i] == Transaction.TRANSACTION_END_BYTE_2
-								&& mCacheEnd == Transaction.TRANSACTION_END_BYTE) {
-							Logs.d("Read data: TRANSACTION_END_BYTE");
-							mParseMode = PARSE_MODE_COMPLETED;
-							break;
-						} else {
-							mCacheEnd = buffer[i];
-						}
-					}
-					*/
-					
-					// Forced to fill 20 accel data
-					if(mContentObject != null && mContentObject.mAccelIndex > ContentObject.DATA_COUNT - 1) {
-						//Logs.d("Read data: TRANSACTION_END_BYTE");
-						mParseMode = PARSE_MODE_COMPLETED;
-						break;
-					}
-					
-					// Remote device(Arduino) uses 2-byte integer.
-					// We must cache 2byte to make single value
-					if(mCached) {
-						int tempData = 0x00000000;
-						int tempData2 = 0x00000000;
-						boolean isNegative = false;
-						
-						if(mCacheData == 0x0000007f)	// Recover first byte (To avoid null byte, 0x00 was converted to 0x7f)
-							mCacheData = 0x00000000;
-						if( (mCacheData & 0x00000080) == 0x00000080 )	// Check first bit which is 'sign' bit
-							isNegative = true;
-						if(buffer[i] == 0x01) 	// Recover second byte (To avoid null byte, 0x00 was converted to 0x01)
-							buffer[i] = 0x00;
-						
-						tempData2 |= (buffer[i] & 0x000000ff);
-						tempData = (((mCacheData << 8) | tempData2) & 0x00007FFF);
-						
-						//Logs.d(String.format("%02X ", mCacheData) + String.format("%02X ", tempData2) + String.format("%02X ", tempData));
-						
-						// negative number uses 2's complement math. Set first 9 bits as 1.
-						if(isNegative)
-							tempData = (tempData | 0xFFFF8000);
-						
-						// Recovered integer value. Remember this value.
-						if(mContentObject != null) {
-							mContentObject.setAccelData(tempData);
-						}
-						mCacheData = 0x00000000;
-						mCached = false;
-					} else {
-						mCacheData |= (buffer[i] & 0x000000ff);		// Remember first byte
-						mCached = true;
-					}
-					break;
-					
-				}	// End of switch()
+			case PARSE_MODE_WAIT_FRAME_V2:
+				int result = mParserV2.parse(mStreamBuffer, mObjectQueue);
+				if(result == FrameParserV2.RESULT_NEED_MORE_BYTES)
+					return;
+				if(result == FrameParserV2.RESULT_INVALID_FRAME) {
+					// Broken frame or start byte in data. Search again from next byte.
+					mStreamBuffer.skip(1);
+				}
+				reset();
+				break;
 				
-				if(mParseMode == PARSE_MODE_COMPLETED) {
-					pushObject();
+			case PARSE_MODE_WAIT_COBS_FRAME:
+				int cobsResult = readCobsFrame();
+				if(cobsResult == FrameParserV2.RESULT_NEED_MORE_BYTES)
+					return;
+				if(cobsResult == FrameParserV2.RESULT_INVALID_FRAME) {
+					// Not a COBS stream or broken frame. Search start bytes again
+					// from the bytes after delimiter.
 					reset();
 				}
-			}	// End of for loop
-		}	// End of if()
+				// Delimiter of this frame is the start of next frame. Keep COBS mode.
+				break;
+				
+			case PARSE_MODE_WAIT_DATA:
+				// TODO: Check end byte (sometimes data byte is same with end byte)
+				// Forced to fill 20 accel data
+				if(mStreamBuffer.available() < FRAME_DATA_BYTES)
+					return;
+				
+				ContentObject co = mObjectQueue.obtain(mFrameTime);
+				readAccelData(co);
+				mStreamBuffer.skip(FRAME_DATA_BYTES);
+				
+				//Logs.d("ContentObject created: time="+co.mTimeInMilli);
+				mObjectQueue.push(co);
+				reset();
+				break;
+				
+			default:
+				reset();
+				break;
+			}	// End of switch()
+		}	// End of while loop
+	}
+	
+	/**
+	 * Feed cached bytes to COBS decoder until a frame is completed.
+	 * Bytes are consumed only if the frame is valid.
+	 * @return	int		RESULT_NEED_MORE_BYTES, RESULT_FRAME_COMPLETED or RESULT_INVALID_FRAME
+	 */
+	private int readCobsFrame() {
+		while(mCobsOffset < mStreamBuffer.available()) {
+			int result = mCobsDecoder.feed(mStreamBuffer.peek(mCobsOffset));
+			mCobsOffset++;
+			
+			if(result == CobsDecoder.RESULT_ERROR)
+				return FrameParserV2.RESULT_INVALID_FRAME;
+			if(result == CobsDecoder.RESULT_FRAME_COMPLETED) {
+				result = mParserV2.parseBody(mCobsDecoder.getBuffer(), 0, mCobsDecoder.getLength(), 
+						FrameParserV2.PROTOCOL_VERSION_COBS, mObjectQueue);
+				if(result != FrameParserV2.RESULT_FRAME_COMPLETED)
+					return FrameParserV2.RESULT_INVALID_FRAME;
+				
+				mStreamBuffer.skip(mCobsOffset);
+				mCobsOffset = 0;
+				mCobsDecoder.reset();
+				return FrameParserV2.RESULT_FRAME_COMPLETED;
+			}
+		}
+		return FrameParserV2.RESULT_NEED_MORE_BYTES;
+	}
+	
+	/**
+	 * Discard bytes until start bytes of legacy or version 2 frame
+	 * or delimiter of version 3 frame are found.
+	 * Start bytes remain at read position of the stream buffer.
+	 * @return	boolean		start bytes are found
+	 */
+	private boolean findStartByte() {
+		while(mStreamBuffer.available() > 1) {
+			if(mStreamBuffer.peek(0) == CobsCodec.DELIMITER)
+				return true;
+			if(mStreamBuffer.peek(0) == Transaction.TRANSACTION_START_BYTE
+					&& (mStreamBuffer.peek(1) == Transaction.TRANSACTION_START_BYTE_2
+					|| mStreamBuffer.peek(1) == Transaction.TRANSACTION_START_BYTE_V2)) {
+				return true;
+			}
+			mStreamBuffer.skip(1);
+		}
+		return false;
 	}
 	
 	/**
-	 * Push new object to queue
+	 * Read accel data of a frame from stream buffer.
+	 * Stream buffer must have FRAME_DATA_BYTES at least.
+	 * @param co		content object to fill
 	 */
-	private void pushObject() {
-		if(mContentObject != null) {
-			//Logs.d("ContentObject created: time="+mContentObject.mTimeInMilli);
-			mObjectQueue.add(mContentObject);
-			mContentObject = null;
+	private void readAccelData(ContentObject co) {
+		for(int i=0; i < FRAME_DATA_BYTES; i+=2) {
+			// Remote device(Arduino) uses 2-byte integer.
+			int high = mStreamBuffer.peek(i) & 0x000000ff;
+			int low = mStreamBuffer.peek(i+1) & 0x000000ff;
+			
+			if(high == 0x0000007f)	// Recover first byte (To avoid null byte, 0x00 was converted to 0x7f)
+				high = 0x00000000;
+			if(low == 0x00000001) 	// Recover second byte (To avoid null byte, 0x00 was converted to 0x01)
+				low = 0x00000000;
+			
+			// negative number uses 2's complement math.
+			co.setAccelData((short)((high << 8) | low));
 		}
 	}
 	
@@ -221,8 +370,9 @@ public class TransactionReceiver {
 	 * Defines transaction constants
 	 */
 	public class Transaction {
-		private static final byte TRANSACTION_START_BYTE = (byte)0xfe;
-		private static final byte TRANSACTION_START_BYTE_2 = (byte)0xfd;
+		static final byte TRANSACTION_START_BYTE = (byte)0xfe;
+		static final byte TRANSACTION_START_BYTE_2 = (byte)0xfd;
+		static final byte TRANSACTION_START_BYTE_V2 = (byte)0xfb;	// Second start byte of version 2 frame
 		private static final byte TRANSACTION_END_BYTE = (byte)0xfd;
 		private static final byte TRANSACTION_END_BYTE_2 = (byte)0xfe;
 		
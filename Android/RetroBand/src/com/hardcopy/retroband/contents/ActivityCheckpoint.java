@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Append-only file of current hour, day, month and year buckets.
+ * <p>
+ * DB is written every few minutes, so process kill loses activity after
+ * the last DB write. Checkpoint appends a small fixed-size record of current
+ * buckets instead, which is cheap enough to do every few seconds. Written
+ * bytes survive process kill because the kernel keeps them. On startup,
+ * the last record which has a valid checksum is restored, so a record torn
+ * by kill is skipped.
+ * <p>
+ * When the file has MAX_RECORDS, it is replaced with a file of the last
+ * record by renaming, so the file never loses every record.
+ * <p>
+ * Not thread safe. Owner must synchronize.
+ */
+public class ActivityCheckpoint {
+
+	private static final String TAG = "ActivityCheckpoint";
+
+	private static final int MAGIC = 0x52424350;		// "RBCP"
+	private static final int FIRST_LEVEL = ActivityRollup.LEVEL_HOUR;
+	private static final int VALUE_COUNT = (ActivityRollup.LEVEL_COUNT - FIRST_LEVEL) * ActivityRollup.METRIC_COUNT;
+	// magic, year, month, day, hour, values, checksum
+	public static final int RECORD_SIZE = 5 * 4 + VALUE_COUNT * 8 + 8;
+	private static final int MAX_RECORDS = 256;
+
+	private final File mFile;
+	private final File mTempFile;
+	private RandomAccessFile mOut = null;
+	private int mRecordCount = 0;
+
+	private final byte[] mBuffer = new byte[RECORD_SIZE];
+	private final ByteBuffer mRecord = ByteBuffer.wrap(mBuffer);
+	private final CRC32 mCrc = new CRC32();
+
+
+	/**
+	 * Constructor. File is opened on first write.
+	 * @param file		checkpoint file
+	 */
+	public ActivityCheckpoint(File file) {
+		mFile = file;
+		mTempFile = new File(file.getPath() + ".tmp");
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Restore the last valid record. Rollup is started at the time of the record
+	 * and current buckets are merged, so caller must advance it to current time.
+	 * @param rollup		rollup to restore
+	 * @return	boolean		true if a record is restored
+	 */
+	public boolean restore(ActivityRollup rollup) {
+		if(!mFile.exists())
+			return false;
+
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(mFile, "r");
+			long count = in.length() / RECORD_SIZE;
+			for(long i = count - 1; i > -1; i--) {
+				in.seek(i * RECORD_SIZE);
+				in.readFully(mBuffer);
+				if(!isValid())
+					continue;
+
+				mRecord.clear();
+				mRecord.getInt();		// magic
+				int year = mRecord.getInt();
+				int month = mRecord.getInt();
+				int day = mRecord.getInt();
+				int hour = mRecord.getInt();
+				rollup.start(year, month, day, hour, 0);
+				for(int level = FIRST_LEVEL; level < ActivityRollup.LEVEL_COUNT; level++) {
+					int slot = rollup.getCurrentSlot(level);
+					for(int metric = 0; metric < ActivityRollup.METRIC_COUNT; metric++)
+						rollup.merge(level, slot, metric, mRecord.getLong());
+				}
+				return true;
+			}
+		} catch (IOException e) {
+			Logs.e(TAG, "# Cannot read checkpoint: " + e.getMessage());
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Append current buckets of the rollup
+	 * @param rollup		rollup to save
+	 */
+	public void write(ActivityRollup rollup) {
+		mRecord.clear();
+		mRecord.putInt(MAGIC);
+		mRecord.putInt(rollup.getYear());
+		mRecord.putInt(rollup.getMonth());
+		mRecord.putInt(rollup.getDay());
+		mRecord.putInt(rollup.getHour());
+		for(int level = FIRST_LEVEL; level < ActivityRollup.LEVEL_COUNT; level++) {
+			int slot = rollup.getCurrentSlot(level);
+			for(int metric = 0; metric < ActivityRollup.METRIC_COUNT; metric++)
+				mRecord.putLong(rollup.get(level, slot, metric));
+		}
+		mCrc.reset();
+		mCrc.update(mBuffer, 0, RECORD_SIZE - 8);
+		mRecord.putLong(mCrc.getValue());
+
+		try {
+			if(mOut == null || mRecordCount >= MAX_RECORDS)
+				compact();
+			else {
+				mOut.write(mBuffer);
+				mRecordCount++;
+			}
+		} catch (IOException e) {
+			Logs.e(TAG, "# Cannot write checkpoint: " + e.getMessage());
+			close();
+		}
+	}
+
+	/**
+	 * Close the file. Next write() opens it again.
+	 */
+	public void close() {
+		if(mOut != null) {
+			try {
+				mOut.close();
+			} catch (IOException e) {}
+			mOut = null;
+		}
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private boolean isValid() {
+		mRecord.clear();
+		if(mRecord.getInt(0) != MAGIC)
+			return false;
+		mCrc.reset();
+		mCrc.update(mBuffer, 0, RECORD_SIZE - 8);
+		return mRecord.getLong(RECORD_SIZE - 8) == mCrc.getValue();
+	}
+
+	/**
+	 * Replace the file with the record in buffer and keep it open for append
+	 */
+	private void compact() throws IOException {
+		close();
+		RandomAccessFile temp = new RandomAccessFile(mTempFile, "rw");
+		try {
+			temp.setLength(0);
+			temp.write(mBuffer);
+		} finally {
+			temp.close();
+		}
+		if(!mTempFile.renameTo(mFile))
+			throw new IOException("rename failed");
+
+		mOut = new RandomAccessFile(mFile, "rw");
+		mOut.seek(mOut.length());
+		mRecordCount = 1;
+	}
+
+}
@@ -1,6 +1,13 @@
 package com.hardcopy.retroband.contents;
 
 public class ActivityReport {
+	// Activity class
+	public static final int ACTIVITY_UNKNOWN = 0;
+	public static final int ACTIVITY_IDLE = 1;
+	public static final int ACTIVITY_WALK = 2;
+	public static final int ACTIVITY_RUN = 3;
+	public static final int ACTIVITY_OTHER = 4;
+	
 	public int mId = -1;
 	public int mType = 0;
 	public long mStartTime = 0;			// Start time of this activity report
@@ -11,9 +18,14 @@ public class ActivityReport {
 	public int mAverageDifference = 0;
 	public int mSamplingInterval = 0;
 	public int mTotalTime = 0;
+	public int mReceivedSamples = 0;	// Samples received in this report period
+	public int mAnalyzedSamples = 0;	// Samples actually analyzed
 	
 	// Result
 	public int mShakeActionCount = 0;	// Walk count
+	public int mStepCount = 0;			// Walk count in this report period
+	public double mMET = 0;				// Intensity of activity in this report period
+	public int mActivityClass = ACTIVITY_UNKNOWN;
 	public double mCalorie = 0;			// Calorie consumes for 1 sec.
 	public double mSumOfCalorie = 0;	// Total calorie consumed for this session
 }
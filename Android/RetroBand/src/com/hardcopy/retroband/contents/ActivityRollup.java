@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.util.Arrays;
+
+/**
+ * Sums activity metrics in minute, hour, day, month and year buckets.
+ * <p>
+ * Each level keeps the buckets inside current bucket of the upper level.
+ * (60 minutes of this hour, 24 hours of today, 31 days of this month,
+ * 12 months of this year, and this year.) Values of a level are kept in one
+ * long array as [metric * slot count + slot], so add() is a fixed count of
+ * array updates and nothing is allocated after construction.
+ * <p>
+ * advance() moves to new time. When a bucket of hour or upper level is
+ * finished, listener is called from finest level to upper level, and then
+ * buckets inside the finished one are cleared.
+ * <p>
+ * Not thread safe. Owner must synchronize.
+ */
+public class ActivityRollup {
+
+	public static final int LEVEL_MINUTE = 0;
+	public static final int LEVEL_HOUR = 1;
+	public static final int LEVEL_DAY = 2;
+	public static final int LEVEL_MONTH = 3;
+	public static final int LEVEL_YEAR = 4;
+	public static final int LEVEL_COUNT = 5;
+
+	public static final int METRIC_STEPS = 0;
+	public static final int METRIC_CALORIE = 1;
+	public static final int METRIC_ACTIVE_SECONDS = 2;
+	public static final int METRIC_MAX_INTENSITY = 3;		// Merged by max, others are summed
+	public static final int METRIC_COUNT = 4;
+
+	private static final int[] SLOT_COUNT = { 60, 24, 31, 12, 1 };
+
+	private final long[][] mValues = new long[LEVEL_COUNT][];
+	private IRollupListener mListener;
+
+	// Current time. Zero-based numbers like Calendar fields.
+	private int mYear = -1;
+	private int mMonth = -1;		// (in the range [0,11])
+	private int mDay = -1;			// (in the range [0,30])
+	private int mHour = -1;			// (in the range [0,23])
+	private int mMinute = -1;		// (in the range [0,59])
+
+
+	/**
+	 * Constructor
+	 * @param listener		receives finished buckets
+	 */
+	public ActivityRollup(IRollupListener listener) {
+		mListener = listener;
+		for(int level=0; level<LEVEL_COUNT; level++)
+			mValues[level] = new long[SLOT_COUNT[level] * METRIC_COUNT];
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Clear every bucket and set current time without calling listener
+	 * @param year
+	 * @param month		in the range [0,11]
+	 * @param day		in the range [0,30]
+	 * @param hour		in the range [0,23]
+	 * @param minute	in the range [0,59]
+	 */
+	public void start(int year, int month, int day, int hour, int minute) {
+		for(int level=0; level<LEVEL_COUNT; level++)
+			Arrays.fill(mValues[level], 0);
+		mYear = year;
+		mMonth = month;
+		mDay = day;
+		mHour = hour;
+		mMinute = minute;
+	}
+
+	/**
+	 * Move to new time. Finished buckets are reported to listener.
+	 * @param year
+	 * @param month		in the range [0,11]
+	 * @param day		in the range [0,30]
+	 * @param hour		in the range [0,23]
+	 * @param minute	in the range [0,59]
+	 */
+	public void advance(int year, int month, int day, int hour, int minute) {
+		int changed;
+		if(year != mYear)
+			changed = LEVEL_YEAR;
+		else if(month != mMonth)
+			changed = LEVEL_MONTH;
+		else if(day != mDay)
+			changed = LEVEL_DAY;
+		else if(hour != mHour)
+			changed = LEVEL_HOUR;
+		else {
+			mMinute = minute;
+			return;
+		}
+
+		if(mListener != null) {
+			for(int level=LEVEL_HOUR; level<=changed; level++)
+				mListener.OnBucketFinished(level, mYear, mMonth, mDay, mHour);
+		}
+
+		// Buckets inside the finished one are not used any more.
+		// Year level has only one bucket, so it is cleared with its own bucket.
+		for(int level=0; level<changed; level++)
+			Arrays.fill(mValues[level], 0);
+		if(changed == LEVEL_YEAR)
+			Arrays.fill(mValues[LEVEL_YEAR], 0);
+
+		mYear = year;
+		mMonth = month;
+		mDay = day;
+		mHour = hour;
+		mMinute = minute;
+	}
+
+	/**
+	 * Add activity to current bucket of every level
+	 * @param steps			step count
+	 * @param calorie		calorie
+	 * @param activeSeconds	time in activity
+	 * @param intensity		intensity of activity. Max value is kept.
+	 */
+	public void add(long steps, long calorie, long activeSeconds, long intensity) {
+		for(int level=0; level<LEVEL_COUNT; level++) {
+			long[] values = mValues[level];
+			int slots = SLOT_COUNT[level];
+			int slot = getCurrentSlot(level);
+			values[METRIC_STEPS * slots + slot] += steps;
+			values[METRIC_CALORIE * slots + slot] += calorie;
+			values[METRIC_ACTIVE_SECONDS * slots + slot] += activeSeconds;
+			int i = METRIC_MAX_INTENSITY * slots + slot;
+			if(intensity > values[i])
+				values[i] = intensity;
+		}
+	}
+
+	/**
+	 * Restore value of a bucket. Bigger one of current and new value is kept,
+	 * because a bucket only grows and saved copies may be older than others.
+	 * @param level		LEVEL_*
+	 * @param slot		bucket in the level
+	 * @param metric	METRIC_*
+	 * @param value		saved value
+	 */
+	public void merge(int level, int slot, int metric, long value) {
+		if(slot < 0 || slot >= SLOT_COUNT[level])
+			return;
+		int i = metric * SLOT_COUNT[level] + slot;
+		if(value > mValues[level][i])
+			mValues[level][i] = value;
+	}
+
+	/**
+	 * Merge sum of every bucket of the level below to current bucket of the level
+	 * @param level		LEVEL_HOUR ~ LEVEL_YEAR
+	 */
+	public void rebuild(int level) {
+		if(level <= LEVEL_MINUTE || level >= LEVEL_COUNT)
+			return;
+		long[] lower = mValues[level - 1];
+		int lowerSlots = SLOT_COUNT[level - 1];
+		for(int metric=0; metric<METRIC_COUNT; metric++) {
+			long value = 0;
+			for(int i = metric * lowerSlots; i < (metric + 1) * lowerSlots; i++) {
+				if(metric == METRIC_MAX_INTENSITY) {
+					if(lower[i] > value)
+						value = lower[i];
+				} else {
+					value += lower[i];
+				}
+			}
+			merge(level, getCurrentSlot(level), metric, value);
+		}
+	}
+
+	/**
+	 * @param level		LEVEL_*
+	 * @param slot		bucket in the level
+	 * @param metric	METRIC_*
+	 * @return	long	value of the bucket. 0 if slot is out of range.
+	 */
+	public long get(int level, int slot, int metric) {
+		if(slot < 0 || slot >= SLOT_COUNT[level])
+			return 0;
+		return mValues[level][metric * SLOT_COUNT[level] + slot];
+	}
+
+	/**
+	 * Copy a metric of every bucket in the level
+	 * @param level		LEVEL_*
+	 * @param metric	METRIC_*
+	 * @param dst		array to fill. Values over int range are saturated.
+	 */
+	public void copy(int level, int metric, int[] dst) {
+		int slots = SLOT_COUNT[level];
+		long[] values = mValues[level];
+		int n = Math.min(slots, dst.length);
+		for(int i=0; i<n; i++) {
+			long v = values[metric * slots + i];
+			dst[i] = v > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)v;
+		}
+	}
+
+	/**
+	 * @return	int		count of buckets in the level
+	 */
+	public static int getSlotCount(int level) {
+		return SLOT_COUNT[level];
+	}
+
+	/**
+	 * @return	int		current bucket of the level
+	 */
+	public int getCurrentSlot(int level) {
+		switch(level) {
+		case LEVEL_MINUTE:
+			return mMinute;
+		case LEVEL_HOUR:
+			return mHour;
+		case LEVEL_DAY:
+			return mDay;
+		case LEVEL_MONTH:
+			return mMonth;
+		default:
+			return 0;
+		}
+	}
+
+	public int getYear() {
+		return mYear;
+	}
+
+	public int getMonth() {
+		return mMonth;
+	}
+
+	public int getDay() {
+		return mDay;
+	}
+
+	public int getHour() {
+		return mHour;
+	}
+
+	public int getMinute() {
+		return mMinute;
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Caches local date fields and the next minute, hour and day boundary
+ * in milli-second since epoch.
+ * <p>
+ * While time stays in the current minute, update() is one range check.
+ * When a minute boundary is crossed, minute is calculated from the cached
+ * zone offset. Zone offset is read again on each hour boundary, because
+ * DST transitions happen there. Calendar is used only when the day
+ * changes or the time zone is switched. A zone switch is noticed on the
+ * next minute boundary, or on next update() after invalidate().
+ * <p>
+ * Buckets follow local wall time. When DST ends, the repeated hour goes
+ * to the same hour bucket. When DST starts, the skipped hour has no bucket.
+ * <p>
+ * Not thread safe. Owner must synchronize.
+ */
+public class BucketBoundaryCache {
+
+	public static final long MINUTE_IN_MILLIS = 60 * 1000L;
+	public static final long HOUR_IN_MILLIS = 60 * MINUTE_IN_MILLIS;
+	public static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+	public static final IWallClock SYSTEM_CLOCK = new IWallClock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public TimeZone getTimeZone() {
+			return TimeZone.getDefault();
+		}
+	};
+
+	private final IWallClock mClock;
+	private final Calendar mCalendar;
+	private String mZoneId = null;
+	private TimeZone mZone = null;
+	private int mOffset = 0;			// Zone offset of current hour
+
+	// Boundaries in milli-second since epoch
+	private long mMinuteStart = Long.MAX_VALUE;
+	private long mNextMinute = Long.MIN_VALUE;
+	private long mHourStart = Long.MAX_VALUE;
+	private long mNextHour = Long.MIN_VALUE;
+	private long mNextDay = Long.MIN_VALUE;
+	private long mLocalDay = Long.MIN_VALUE;	// Days since epoch in local time
+
+	// Date fields. Zero-based numbers like ActivityRollup.
+	private int mYear = -1;
+	private int mMonth = -1;		// (in the range [0,11])
+	private int mDay = -1;			// (in the range [0,30])
+	private int mHour = -1;			// (in the range [0,23])
+	private int mMinute = -1;		// (in the range [0,59])
+
+
+	/**
+	 * Constructor
+	 * @param clock		wall clock. Use SYSTEM_CLOCK on device.
+	 */
+	public BucketBoundaryCache(IWallClock clock) {
+		mClock = clock;
+		mCalendar = Calendar.getInstance(clock.getTimeZone());
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Update date fields to current time of the clock
+	 * @return	boolean		true if minute or upper field may be changed
+	 */
+	public boolean update() {
+		return update(mClock.currentTimeMillis());
+	}
+
+	/**
+	 * Update date fields to the time
+	 * @param now			time in milli-second since epoch
+	 * @return	boolean		true if minute or upper field may be changed
+	 */
+	public boolean update(long now) {
+		if(now < mNextMinute && now >= mMinuteStart)
+			return false;
+
+		// Boundary is crossed. Zone is checked once a minute at most.
+		TimeZone zone = mClock.getTimeZone();
+		if(!zone.getID().equals(mZoneId)) {
+			recompute(now, zone);
+			return true;
+		}
+
+		if(now < mNextHour && now >= mHourStart) {
+			// Same hour, same offset
+			setMinute(now + mOffset);
+			return true;
+		}
+
+		// New hour. Offset may be changed by DST.
+		mOffset = mZone.getOffset(now);
+		long local = now + mOffset;
+		if(floorDiv(local, DAY_IN_MILLIS) != mLocalDay) {
+			recompute(now, zone);
+			return true;
+		}
+		setHour(local);
+		return true;
+	}
+
+	/**
+	 * Forget cached boundaries. Call when system time or time zone is set.
+	 */
+	public void invalidate() {
+		mZoneId = null;
+		mMinuteStart = Long.MAX_VALUE;
+		mNextMinute = Long.MIN_VALUE;
+	}
+
+	public int getYear() {
+		return mYear;
+	}
+
+	/**
+	 * @return	int		month in the range [0,11]
+	 */
+	public int getMonth() {
+		return mMonth;
+	}
+
+	/**
+	 * @return	int		day of month in the range [0,30]
+	 */
+	public int getDay() {
+		return mDay;
+	}
+
+	public int getHour() {
+		return mHour;
+	}
+
+	public int getMinute() {
+		return mMinute;
+	}
+
+	/**
+	 * @param time		time in current minute
+	 * @return	int		second of the time in the range [0,59]
+	 */
+	public int getSecond(long time) {
+		return (int)((time - mMinuteStart) / 1000);
+	}
+
+	/**
+	 * @return	long	start of next minute in milli-second since epoch
+	 */
+	public long getNextMinute() {
+		return mNextMinute;
+	}
+
+	/**
+	 * @return	long	start of next hour in milli-second since epoch
+	 */
+	public long getNextHour() {
+		return mNextHour;
+	}
+
+	/**
+	 * @return	long	start of next day in milli-second since epoch.
+	 * 					Calculated with current offset, so it is corrected when DST changes before that.
+	 */
+	public long getNextDay() {
+		return mNextDay;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	/**
+	 * Make every field with Calendar
+	 */
+	private void recompute(long now, TimeZone zone) {
+		if(!zone.getID().equals(mZoneId)) {
+			mZone = zone;
+			mZoneId = zone.getID();
+			mCalendar.setTimeZone(zone);
+		}
+		mOffset = zone.getOffset(now);
+		mCalendar.setTimeInMillis(now);
+		mYear = mCalendar.get(Calendar.YEAR);
+		mMonth = mCalendar.get(Calendar.MONTH);
+		mDay = mCalendar.get(Calendar.DAY_OF_MONTH) - 1;
+
+		long local = now + mOffset;
+		mLocalDay = floorDiv(local, DAY_IN_MILLIS);
+		setHour(local);
+	}
+
+	private void setHour(long local) {
+		long hour = floorDiv(local, HOUR_IN_MILLIS);
+		mHour = (int)(hour - mLocalDay * 24);
+		mHourStart = hour * HOUR_IN_MILLIS - mOffset;
+		mNextHour = mHourStart + HOUR_IN_MILLIS;
+		mNextDay = (mLocalDay + 1) * DAY_IN_MILLIS - mOffset;
+		setMinute(local);
+	}
+
+	private void setMinute(long local) {
+		long minute = floorDiv(local, MINUTE_IN_MILLIS);
+		mMinute = (int)(minute % 60);
+		if(mMinute < 0)
+			mMinute += 60;
+		mMinuteStart = minute * MINUTE_IN_MILLIS - mOffset;
+		mNextMinute = mMinuteStart + MINUTE_IN_MILLIS;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if((x % y != 0) && ((x < 0) != (y < 0)))
+			q--;
+		return q;
+	}
+
+}
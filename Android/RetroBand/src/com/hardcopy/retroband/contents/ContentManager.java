@@ -16,10 +16,11 @@
 
 package com.hardcopy.retroband.contents;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 
+import com.hardcopy.retroband.BuildConfig;
 import com.hardcopy.retroband.logic.Analyzer;
 import com.hardcopy.retroband.utils.Logs;
 
@@ -50,31 +51,33 @@ public class ContentManager {
 	private Context mContext;
 	private IContentManagerListener mContentManagerListener;
 	private DBHelper mDB = null;
+	private ReportWriter mReportWriter = null;		// Writes DB on its own thread
 	
 	private ArrayList<ContentObject> mContentList;		// Cache content objects
+	private SampleStore mSampleStore = new SampleStore(SampleStore.DEFAULT_MAX_CHUNKS);	// Samples of cached objects
+	private Analyzer mAnalyzer = new Analyzer();		// Analysis session of connected band
 	
 	// Time parameters
-	private static final int REPORT_INTERVAL = 1000;
-	private static final int REPORT_SAMPLING_TIME = 50;
-	private long mPreviousProcessTime = 0;
+	public static final int REPORT_INTERVAL = 1000;
+	private static final long SAVE_TIMEOUT = 3000;
 	
 	// Activity statistics
 	// WARNING: Date parameter is the zero-based number
 	// because we use parameters as array index
-	private int mThisYear = -1;
-	
-	private int mThisMonth = -1;	// (in the range [0,11])
+	private ActivityRollup mRollup = new ActivityRollup(new RollupListener());
+	private BucketBoundaryCache mBuckets = new BucketBoundaryCache(BucketBoundaryCache.SYSTEM_CLOCK);
+	private ActivityCheckpoint mCheckpoint = null;		// Current buckets saved between DB writes
+	private boolean mPersistDirty = false;		// Buckets changed after last DB write
+	private boolean mCheckpointDirty = false;	// Buckets changed after last checkpoint
+	private static final String CHECKPOINT_FILE = "activity.checkpoint";
+	private Time mBucketTime = new Time();		// Makes time of finished bucket
+	private static final int INTENSITY_SCALE = 10;	// Max intensity is saved as MET * 10
+	
+	// Calorie of current buckets returned to UI
 	private int[] mMonthArray = new int[12];
-	
-	private int mThisDay = -1;		// (in the range [0,30])
 	private int[] mDayArray = new int[31];
-	
-	private int mThisHour = -1;		// (in the range [0,23])
 	private int[] mHourArray = new int[24];
 	
-	private int mThisMinute = -1;	// (in the range [0,59])
-	private int[] mMinuteArray = new int[60]; 
-	
 
 	/**
 	 * Constructor
@@ -89,10 +92,11 @@ public class ContentManager {
 		if(mDB == null) {
 			mDB = new DBHelper(mContext).openWritable();
 		}
+		mReportWriter = new ReportWriter(mDB);
+		mCheckpoint = new ActivityCheckpoint(new File(mContext.getFilesDir(), CHECKPOINT_FILE));
 		
 		//----- Initialize activity data
 		initializeActivityParams();
-		getCurrentReportsFromDB();
 	}
 	
 	/**
@@ -106,12 +110,20 @@ public class ContentManager {
 	}
 	
 	public synchronized void finalize() {
+		if(mCheckpoint != null) {
+			mCheckpoint.close();
+			mCheckpoint = null;
+		}
+		if(mReportWriter != null) {
+			mReportWriter.close();
+			mReportWriter = null;
+		}
 		if(mDB != null) {
 			mDB.close();
 			mDB = null;
 		}
 		if(mContentList != null)
-			mContentList.clear();
+			releaseContentList();
 		mContentManager = null;
 	}
 
@@ -119,48 +131,61 @@ public class ContentManager {
 	/*****************************************************
 	 *	Private methods
 	 ******************************************************/
-	private void initializeBuffer() {
-		Arrays.fill(mMonthArray, 0x00000000);
-		Arrays.fill(mDayArray, 0x00000000);
-		Arrays.fill(mHourArray, 0x00000000);
-		Arrays.fill(mMinuteArray, 0x00000000);
-	}
-	
 	private void initializeActivityParams() {
-		initializeBuffer();
+		mBuckets.update();
 		
-		Calendar cal = Calendar.getInstance();
-		mThisYear = cal.get(Calendar.YEAR);
-		mThisMonth = cal.get(Calendar.MONTH);			// 0~11
-		mThisDay = cal.get(Calendar.DAY_OF_MONTH) - 1;	// convert to 0~30
-		mThisHour = cal.get(Calendar.HOUR_OF_DAY);		// 0~23
-		mThisMinute = cal.get(Calendar.MINUTE);			// 0~59
+		if(mCheckpoint.restore(mRollup)) {
+			// Buckets of the last session which may be killed before writing DB.
+			// Merge with DB, then finished buckets are written on DB by advance().
+			// Checkpoint is newer than DB, so DB has nothing of the buckets after advance().
+			getCurrentReportsFromDB();
+			mRollup.advance(mBuckets.getYear(), 
+					mBuckets.getMonth(), 
+					mBuckets.getDay(), 
+					mBuckets.getHour(), 
+					mBuckets.getMinute());
+			mPersistDirty = true;
+		} else {
+			mRollup.start(mBuckets.getYear(), 
+					mBuckets.getMonth(),		// 0~11
+					mBuckets.getDay(),			// 0~30
+					mBuckets.getHour(),			// 0~23
+					mBuckets.getMinute());		// 0~59
+			getCurrentReportsFromDB();
+		}
 	}
 	
 	/**
-	 * Make sum of calorie at this month, day, hour.
+	 * Make sum of activity at this year, month, day, hour.
 	 */
 	private void getCurrentReportsFromDB() {
+		int thisYear = mRollup.getYear();
+		int thisMonth = mRollup.getMonth();
+		int thisDay = mRollup.getDay();
+		
 		// Get month data in this year
-		Cursor c = mDB.selectReportWithDate(REPORT_TYPE_MONTH, mThisYear, -1, -1, -1);
+		Cursor c = mDB.selectReportWithDate(REPORT_TYPE_MONTH, thisYear, -1, -1, -1);
 		if(c != null) {
 			getDataFromCursor(MODE_CURRENT_TIME, REPORT_TYPE_MONTH, c);
 			c.close();
 		}
 		
 		// Get day data in this month
-		c = mDB.selectReportWithDate(REPORT_TYPE_DAY, mThisYear, mThisMonth, -1, -1);
+		c = mDB.selectReportWithDate(REPORT_TYPE_DAY, thisYear, thisMonth, -1, -1);
 		if(c != null) {
 			getDataFromCursor(MODE_CURRENT_TIME, REPORT_TYPE_DAY, c);
 			c.close();
 		}
 		
 		// Get hour data in this day
-		c = mDB.selectReportWithDate(REPORT_TYPE_HOUR, mThisYear, mThisMonth, mThisDay, -1);
+		c = mDB.selectReportWithDate(REPORT_TYPE_HOUR, thisYear, thisMonth, thisDay, -1);
 		if(c != null) {
 			getDataFromCursor(MODE_CURRENT_TIME, REPORT_TYPE_HOUR, c);
 			c.close();
 		}
+		
+		// Year is the sum of months. Older versions didn't save year report.
+		mRollup.rebuild(ActivityRollup.LEVEL_YEAR);
 	}
 	
 	/**
@@ -184,7 +209,7 @@ public class ContentManager {
 	 * @param mode		Make cache based on current time or specified time
 	 * @param type		REPORT_TYPE_MONTH or REPORT_TYPE_DAY or REPORT_TYPE_HOUR
 	 * @param c			Cursor
-	 * @return	int[]	Parsed result array
+	 * @return	int[]	Parsed calorie array. null if mode is MODE_CURRENT_TIME.
 	 */
 	private int[] getDataFromCursor(int mode, int type, Cursor c) {
 		int[] timeArray = null;
@@ -192,48 +217,41 @@ public class ContentManager {
 		
 		switch(type) {
 		case REPORT_TYPE_MONTH:
-			if(mode == MODE_CURRENT_TIME) {
-				timeArray = mMonthArray;
-			} else {
-				timeArray = new int[12];
-				Arrays.fill(timeArray, 0x00000000);
-			}
-			
 			columnIndex = DBHelper.INDEX_ACCEL_MONTH;
 			break;
 			
 		case REPORT_TYPE_DAY:
-			if(mode == MODE_CURRENT_TIME) {
-				timeArray = mDayArray;
-			} else {
-				timeArray = new int[31];
-				Arrays.fill(timeArray, 0x00000000);
-			}
-			
 			columnIndex = DBHelper.INDEX_ACCEL_DAY;
 			break;
 			
 		case REPORT_TYPE_HOUR:
-			if(mode == MODE_CURRENT_TIME) {
-				timeArray = mHourArray;
-			} else {
-				timeArray = new int[24];
-				Arrays.fill(timeArray, 0x00000000);
-			}
-			
 			columnIndex = DBHelper.INDEX_ACCEL_HOUR;
 			break;
 		default:
 			return null;
 		}
 		
+		int level = getRollupLevel(type);
+		int slotCount = ActivityRollup.getSlotCount(level);
+		if(mode != MODE_CURRENT_TIME) {
+			timeArray = new int[slotCount];
+			Arrays.fill(timeArray, 0x00000000);
+		}
+		
 		if(c != null && c.getCount() > 0) {
 			c.moveToFirst();
 			while(!c.isAfterLast()) {
 				int index = c.getInt(columnIndex);
 				int calorie = c.getInt(DBHelper.INDEX_ACCEL_DATA1);
-				if(calorie > 0 && index > -1 && index < timeArray.length) {
-					timeArray[index] = calorie;
+				if(calorie > 0 && index > -1 && index < slotCount) {
+					if(mode == MODE_CURRENT_TIME) {
+						mRollup.merge(level, index, ActivityRollup.METRIC_CALORIE, calorie);
+						mRollup.merge(level, index, ActivityRollup.METRIC_STEPS, c.getInt(DBHelper.INDEX_ACCEL_DATA2));
+						mRollup.merge(level, index, ActivityRollup.METRIC_ACTIVE_SECONDS, c.getInt(DBHelper.INDEX_ACCEL_DATA3));
+						mRollup.merge(level, index, ActivityRollup.METRIC_MAX_INTENSITY, c.getInt(DBHelper.INDEX_ACCEL_DATA4));
+					} else {
+						timeArray[index] = calorie;
+					}
 				}
 				
 				c.moveToNext();
@@ -249,137 +267,166 @@ public class ContentManager {
 	 */
 	private void addActivityReport(ActivityReport ar) {
 		if(ar != null) {
+			rollTimeBuckets();
 			
-			boolean isTimeChanged = false;
-			Calendar cal = Calendar.getInstance();
-			int prevYear = mThisYear;
-			int prevMonth = mThisMonth;
-			int prevDay = mThisDay;
-			int prevHour = mThisHour;
-			
-			// Add calorie to buffer
-			if(mThisMonth != cal.get(Calendar.MONTH)) {
-				// Push monthly report to DB
-				Time tempTime = new Time();
-				tempTime.set(1, 0, 0, 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-				long millis = tempTime.toMillis(true);
-				pushReportToDB(REPORT_TYPE_MONTH, millis, prevYear, prevMonth, 1, 0);
-				
-				// Set new date
-				mThisYear = cal.get(Calendar.YEAR);
-				mThisMonth = cal.get(Calendar.MONTH);
-				if(mThisMonth == Calendar.JANUARY)
-					Arrays.fill(mMonthArray, 0x00000000);
-				isTimeChanged = true;
-			}
-			mMonthArray[mThisMonth] += ar.mCalorie;
-			
-			if(mThisDay != cal.get(Calendar.DAY_OF_MONTH) - 1 || isTimeChanged) {
-				// Push daily report to DB
-				Time tempTime = new Time();
-				tempTime.set(1, 0, 0, prevDay + 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-				long millis = tempTime.toMillis(true);
-				pushReportToDB(REPORT_TYPE_DAY, millis, prevYear, prevMonth, prevDay, 0);
-				
-				if(isTimeChanged) {
-					// Month changed !! 
-					Arrays.fill(mDayArray, 0x00000000);					
-				} else {
-					// Month is not changed but day changed
-				}
-				
-				mThisDay = cal.get(Calendar.DAY_OF_MONTH) - 1;
-				isTimeChanged = true;
-			}
-			mDayArray[mThisDay] += ar.mCalorie;
-			
-			if(mThisHour != cal.get(Calendar.HOUR_OF_DAY) || isTimeChanged) {
-				// Push hourly report to DB
-				Time tempTime = new Time();
-				tempTime.set(1, 0, prevHour, prevDay + 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-				long millis = tempTime.toMillis(true);
-				pushReportToDB(REPORT_TYPE_HOUR, millis, prevYear, prevMonth, prevDay, prevHour);
-				
-				if(isTimeChanged) {
-					// Day changed !! 
-					Arrays.fill(mHourArray, 0x00000000);					
-				} else {
-					// Day is not changed but hour changed
-				}
-				
-				mThisHour = cal.get(Calendar.HOUR_OF_DAY);
-				isTimeChanged = true;
-			}
-			mHourArray[mThisHour] += ar.mCalorie;
-			
-			if(isTimeChanged || mThisMinute != cal.get(Calendar.MINUTE)) {
-				if(isTimeChanged) {
-					// Hour changed !! 
-					Arrays.fill(mMinuteArray, 0x00000000);					
-				} else {
-					// Hour is not changed but minute changed
-				}
-				
-				// Add to new minute buffer
-				mThisMinute = cal.get(Calendar.MINUTE);
-			}
-			mMinuteArray[mThisMinute] += ar.mCalorie;
-			
+			// Add to every time bucket
+			mRollup.add(ar.mStepCount, (long)ar.mCalorie, (ar.mTotalTime + 500) / 1000, 
+					Math.round(ar.mMET * INTENSITY_SCALE));
+			mPersistDirty = true;
+			mCheckpointDirty = true;
 		}	// end of if(ar != null)
 	}
 	
 	/**
-	 * Write sum of calorie on DB
+	 * Move to time buckets of current time. Finished buckets are written on DB.
+	 * Date fields are read only when a minute boundary is crossed.
+	 */
+	private void rollTimeBuckets() {
+		if(mBuckets.update()) {
+			mRollup.advance(mBuckets.getYear(), 
+					mBuckets.getMonth(), 
+					mBuckets.getDay(), 
+					mBuckets.getHour(), 
+					mBuckets.getMinute());
+		}
+	}
+	
+	/**
+	 * Convert report type to rollup level
+	 * @param type		REPORT_TYPE_YEAR, REPORT_TYPE_MONTH, REPORT_TYPE_DAY, REPORT_TYPE_HOUR
+	 * @return	int		ActivityRollup.LEVEL_*. -1 if type is invalid.
+	 */
+	private static int getRollupLevel(int type) {
+		switch(type) {
+		case REPORT_TYPE_YEAR:
+			return ActivityRollup.LEVEL_YEAR;
+		case REPORT_TYPE_MONTH:
+			return ActivityRollup.LEVEL_MONTH;
+		case REPORT_TYPE_DAY:
+			return ActivityRollup.LEVEL_DAY;
+		case REPORT_TYPE_HOUR:
+			return ActivityRollup.LEVEL_HOUR;
+		default:
+			return -1;
+		}
+	}
+	
+	/**
+	 * Convert rollup level to report type
+	 * @param level		ActivityRollup.LEVEL_*
+	 * @return	int		REPORT_TYPE_*. -1 if level is not saved.
+	 */
+	private static int getReportType(int level) {
+		switch(level) {
+		case ActivityRollup.LEVEL_YEAR:
+			return REPORT_TYPE_YEAR;
+		case ActivityRollup.LEVEL_MONTH:
+			return REPORT_TYPE_MONTH;
+		case ActivityRollup.LEVEL_DAY:
+			return REPORT_TYPE_DAY;
+		case ActivityRollup.LEVEL_HOUR:
+			return REPORT_TYPE_HOUR;
+		default:
+			return -1;
+		}
+	}
+	
+	/**
+	 * Return cached objects to pool
+	 */
+	private void releaseContentList() {
+		ContentObjectPool pool = ContentObjectPool.getInstance();
+		for(int i=0; i<mContentList.size(); i++) {
+			pool.release(mContentList.get(i));
+		}
+		mContentList.clear();
+	}
+	
+	/**
+	 * Write sum of activity on DB
 	 * @param type		REPORT_TYPE_YEAR, REPORT_TYPE_MONTH, REPORT_TYPE_DAY, REPORT_TYPE_HOUR
-	 * @param time		time in milli-second
 	 * @param year
-	 * @param month
-	 * @param day
-	 * @param hour
+	 * @param month		in the range [0,11]
+	 * @param day		in the range [0,30]
+	 * @param hour		in the range [0,23]
 	 */
-	private void pushReportToDB(int type, long time, int year, int month, int day, int hour) {
-		int calorie = 0;
+	private void pushReportToDB(int type, int year, int month, int day, int hour) {
+		int level = getRollupLevel(type);
+		int slot = 0;
 		
+		// Time of the bucket. day: in the range [1,31], month: in the range [0,11]
 		switch(type) {
 		case REPORT_TYPE_YEAR:
-			// Not available
-			return;
+			mBucketTime.set(1, 0, 0, 1, 0, year);
+			month = 0;
+			day = 0;
+			hour = 0;
+			break;
 			
 		case REPORT_TYPE_MONTH:
-			if(month > -1 && month < mMonthArray.length) {
-				calorie = mMonthArray[month];
-			} else {
-				return;
-			}
+			mBucketTime.set(1, 0, 0, 1, month, year);
+			slot = month;
+			day = 1;
+			hour = 0;
 			break;
 			
 		case REPORT_TYPE_DAY:
-			if(day > -1 && day < mDayArray.length) {
-				calorie = mDayArray[day];
-			} else {
-				return;
-			}
+			mBucketTime.set(1, 0, 0, day + 1, month, year);
+			slot = day;
+			hour = 0;
 			break;
 			
 		case REPORT_TYPE_HOUR:
-			if(hour > -1 && hour < mHourArray.length) {
-				calorie = mHourArray[hour];
-			} else {
-				return;
-			}
+			mBucketTime.set(1, 0, hour, day + 1, month, year);
+			slot = hour;
 			break;
+			
+		default:
+			return;
 		}
 		
-		if(calorie < 1)
+		if(slot < 0 || slot >= ActivityRollup.getSlotCount(level))
+			return;
+		
+		long calorie = mRollup.get(level, slot, ActivityRollup.METRIC_CALORIE);
+		long steps = mRollup.get(level, slot, ActivityRollup.METRIC_STEPS);
+		if(calorie < 1 && steps < 1)
 			return;
 		
 		// Make data array to save
-		// We use only one information, calorie.
 		int[] dataArray = new int[5];
 		Arrays.fill(dataArray, 0x00000000);
-		dataArray[0] = calorie;
+		dataArray[0] = (int)Math.min(calorie, Integer.MAX_VALUE);
+		dataArray[1] = (int)Math.min(steps, Integer.MAX_VALUE);
+		dataArray[2] = (int)Math.min(mRollup.get(level, slot, ActivityRollup.METRIC_ACTIVE_SECONDS), Integer.MAX_VALUE);
+		dataArray[3] = (int)Math.min(mRollup.get(level, slot, ActivityRollup.METRIC_MAX_INTENSITY), Integer.MAX_VALUE);
 		
-		mDB.insertActivityReport(type, time, year, month, day, hour, dataArray, null);
+		mReportWriter.write(type, mBucketTime.toMillis(true), year, month, day, hour, dataArray);
+	}
+	
+	/**
+	 * Write current buckets on DB. They are written again until they are finished.
+	 */
+	private void pushCurrentReports() {
+		int year = mRollup.getYear();
+		int month = mRollup.getMonth();
+		int day = mRollup.getDay();
+		int hour = mRollup.getHour();
+		
+		pushReportToDB(REPORT_TYPE_YEAR, year, month, day, hour);
+		pushReportToDB(REPORT_TYPE_MONTH, year, month, day, hour);
+		pushReportToDB(REPORT_TYPE_DAY, year, month, day, hour);
+		pushReportToDB(REPORT_TYPE_HOUR, year, month, day, hour);
+	}
+	
+	/**
+	 * Writes finished buckets on DB
+	 */
+	private class RollupListener implements IRollupListener {
+		@Override
+		public void OnBucketFinished(int level, int year, int month, int day, int hour) {
+			pushReportToDB(getReportType(level), year, month, day, hour);
+		}
 	}
 	
 	
@@ -392,73 +439,98 @@ public class ContentManager {
 	}
 	
 	/**
-	 * Save sum of calorie cache to DB
+	 * Save sum of activity cache to DB.
+	 * Returns after reports are written.
+	 * Buckets already written by persistActivityReport() are not written again.
 	 */
 	public void saveCurrentActivityReport() {
-		int prevYear = mThisYear;
-		int prevMonth = mThisMonth;
-		int prevDay = mThisDay;
-		int prevHour = mThisHour;
-		
-		// Push monthly report to DB
-		Time tempTime1 = new Time();
-		tempTime1.set(1, 0, 0, 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-		long millis1 = tempTime1.toMillis(true);
-		pushReportToDB(REPORT_TYPE_MONTH, millis1, prevYear, prevMonth, 1, 0);
-		
-		// Push daily report to DB
-		Time tempTime2 = new Time();
-		tempTime2.set(1, 0, 0, prevDay + 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-		long millis2 = tempTime2.toMillis(true);
-		pushReportToDB(REPORT_TYPE_DAY, millis2, prevYear, prevMonth, prevDay, 0);
+		ReportWriter writer;
+		synchronized(this) {
+			if(mPersistDirty) {
+				mPersistDirty = false;
+				pushCurrentReports();
+			}
+			writer = mReportWriter;
+		}
 		
-		// Push hourly report to DB
-		Time tempTime3 = new Time();
-		tempTime3.set(1, 0, prevHour, prevDay + 1, prevMonth, prevYear);	// convert day: in the range [1,31], month: in the range [0,11]
-		long millis3 = tempTime3.toMillis(true);
-		pushReportToDB(REPORT_TYPE_HOUR, millis3, prevYear, prevMonth, prevDay, prevHour);
+		// Wait without the lock, so analysis thread is not blocked by DB writes
+		if(writer != null)
+			writer.flush(SAVE_TIMEOUT);
+	}
+	
+	/**
+	 * Write changed buckets on DB. Called periodically by analysis thread.
+	 * Reports are queued to ReportWriter, so this doesn't wait DB.
+	 */
+	public synchronized void persistActivityReport() {
+		rollTimeBuckets();
+		if(!mPersistDirty)
+			return;
+		mPersistDirty = false;
+		pushCurrentReports();
+	}
+	
+	/**
+	 * Append changed buckets to checkpoint file. Called periodically by analysis thread.
+	 * Checkpoint is restored on next start if process is killed before DB is written.
+	 */
+	public synchronized void checkpointActivityReport() {
+		if(!mCheckpointDirty || mCheckpoint == null)
+			return;
+		mCheckpointDirty = false;
+		mCheckpoint.write(mRollup);
 	}
 	
 	
 	/**
 	 * After parsing packets from remote, service calls this method with result object.
-	 * This method analyze accel raw data and calculate walks, calories.
-	 * And makes an activity report instance which has analyzed results.
+	 * Object is cached until analyzeContents() is called.
+	 * Content manager owns the object and returns it to ContentObjectPool.
 	 * @param co		content object which has accel raw data array
-	 * @return			activity report instance which has analyzed results.
 	 */
-	public synchronized ActivityReport addContentObject(ContentObject co) {
+	public synchronized void addContentObject(ContentObject co) {
 		if(co == null) {
-			return null;
+			return;
 		}
 		
 		// Caching contents
+		mSampleStore.append(co);
 		mContentList.add(co);
+	}
+	
+	/**
+	 * Analyze cached objects and calculate walks, calories.
+	 * Called by scheduler every REPORT_INTERVAL, or earlier for a partial window.
+	 * @return			activity report instance which has analyzed results. null if nothing to report.
+	 */
+	public synchronized ActivityReport analyzeContents() {
+		if(mContentList.size() < 1)
+			return null;
 		
-		// Get current time
-		long currentTime = System.currentTimeMillis();
-		if(mPreviousProcessTime < 1)
-			mPreviousProcessTime = currentTime;
+		// Analyze accelerometer value and make report
+		// Sampling interval is negotiated with remote and stored in each object
+		ActivityReport ar = mAnalyzer.analyzeAccel(mContentList, mSampleStore, mContentList.get(0).mSamplingInterval);
 		
-		// Analyze cached contents
-		ActivityReport ar = null;
-		if(currentTime - mPreviousProcessTime > REPORT_INTERVAL) {
-			Logs.d("#");
-			Logs.d("# before analyzer");
-			// Analyze accelerometer value and make report
-			ar = Analyzer.analyzeAccel(mContentList, REPORT_SAMPLING_TIME, REPORT_INTERVAL);
-			
-			// Remember activity report
-			if(ar != null) {
-				addActivityReport(ar);
-			}
-			mPreviousProcessTime = currentTime;
-			mContentList.clear();
+		// Remember activity report
+		if(ar != null) {
+			addActivityReport(ar);
 		}
+		releaseContentList();
+		
+		if(BuildConfig.DEBUG)
+			ContentObjectPool.getInstance().checkLeaks();
 		
 		return ar;
 	}
 	
+	/**
+	 * Move to current time buckets even if no report arrived,
+	 * so finished hour, day and month are written on time.
+	 */
+	public synchronized void rollupActivityReport() {
+		rollTimeBuckets();
+	}
+	
 	/**
 	 * Delete specified content object from cache and DB
 	 * @param co_id		content object ID
@@ -475,6 +547,7 @@ public class ContentManager {
 			ContentObject temp = mContentList.get(i);
 			if(temp.mId == co_id) {
 				mContentList.remove(i);
+				ContentObjectPool.getInstance().release(temp);
 				count++;
 			}
 		}
@@ -492,16 +565,33 @@ public class ContentManager {
 		// Remove from DB
 		mDB.deleteReportWithType(ContentObject.CONTENT_TYPE_ACCEL);
 		// Remove cached
-		mContentList.clear();
+		releaseContentList();
 		return RESPONSE_OBJECT_DELETED;
 	}
 	
+	/**
+	 * Returns column store of received samples.
+	 * Written by analysis thread. Read recent ranges only.
+	 * @return		sample store
+	 */
+	public SampleStore getSampleStore() {
+		return mSampleStore;
+	}
+	
+	/**
+	 * Returns analysis session of connected band
+	 * @return		analyzer which keeps step count and calorie
+	 */
+	public Analyzer getAnalyzer() {
+		return mAnalyzer;
+	}
+	
 	/**
 	 * Returns cached activity data
 	 * @param type		time period type
-	 * @return			array of activity data
+	 * @return			array of calorie
 	 */
-	public int[] getCurrentActivityData(int type) {
+	public synchronized int[] getCurrentActivityData(int type) {
 		int[] activityData = null;
 		
 		switch(type) {
@@ -518,9 +608,10 @@ public class ContentManager {
 			break;
 			
 		default:
-			break;
+			return null;
 		}	// End of switch
-
+		
+		mRollup.copy(getRollupLevel(type), ActivityRollup.METRIC_CALORIE, activityData);
 		return activityData;
 	}
 	
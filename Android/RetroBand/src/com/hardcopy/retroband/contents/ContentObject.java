@@ -17,10 +17,12 @@
 package com.hardcopy.retroband.contents;
 
 import java.util.Arrays;
-import java.util.Calendar;
 
 /**
  * ContentObject holds accelerometer data at specified time.
+ * Use ContentObjectPool to get an instance.
+ * Date fields are calculated from mTimeInMilli when one of them is read first.
+ * mAccelData carries a frame between threads. Analysis reads samples from SampleStore.
  * @author Administrator
  *
  */
@@ -28,20 +30,32 @@ public class ContentObject {
 	
 	public static final int CONTENT_TYPE_ACCEL = 1;
 	
-	public static final int DATA_COUNT = 20;
+	public static final int DATA_COUNT = 20;				// Samples in a legacy frame
+	public static final int MAX_DATA_COUNT = 50;			// Max samples in a frame
+	public static final int DEFAULT_SAMPLING_INTERVAL = 50;	// 20Hz, in milli-second
 	
 	public int mContentType;			// Content type
 	public int mId;						// ID
 	public long mTimeInMilli;			// 
-	public int mYear;
-	public int mMonth;
-	public int mDay;
-	public int mhour;
-	public int mMinute;
-	public int mSecond;
+	private int mYear;
+	private int mMonth;
+	private int mDay;
+	private int mhour;
+	private int mMinute;
+	private int mSecond;
+	private long mDateTime = -1;		// mTimeInMilli which date fields are made from
 	public int[] mAccelData = null;
-	public int mAccelIndex = 0;
+	public int mAccelIndex = 0;			// Count of samples filled
 	public int mCacheIndex = 0;
+	public int mSamplingInterval = DEFAULT_SAMPLING_INTERVAL;	// Time between samples in milli-second
+	public long mSampleIndex = -1;		// Index of the first sample in SampleStore. -1 if not stored.
+	
+	// Date fields of frames are made from one cache, because frame times are close to each other
+	private static final BucketBoundaryCache mDateCache = new BucketBoundaryCache(BucketBoundaryCache.SYSTEM_CLOCK);
+	
+	// Used by ContentObjectPool
+	boolean mIsPooled = false;
+	long mAcquireTime = 0;
 	
 	
 	public ContentObject(int type, int id, long timeInMilli) {
@@ -49,17 +63,13 @@ public class ContentObject {
 		mId = id;
 		mTimeInMilli = timeInMilli;
 		
-		mAccelData = new int[DATA_COUNT*3];		// DATA_COUNT * 3 axis
-		Arrays.fill(mAccelData, 0x00000000);
+		mAccelData = new int[MAX_DATA_COUNT*3];		// MAX_DATA_COUNT * 3 axis
 		mAccelIndex = 0;
 		mCacheIndex = 0;
 		
-		// Convert date info in milli-time
-		Calendar cal = Calendar.getInstance();
-		setTime(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH), 
-				cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE), cal.get(Calendar.SECOND));
+		// Date fields are made when needed
 		if(mTimeInMilli < 1)
-			mTimeInMilli = cal.getTimeInMillis();
+			mTimeInMilli = System.currentTimeMillis();
 	}
 	
 	
@@ -71,13 +81,49 @@ public class ContentObject {
 		Arrays.fill(mAccelData, 0x00000000);
 		mAccelIndex = 0;
 		mCacheIndex = 0;
-		setTime(0,0,0,0,0,0);
+		mDateTime = -1;
+		mSampleIndex = -1;
 	}
 	
 	public void setId(int id) {
 		mId = id;
 	}
 	
+	/**
+	 * @return	int		count of samples in this object
+	 */
+	public int getSampleCount() {
+		return mAccelIndex;
+	}
+	
+	/**
+	 * Copy every field from other object. Accel array is not shared.
+	 * @param src		object to copy
+	 */
+	public void copyFrom(ContentObject src) {
+		mContentType = src.mContentType;
+		mId = src.mId;
+		mTimeInMilli = src.mTimeInMilli;
+		mYear = src.mYear;
+		mMonth = src.mMonth;
+		mDay = src.mDay;
+		mhour = src.mhour;
+		mMinute = src.mMinute;
+		mSecond = src.mSecond;
+		mDateTime = src.mDateTime;
+		int length = Math.min(src.mAccelIndex * 3 + src.mCacheIndex, mAccelData.length);
+		System.arraycopy(src.mAccelData, 0, mAccelData, 0, length);
+		if(length < mAccelData.length)
+			Arrays.fill(mAccelData, length, mAccelData.length, 0x00000000);
+		mAccelIndex = src.mAccelIndex;
+		mCacheIndex = src.mCacheIndex;
+		mSamplingInterval = src.mSamplingInterval;
+		mSampleIndex = src.mSampleIndex;
+	}
+	
+	/**
+	 * Set date fields. They are used until mTimeInMilli is changed.
+	 */
 	public void setTime(int year, int month, int day, int hour, int minute, int second) {
 		mYear = year;
 		mMonth = month;
@@ -85,6 +131,43 @@ public class ContentObject {
 		mhour = hour;
 		mMinute = minute;
 		mSecond = second;
+		mDateTime = mTimeInMilli;
+	}
+	
+	public int getYear() {
+		makeDate();
+		return mYear;
+	}
+	
+	/**
+	 * @return	int		month in the range [0,11]
+	 */
+	public int getMonth() {
+		makeDate();
+		return mMonth;
+	}
+	
+	/**
+	 * @return	int		day of month in the range [1,31]
+	 */
+	public int getDay() {
+		makeDate();
+		return mDay;
+	}
+	
+	public int getHour() {
+		makeDate();
+		return mhour;
+	}
+	
+	public int getMinute() {
+		makeDate();
+		return mMinute;
+	}
+	
+	public int getSecond() {
+		makeDate();
+		return mSecond;
 	}
 	
 	public void setAccelData(int x_axis, int y_axis, int z_axis) {
@@ -97,7 +180,7 @@ public class ContentObject {
 	}
 	
 	public void setAccelData(int data) {
-		if(mAccelData != null && mAccelIndex > -1 && mAccelIndex < DATA_COUNT) {
+		if(mAccelData != null && mAccelIndex > -1 && mAccelIndex < mAccelData.length / 3) {
 			mAccelData[mAccelIndex*3 + mCacheIndex] = data;
 			mCacheIndex++;
 			if(mCacheIndex == 3) {
@@ -108,4 +191,19 @@ public class ContentObject {
 		}
 	}
 	
+	
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+	
+	private void makeDate() {
+		if(mDateTime == mTimeInMilli)
+			return;
+		synchronized(mDateCache) {
+			mDateCache.update(mTimeInMilli);
+			setTime(mDateCache.getYear(), mDateCache.getMonth(), mDateCache.getDay() + 1, 
+					mDateCache.getHour(), mDateCache.getMinute(), mDateCache.getSecond(mTimeInMilli));
+		}
+	}
+	
 }
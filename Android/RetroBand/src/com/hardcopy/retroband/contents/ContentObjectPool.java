@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.hardcopy.retroband.BuildConfig;
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Pool of content objects.
+ * Whoever acquires an object must release it exactly once when done:
+ * <pre>
+ * 	TransactionReceiver		after the frame is copied into analysis queue
+ * 	ContentManager			after cached objects are analyzed or deleted
+ * 	GraphFragment			after accel data is drawn
+ * </pre>
+ * In debug builds, pool remembers where each object was acquired and
+ * checkLeaks() reports objects held too long. Double release is reported too.
+ * This class is thread-safe.
+ */
+public class ContentObjectPool {
+
+	private static final String TAG = "ContentObjectPool";
+
+	public static final int DEFAULT_POOL_SIZE = 64;
+	private static final long LEAK_AGE = 10 * 1000;		// Held longer than this is reported as leak
+
+	private static ContentObjectPool mInstance = null;		// Singleton pattern
+
+	private final ContentObject[] mFreeList;
+	private int mFreeCount = 0;
+
+	private int mInUseCount = 0;
+	private int mCreatedCount = 0;
+
+	// Debug only. Acquire stack trace of objects in use.
+	private final Map<ContentObject, Throwable> mAcquireTraces;
+
+
+	/**
+	 * Constructor
+	 * @param size		max count of free objects. Objects are preallocated.
+	 */
+	public ContentObjectPool(int size) {
+		mFreeList = new ContentObject[size];
+		for(int i=0; i<size; i++) {
+			mFreeList[i] = newObject(0);
+			mFreeList[i].mIsPooled = true;
+		}
+		mFreeCount = size;
+		mAcquireTraces = BuildConfig.DEBUG ? new IdentityHashMap<ContentObject, Throwable>() : null;
+	}
+
+	/**
+	 * Singleton pattern
+	 */
+	public synchronized static ContentObjectPool getInstance() {
+		if(mInstance == null)
+			mInstance = new ContentObjectPool(DEFAULT_POOL_SIZE);
+		return mInstance;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Returns empty accel object.
+	 * Makes new instance only when every pooled object is in use.
+	 * @param timeInMilli		time of the object
+	 * @return	ContentObject
+	 */
+	public synchronized ContentObject acquire(long timeInMilli) {
+		ContentObject co;
+		if(mFreeCount > 0) {
+			mFreeCount--;
+			co = mFreeList[mFreeCount];
+			mFreeList[mFreeCount] = null;
+			co.reset();
+			co.mContentType = ContentObject.CONTENT_TYPE_ACCEL;
+			co.setId(-1);
+			co.mTimeInMilli = timeInMilli;
+			co.mSamplingInterval = ContentObject.DEFAULT_SAMPLING_INTERVAL;
+		} else {
+			// Pool is empty
+			co = newObject(timeInMilli);
+			mCreatedCount++;
+		}
+		co.mIsPooled = false;
+		co.mAcquireTime = System.currentTimeMillis();
+		mInUseCount++;
+
+		if(mAcquireTraces != null)
+			mAcquireTraces.put(co, new Throwable("acquired here"));
+		return co;
+	}
+
+	/**
+	 * Return object to pool. Caller must not use the object after this.
+	 * @param co		object from acquire()
+	 */
+	public synchronized void release(ContentObject co) {
+		if(co == null)
+			return;
+		if(co.mIsPooled) {
+			Logs.e(TAG, "# Object is released twice");
+			if(BuildConfig.DEBUG)
+				throw new IllegalStateException("ContentObject is released twice");
+			return;
+		}
+
+		co.mIsPooled = true;
+		mInUseCount--;
+		if(mAcquireTraces != null)
+			mAcquireTraces.remove(co);
+
+		if(mFreeCount < mFreeList.length) {
+			mFreeList[mFreeCount] = co;
+			mFreeCount++;
+		}
+	}
+
+	/**
+	 * Debug only. Reports objects which are not released for a long time.
+	 * @return	int		count of objects which seem to be leaked
+	 */
+	public synchronized int checkLeaks() {
+		if(mAcquireTraces == null)
+			return 0;
+
+		int count = 0;
+		long now = System.currentTimeMillis();
+		for(Map.Entry<ContentObject, Throwable> entry : mAcquireTraces.entrySet()) {
+			if(now - entry.getKey().mAcquireTime > LEAK_AGE) {
+				count++;
+				if(count == 1) {
+					StackTraceElement[] trace = entry.getValue().getStackTrace();
+					Logs.e(TAG, "# Leaked object acquired at " + (trace.length > 1 ? trace[1] : "unknown"));
+				}
+			}
+		}
+		if(count > 0)
+			Logs.e(TAG, "# Leaked objects: " + count + ", in use: " + mInUseCount);
+		return count;
+	}
+
+	/**
+	 * @return	int		count of objects acquired and not released
+	 */
+	public synchronized int getInUseCount() {
+		return mInUseCount;
+	}
+
+	/**
+	 * @return	int		count of objects made because pool was empty
+	 */
+	public synchronized int getCreatedCount() {
+		return mCreatedCount;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private ContentObject newObject(long timeInMilli) {
+		return new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, -1, timeInMilli);
+	}
+
+}
@@ -171,6 +171,28 @@ public class DBHelper {
 			return mDb.insertOrThrow(TABLE_NAME_ACCEL_REPORT, null, insertValues);
 		}
 	}
+	
+	/**
+	 * Insert a report after deleting reports of the same type and date,
+	 * so a time bucket can be saved many times and keeps one row.
+	 * Parameters are same with insertActivityReport()
+	 */
+	public long replaceActivityReport(int type, long time, int year, int month, int day, int hour, int[] dataArray, String subData) throws SQLiteConstraintException {
+		if(mDb == null)
+			return -1;
+		
+		synchronized (mDb) {
+			mDb.beginTransaction();
+			try {
+				deleteReportWithDate(type, year, month, day, hour);
+				long id = insertActivityReport(type, time, year, month, day, hour, dataArray, subData);
+				mDb.setTransactionSuccessful();
+				return id;
+			} finally {
+				mDb.endTransaction();
+			}
+		}
+	}
 
 	
 	//----------------------------------------------------------------------------------
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+public interface IRollupListener {
+	/**
+	 * Called when time moved out of a bucket. Values of the bucket are
+	 * still readable from the rollup until this method returns.
+	 * @param level		ActivityRollup.LEVEL_HOUR, LEVEL_DAY, LEVEL_MONTH or LEVEL_YEAR
+	 * @param year
+	 * @param month		in the range [0,11]
+	 * @param day		in the range [0,30]
+	 * @param hour		in the range [0,23]
+	 */
+	public void OnBucketFinished(int level, int year, int month, int day, int hour);
+}
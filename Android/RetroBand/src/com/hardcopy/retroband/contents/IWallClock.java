@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.util.TimeZone;
+
+/**
+ * Source of wall clock time and time zone.
+ * Replace it to test time changes.
+ */
+public interface IWallClock {
+	/**
+	 * @return	long	current time in milli-second since epoch
+	 */
+	public long currentTimeMillis();
+	
+	/**
+	 * @return	TimeZone	current time zone of the device
+	 */
+	public TimeZone getTimeZone();
+}
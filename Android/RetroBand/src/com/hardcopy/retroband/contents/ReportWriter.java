@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.hardcopy.retroband.utils.Logs;
+
+import android.database.SQLException;
+
+/**
+ * Persist stage of the analysis pipeline.
+ * Writes activity reports to DB on its own thread, so DB writes never run
+ * on the analysis thread or main thread.
+ * If the queue is full, caller writes the report by itself (back-pressure).
+ * Reports are never dropped.
+ * <p>
+ * A report replaces the saved report of the same time bucket, so partial
+ * buckets can be written again and again (write-behind).
+ */
+public class ReportWriter {
+
+	private static final String TAG = "ReportWriter";
+
+	private static final int QUEUE_SIZE = 16;
+	private static final long CLOSE_TIMEOUT = 3000;
+
+	private final DBHelper mDB;
+	private final ArrayBlockingQueue<Report> mQueue = new ArrayBlockingQueue<Report>(QUEUE_SIZE);
+	private final Thread mThread;
+	private boolean mIsClosed = false;	// Guarded by this
+
+	private int mPendingCount = 0;		// Queued but not written yet. Guarded by this.
+	private int mCallerRunsCount = 0;
+
+
+	/**
+	 * Constructor. Starts writer thread.
+	 * @param db		opened DB helper
+	 */
+	public ReportWriter(DBHelper db) {
+		mDB = db;
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, TAG);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Queue a report to write. Parameters are same with DBHelper.replaceActivityReport()
+	 * If the queue is full or writer is closed, report is written on caller thread.
+	 */
+	public void write(int type, long time, int year, int month, int day, int hour, int[] dataArray) {
+		Report r = new Report(type, time, year, month, day, hour, dataArray);
+
+		// Check and queue atomically, so close() never misses a report in the queue
+		synchronized(this) {
+			if(!mIsClosed) {
+				if(mQueue.offer(r)) {
+					mPendingCount++;
+					return;
+				}
+			}
+			// Back-pressure: caller runs
+			mCallerRunsCount++;
+		}
+		insert(r);
+	}
+
+	/**
+	 * Wait until every queued report is written
+	 * @param timeout		max wait time in milli-second
+	 * @return	boolean		every report is written
+	 */
+	public synchronized boolean flush(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(mPendingCount > 0) {
+			long remain = deadline - System.currentTimeMillis();
+			if(remain <= 0)
+				return false;
+			try {
+				wait(remain);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write remaining reports and stop writer thread.
+	 * Reports queued after this are written on caller thread.
+	 */
+	public void close() {
+		synchronized(this) {
+			if(mIsClosed)
+				return;
+			mIsClosed = true;
+		}
+
+		flush(CLOSE_TIMEOUT);
+		mThread.interrupt();
+		try {
+			mThread.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Write reports which came while closing
+		Report r;
+		while((r = mQueue.poll()) != null) {
+			insert(r);
+			synchronized(this) {
+				mPendingCount--;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return	int		count of reports written on caller thread because queue was full
+	 */
+	public synchronized int getCallerRunsCount() {
+		return mCallerRunsCount;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private void writeLoop() {
+		while(true) {
+			Report r;
+			try {
+				r = mQueue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			insert(r);
+			synchronized(this) {
+				mPendingCount--;
+				notifyAll();
+			}
+		}
+	}
+
+	private void insert(Report r) {
+		try {
+			mDB.replaceActivityReport(r.mType, r.mTime, r.mYear, r.mMonth, r.mDay, r.mHour, r.mDataArray, null);
+		} catch (SQLException e) {
+			Logs.e(TAG, "# Cannot write report: " + e.getMessage());
+		}
+	}
+
+
+	/*****************************************************
+	 *	Sub classes
+	 ******************************************************/
+
+	private static class Report {
+		final int mType;
+		final long mTime;
+		final int mYear;
+		final int mMonth;
+		final int mDay;
+		final int mHour;
+		final int[] mDataArray;
+
+		Report(int type, long time, int year, int month, int day, int hour, int[] dataArray) {
+			mType = type;
+			mTime = time;
+			mYear = year;
+			mMonth = month;
+			mDay = day;
+			mHour = hour;
+			mDataArray = dataArray;
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+/**
+ * Column store of accel samples.
+ * x, y, z and time are kept in separate primitive arrays, so readers can
+ * run plain loops over one axis without copying or unboxing.
+ * <p>
+ * Samples are stored in chunks of CHUNK_SIZE. Chunks are allocated when
+ * data arrives, up to max chunk count. After that, the oldest chunk is reused.
+ * Each sample has an index which increases forever. Readers use
+ * [getStartIndex(), getEndIndex()) range.
+ * <p>
+ * Read a range chunk by chunk like below:
+ * <pre>
+ * 	for(long i = start; i < end; ) {
+ * 		int[] x = store.getChunkX(i);
+ * 		int offset = store.getChunkOffset(i);
+ * 		int n = Math.min(store.getChunkRemaining(i), (int)(end - i));
+ * 		for(int j = offset; j < offset + n; j++) { ... x[j] ... }
+ * 		i += n;
+ * 	}
+ * </pre>
+ * Only one thread may write. Samples are published when append returns.
+ * <p>
+ * Analysis thread is the writer. Receiver does not write here directly:
+ * ContentObject.mAccelData is the pooled slot which moves a frame from
+ * the reader thread through the ingest queue, and is copied here once
+ * when the frame is cached. A reader thread writing here would overwrite
+ * chunks while the analyzer reads them, instead of dropping whole frames.
+ */
+public class SampleStore {
+
+	public static final int CHUNK_SHIFT = 8;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;		// 256 samples
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	public static final int DEFAULT_MAX_CHUNKS = 16;
+
+	private final int[][] mX;
+	private final int[][] mY;
+	private final int[][] mZ;
+	private final long[][] mTime;
+	private int mChunkCount = 0;		// Allocated chunks
+
+	private volatile long mEndIndex = 0;		// Index of next sample
+
+
+	/**
+	 * Constructor
+	 * @param maxChunks		max count of chunks to keep
+	 */
+	public SampleStore(int maxChunks) {
+		mX = new int[maxChunks][];
+		mY = new int[maxChunks][];
+		mZ = new int[maxChunks][];
+		mTime = new long[maxChunks][];
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Add a sample
+	 * @param x				x axis value
+	 * @param y				y axis value
+	 * @param z				z axis value
+	 * @param time			time in milli-second
+	 * @return	long		index of the sample
+	 */
+	public long append(int x, int y, int z, long time) {
+		long index = mEndIndex;
+		int chunk = getChunkIndex(index);
+		if(chunk >= mChunkCount)
+			allocateChunk();
+
+		int offset = (int)index & CHUNK_MASK;
+		mX[chunk][offset] = x;
+		mY[chunk][offset] = y;
+		mZ[chunk][offset] = z;
+		mTime[chunk][offset] = time;
+		mEndIndex = index + 1;		// Publish
+		return index;
+	}
+
+	/**
+	 * Add every sample of a frame. Time of each sample is calculated from
+	 * frame time and sampling interval. Sets co.mSampleIndex.
+	 * @param co			frame
+	 * @return	long		index of the first sample
+	 */
+	public long append(ContentObject co) {
+		long first = mEndIndex;
+		int[] accel = co.mAccelData;
+		for(int i=0; i<co.getSampleCount(); i++) {
+			append(accel[i*3], accel[i*3+1], accel[i*3+2], co.mTimeInMilli + (long)i * co.mSamplingInterval);
+		}
+		co.mSampleIndex = first;
+		return first;
+	}
+
+	/**
+	 * @return	long	index of the oldest sample kept
+	 */
+	public long getStartIndex() {
+		long end = mEndIndex;
+		if(end < 1)
+			return 0;
+		// Chunk of the last sample reuses the array of the chunk mX.length before
+		long oldestChunk = ((end - 1) >>> CHUNK_SHIFT) - mX.length + 1;
+		return Math.max(0, oldestChunk) << CHUNK_SHIFT;
+	}
+
+	/**
+	 * @return	long	index of next sample. Samples before this are readable.
+	 */
+	public long getEndIndex() {
+		return mEndIndex;
+	}
+
+	public int getX(long index) {
+		return mX[getChunkIndex(index)][(int)index & CHUNK_MASK];
+	}
+
+	public int getY(long index) {
+		return mY[getChunkIndex(index)][(int)index & CHUNK_MASK];
+	}
+
+	public int getZ(long index) {
+		return mZ[getChunkIndex(index)][(int)index & CHUNK_MASK];
+	}
+
+	public long getTime(long index) {
+		return mTime[getChunkIndex(index)][(int)index & CHUNK_MASK];
+	}
+
+	/**
+	 * @return	int[]	x axis array of the chunk which has the sample
+	 */
+	public int[] getChunkX(long index) {
+		return mX[getChunkIndex(index)];
+	}
+
+	public int[] getChunkY(long index) {
+		return mY[getChunkIndex(index)];
+	}
+
+	public int[] getChunkZ(long index) {
+		return mZ[getChunkIndex(index)];
+	}
+
+	public long[] getChunkTime(long index) {
+		return mTime[getChunkIndex(index)];
+	}
+
+	/**
+	 * @return	int		position of the sample in chunk arrays
+	 */
+	public int getChunkOffset(long index) {
+		return (int)index & CHUNK_MASK;
+	}
+
+	/**
+	 * @return	int		count of samples from the index to the end of its chunk
+	 */
+	public int getChunkRemaining(long index) {
+		return CHUNK_SIZE - ((int)index & CHUNK_MASK);
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private int getChunkIndex(long index) {
+		return (int)((index >>> CHUNK_SHIFT) % mX.length);
+	}
+
+	private void allocateChunk() {
+		mX[mChunkCount] = new int[CHUNK_SIZE];
+		mY[mChunkCount] = new int[CHUNK_SIZE];
+		mZ[mChunkCount] = new int[CHUNK_SIZE];
+		mTime[mChunkCount] = new long[CHUNK_SIZE];
+		mChunkCount++;
+	}
+
+}
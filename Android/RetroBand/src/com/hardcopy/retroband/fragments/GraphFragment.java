@@ -19,6 +19,8 @@ package com.hardcopy.retroband.fragments;
 import com.hardcopy.retroband.R;
 import com.hardcopy.retroband.R.id;
 import com.hardcopy.retroband.R.layout;
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
 
 import android.content.Context;
 import android.os.Bundle;
@@ -94,16 +96,19 @@ public class GraphFragment extends Fragment implements IAdapterListener {
 	 *	Public methods
 	 ******************************************************/
 	/**
-	 * Draw graph
-	 * @param accelArray	accel data to draw.
+	 * Draw graph and return the object to ContentObjectPool
+	 * @param co		accel data to draw. Do not use it after this.
 	 */
-	public void drawAccelData(int[] accelArray) {
-		if(!checkRenderView())
+	public void drawAccelData(ContentObject co) {
+		if(co == null)
 			return;
 		
-		// Draw graph with array of data
-		mRenderAccel.drawAccelGraph(accelArray);
-		mRenderAccel.invalidate();
+		if(checkRenderView()) {
+			// Draw graph with array of data
+			mRenderAccel.drawAccelGraph(co.mAccelData, co.getSampleCount());
+			mRenderAccel.invalidate();
+		}
+		ContentObjectPool.getInstance().release(co);
 	}
 	
 	
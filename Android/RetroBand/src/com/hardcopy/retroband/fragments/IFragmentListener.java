@@ -18,6 +18,7 @@ package com.hardcopy.retroband.fragments;
 
 public interface IFragmentListener {
 	public static final int CALLBACK_RUN_IN_BACKGROUND = 1;
+	public static final int CALLBACK_WEIGHT_CHANGED = 2;
 	
 	public void OnFragmentCallback(int msgType, int arg0, int arg1, String arg2, String arg3, Object arg4);
 }
@@ -19,7 +19,6 @@ package com.hardcopy.retroband.fragments;
 import com.hardcopy.retroband.R;
 import com.hardcopy.retroband.R.id;
 import com.hardcopy.retroband.R.layout;
-import com.hardcopy.retroband.logic.Analyzer;
 import com.hardcopy.retroband.utils.AppSettings;
 
 import android.content.Context;
@@ -77,7 +76,7 @@ public class LLSettingsFragment extends Fragment {
 					int weight = Integer.parseInt(s.toString());
 					if(weight > 0 && weight < 1000) {
 						AppSettings.setSettingsValue(AppSettings.SETTINGS_WEIGHT, true, weight, null);
-						Analyzer.setWeight(AppSettings.getWeight());
+						mFragmentListener.OnFragmentCallback(IFragmentListener.CALLBACK_WEIGHT_CHANGED, AppSettings.getWeight(), 0, null, null, null);
 					}
 				}
 			}
@@ -301,10 +301,12 @@ public class RenderingView extends View {
 	/**
 	 * Draw accel data on canvas
 	 * @param accel		accel data array
+	 * @param count		count of samples in array
 	 */
-	public void drawAccelGraph(int[] accel) {
+	public void drawAccelGraph(int[] accel, int count) {
 		if(accel == null || accel.length < 3)
 			return;
+		int length = Math.min(count * 3, accel.length);
 		
 		if(bStart == true) {
 			PrevDrawingX = mCurrentDrawingX;
@@ -312,7 +314,7 @@ public class RenderingView extends View {
 			return;
 		}
 
-		for(int i=3; i<accel.length; i+=3) {
+		for(int i=3; i<length; i+=3) {
 			// x axis value is Red dot
 			drawPoint(TYPE_RED, mCurrentDrawingX, accel[i] + mMaxValue);
 			drawLine(TYPE_RED, PrevDrawingX, mCurrentDrawingX, accel[i-3] + mMaxValue, accel[i] + mMaxValue);
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * Features of a window of accel samples. Filled by FeatureExtractor.
+ * Axis values are raw counts. Magnitude is magnitude of offset counts
+ * (see Analyzer), 65535 per normalized unit.
+ */
+public class AccelFeatures {
+	public static final int AXIS_X = 0;
+	public static final int AXIS_Y = 1;
+	public static final int AXIS_Z = 2;
+	
+	public int mCount = 0;						// Samples in the window
+	
+	// Per axis
+	public float[] mMean = new float[3];
+	public float[] mVariance = new float[3];
+	public int[] mMin = new int[3];
+	public int[] mMax = new int[3];
+	
+	// Magnitude
+	public float mMagnitudeMean = 0;
+	public float mMagnitudeVariance = 0;
+	public float mMagnitudeMin = 0;
+	public float mMagnitudeMax = 0;
+	
+	public float mZeroCrossingRate = 0;			// Magnitude crossings of its mean per second
+	public float mSignalMagnitudeArea = 0;		// Mean of |x| + |y| + |z|
+	public float mDominantFrequency = 0;		// Hz. 0 until computeDominantFrequency() is called.
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import com.hardcopy.retroband.contents.ActivityReport;
+
+/**
+ * Labels a window of accel magnitude with cheap features.
+ * <pre>
+ * 	variance			how much the wrist moves
+ * 	zero-crossing rate	how often the signal crosses its mean, about twice the step rate
+ * 	energy				mean square of the signal
+ * </pre>
+ * Features are calculated in one pass. Idle windows can skip peak detection.
+ * Thresholds are in normalized magnitude unit and scaled by the constructor.
+ */
+public class ActivityClassifier {
+
+	// Thresholds in normalized magnitude unit
+	private static final float IDLE_STD = 0.02f;
+	private static final float RUN_STD = 0.15f;
+	// Zero-crossings per second
+	private static final float WALK_MIN_ZCR = 1.6f;
+	private static final float RUN_MIN_ZCR = 4.8f;
+	private static final float MAX_ZCR = 8.f;
+
+	private final float mIdleVariance;
+	private final float mRunVariance;
+
+	// Features of the last window
+	private float mVariance = 0;
+	private float mZeroCrossingRate = 0;
+	private float mEnergy = 0;
+
+
+	/**
+	 * Constructor
+	 * @param scale		magnitude value of 1 normalized unit
+	 */
+	public ActivityClassifier(float scale) {
+		mIdleVariance = (IDLE_STD * scale) * (IDLE_STD * scale);
+		mRunVariance = (RUN_STD * scale) * (RUN_STD * scale);
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Classify a window
+	 * @param data				magnitude samples
+	 * @param length			count of samples
+	 * @param samplingInterval	time between samples in milli-second
+	 * @return	int				ActivityReport.ACTIVITY_IDLE, ACTIVITY_WALK, ACTIVITY_RUN or ACTIVITY_OTHER
+	 */
+	public int classify(float[] data, int length, int samplingInterval) {
+		if(length < 2 || samplingInterval < 1)
+			return ActivityReport.ACTIVITY_UNKNOWN;
+
+		float sum = 0;
+		float sumOfSquare = 0;
+		for(int i = 0; i < length; i++) {
+			float x = data[i];
+			sum += x;
+			sumOfSquare += x * x;
+		}
+		float mean = sum / length;
+		mEnergy = sumOfSquare / length;
+		mVariance = Math.max(0, mEnergy - mean * mean);
+		if(mVariance < mIdleVariance) {
+			mZeroCrossingRate = 0;
+			return ActivityReport.ACTIVITY_IDLE;
+		}
+
+		int crossings = 0;
+		boolean above = data[0] > mean;
+		for(int i = 1; i < length; i++) {
+			boolean current = data[i] > mean;
+			if(current != above)
+				crossings++;
+			above = current;
+		}
+		mZeroCrossingRate = crossings * 1000.f / (length * samplingInterval);
+
+		if(mZeroCrossingRate < WALK_MIN_ZCR || mZeroCrossingRate > MAX_ZCR)
+			return ActivityReport.ACTIVITY_OTHER;
+		if(mVariance > mRunVariance && mZeroCrossingRate >= RUN_MIN_ZCR)
+			return ActivityReport.ACTIVITY_RUN;
+		return ActivityReport.ACTIVITY_WALK;
+	}
+
+	public float getVariance() {
+		return mVariance;
+	}
+
+	/**
+	 * @return	float		zero-crossings per second of the last window
+	 */
+	public float getZeroCrossingRate() {
+		return mZeroCrossingRate;
+	}
+
+	public float getEnergy() {
+		return mEnergy;
+	}
+
+}
@@ -20,17 +20,105 @@ import java.util.ArrayList;
 
 import com.hardcopy.retroband.contents.ActivityReport;
 import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.SampleStore;
 import com.hardcopy.retroband.utils.Logs;
+import com.hardcopy.retroband.utils.RateLimitedLogger;
 
+/**
+ * Analysis session of one band.
+ * Keeps step count, calorie and step detection state of the stream.
+ * Make one instance for each band, or a fresh one to replay old data
+ * without touching live counters.
+ * A session may be used by several threads, but calls are serialized.
+ */
 public class Analyzer {
 
-	private static int nStepCount = 0;
-	private static double duCalorie = 0.;
-	private static double mWeight = 68.; // unit: kg
-	private static int nLastDetectedTime = 0;
+	private static final String TAG = "Analyzer";
+	
+	public static final double DEFAULT_WEIGHT = 68.; // unit: kg
 	public static final int SHAKE_THRESHHOLD = 800;
 	
-	public static ActivityReport analyzeAccel(ArrayList<ContentObject> objectArray, int samplingInterval, int totalTime) {
+	// Step engines
+	public static final int STEP_ENGINE_PEAK = 1;		// Counts peaks of magnitude
+	public static final int STEP_ENGINE_CADENCE = 2;	// Estimates cadence from spectrum of magnitude
+	// Both engines are compared on same walks by StepEngineComparisonTest
+	public static final int DEFAULT_STEP_ENGINE = STEP_ENGINE_PEAK;
+	
+	// Magnitude is calculated from raw counts with integer square root.
+	// Raw magnitude is MAGNITUDE_SCALE times the normalized one, so peak offset is scaled too.
+	private static final boolean USE_FIXED_POINT_MAGNITUDE = true;
+	private static final int AXIS_OFFSET = 32768;
+	private static final float MAGNITUDE_SCALE = 65535.f;
+	private static final float PEAK_OFFSET = USE_FIXED_POINT_MAGNITUDE
+			? PeakDetector.DEFAULT_OFFSET * MAGNITUDE_SCALE : PeakDetector.DEFAULT_OFFSET;
+	
+	// Filter stage before peak detection. High-pass removes gravity, low-pass removes jitter.
+	private static final boolean USE_FILTER_STAGE = true;
+	private static final float HIGH_PASS_CUTOFF = 0.5f;		// Hz
+	private static final float LOW_PASS_CUTOFF = 5.f;		// Hz. Lowered for slow sampling rate.
+	
+	// Idle windows skip peak detection
+	private static final boolean USE_ACTIVITY_CLASSIFIER = true;
+	
+	private int nStepCount = 0;
+	private double duCalorie = 0.;
+	private double mWeight = DEFAULT_WEIGHT;
+	private long mReceivedSampleCount = 0;
+	private long mAnalyzedSampleCount = 0;
+	
+	private float[] mMagnitude = new float[ContentObject.MAX_DATA_COUNT];	// Reused for each analysis
+	private final FeatureExtractor mExtractor = new FeatureExtractor();
+	private final AccelFeatures mFeatures = new AccelFeatures();		// Features of the last window
+	
+	private IStepEngine mStepEngine = makeStepEngine(DEFAULT_STEP_ENGINE);
+	
+	private Biquad mHighPass = null;
+	private Biquad mLowPass = null;
+	private int mFilterInterval = 0;		// Sampling interval the filters are made for
+	
+	private final ActivityClassifier mClassifier = new ActivityClassifier(USE_FIXED_POINT_MAGNITUDE ? MAGNITUDE_SCALE : 1.f);
+	private int mActivityClass = ActivityReport.ACTIVITY_UNKNOWN;		// Class of the last window
+	
+	private final RateLimitedLogger mSampleLog = new RateLimitedLogger(TAG, 100, 1000);	// Per-sample diagnostics
+	
+	
+	/**
+	 * Counters of a session. Used to save and restore a session.
+	 */
+	public static class State {
+		public int mStepCount;
+		public double mCalorie;
+		public double mWeight;
+	}
+	
+	
+	public Analyzer() {
+	}
+	
+	/**
+	 * Constructor
+	 * @param weight		user weight in kg
+	 */
+	public Analyzer(double weight) {
+		setWeight(weight);
+	}
+	
+	
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+	
+	/**
+	 * Analyze every cached object as one continuous series.
+	 * Filter and step detection state is carried over to the next call.
+	 * Report time is the time of analyzed samples, so a partial window credits only its own time.
+	 * @param objectArray		cached objects in arrival order. Samples are read from the store.
+	 * @param store				column store which has samples of the objects
+	 * @param samplingInterval	time between samples in milli-second
+	 * @return	ActivityReport	null if no step is detected. Report of an idle window has only
+	 * 							steps which were detected when the wrist stopped.
+	 */
+	public synchronized ActivityReport analyzeAccel(ArrayList<ContentObject> objectArray, SampleStore store, int samplingInterval) {
 		
 		if(objectArray == null || objectArray.size() < 1) {
 			return null;
@@ -39,64 +127,116 @@ public class Analyzer {
 		ActivityReport ar = new ActivityReport();
 		ar.mType = ContentObject.CONTENT_TYPE_ACCEL;
 		ar.mSamplingInterval = samplingInterval;
-		ar.mTotalTime = totalTime;
 		
 		// [kbjung]
-		ContentObject co1 = objectArray.get(0);
+		if(samplingInterval < 1)
+			samplingInterval = ContentObject.DEFAULT_SAMPLING_INTERVAL;
 		
-		int idx = co1.mAccelData.length/3;
-
-		float [] nX = new float[idx];
-		float [] nY = new float[idx];
-		float [] nZ = new float[idx];
-		float [] n3D = new float[idx];
+		// Every object is analyzed as one series. Samples already evicted from store are skipped.
+		int nReceived = 0;
+		for(int c = 0; c < objectArray.size(); c++)
+			nReceived += objectArray.get(c).getSampleCount();
+		long storeStart = store.getStartIndex();
+		long storeEnd = store.getEndIndex();
 		
-		for(int i = 0; i < idx; ++i)
-		{
-			nX[i] = (float)(co1.mAccelData[i*3]+32768)/65535.f;
-			//Logs.d("#"+nX[i]);
-			nY[i] = (float)(co1.mAccelData[i*3+1]+32768)/65535.f;
-			//Logs.d("#"+nY[i]);
-			nZ[i] = (float)(co1.mAccelData[i*3+2]+32768)/65535.f;
-			//Logs.d("#"+nZ[i]);
-			n3D[i] = (float) Math.sqrt(nX[i]*nX[i]+nY[i]*nY[i]+nZ[i]*nZ[i]);
-			Logs.d("#"+n3D[i]);
+		float [] n3D;
+		int idx = 0;
+		if(USE_FIXED_POINT_MAGNITUDE) {
+			// Window features and magnitude in one pass
+			mExtractor.begin(nReceived);
+			for(int c = 0; c < objectArray.size(); c++) {
+				ContentObject co = objectArray.get(c);
+				long start = Math.max(co.mSampleIndex, storeStart);
+				long end = Math.min(co.mSampleIndex + co.getSampleCount(), storeEnd);
+				for(long i = start; i < end; ) {
+					int n = Math.min(store.getChunkRemaining(i), (int)(end - i));
+					mExtractor.add(store.getChunkX(i), store.getChunkY(i), store.getChunkZ(i), store.getChunkOffset(i), n);
+					i += n;
+				}
+			}
+			mExtractor.end(samplingInterval, mFeatures);
+			n3D = mExtractor.getMagnitude();
+			idx = mExtractor.getCount();
+		} else {
+			if(mMagnitude.length < nReceived)
+				mMagnitude = new float[nReceived];
+			n3D = mMagnitude;
+			for(int c = 0; c < objectArray.size(); c++) {
+				ContentObject co = objectArray.get(c);
+				long start = Math.max(co.mSampleIndex, storeStart);
+				long end = Math.min(co.mSampleIndex + co.getSampleCount(), storeEnd);
+				for(long i = start; i < end; ) {
+					int[] nX = store.getChunkX(i);
+					int[] nY = store.getChunkY(i);
+					int[] nZ = store.getChunkZ(i);
+					int offset = store.getChunkOffset(i);
+					int n = Math.min(store.getChunkRemaining(i), (int)(end - i));
+					for(int j = offset; j < offset + n; j++, idx++)
+					{
+						float x = (float)(nX[j]+AXIS_OFFSET)/MAGNITUDE_SCALE;
+						float y = (float)(nY[j]+AXIS_OFFSET)/MAGNITUDE_SCALE;
+						float z = (float)(nZ[j]+AXIS_OFFSET)/MAGNITUDE_SCALE;
+						n3D[idx] = (float) Math.sqrt(x*x+y*y+z*z);
+					}
+					i += n;
+				}
+			}
 		}
 		
-		//PeakDetector peakDetect = new PeakDetector(nY);
-		PeakDetector peakDetect = new PeakDetector(n3D);
-		int[] res = peakDetect.process(3, 1.5f);
-		
-		float fStepTime = 0.f;
-		float fStepVelocity = 0.f;
-		float fAvgVelocity = 0.f;
-		int nTotalSamplingData = 20;
-
-		if(res.length <= 0)
-		{
-			//ar.mCalorie = 0;
-			//return ar;
+		ar.mReceivedSamples = nReceived;
+		ar.mAnalyzedSamples = idx;
+		ar.mTotalTime = idx * samplingInterval;
+		mReceivedSampleCount += nReceived;
+		mAnalyzedSampleCount += idx;
+		if(idx < 1)
 			return null;
+		
+		if(Logs.HOT_PATH) {
+			for(int i = 0; i < idx; i++)
+				mSampleLog.d("# magnitude: ", n3D[i]);
 		}
-
-		fStepTime = (res[0] + (nTotalSamplingData-nLastDetectedTime))*0.05f;
-		fStepVelocity = 0.5f/fStepTime;
-		fAvgVelocity = fStepVelocity;
-		for(int i = 1; i < res.length - 1; ++i)
-		{
-			fStepTime = (res[i+1] - res[i])*0.05f;
-			fStepVelocity = 0.5f/fStepTime;
-			fAvgVelocity += fStepVelocity;
+		
+		if(USE_FILTER_STAGE) {
+			if(mFilterInterval != samplingInterval)
+				makeFilters(samplingInterval);
+			mHighPass.process(n3D, 0, idx);
+			mLowPass.process(n3D, 0, idx);
+		}
+		
+		if(USE_ACTIVITY_CLASSIFIER) {
+			int activityClass = mClassifier.classify(n3D, idx, samplingInterval);
+			if(activityClass == ActivityReport.ACTIVITY_IDLE) {
+				// Step detection restarts when the wrist moves again.
+				// Steps still held by the engine are reported now, without active time and calorie.
+				int nFlushed = 0;
+				if(mActivityClass != ActivityReport.ACTIVITY_IDLE)
+					nFlushed = mStepEngine.flush();
+				mActivityClass = activityClass;
+				if(nFlushed <= 0)
+					return null;
+				nStepCount += nFlushed;
+				ar.mActivityClass = activityClass;
+				ar.mShakeActionCount = nStepCount;
+				ar.mStepCount = nFlushed;
+				ar.mTotalTime = 0;
+				ar.mSumOfCalorie = duCalorie;
+				return ar;
+			}
+			mActivityClass = activityClass;
+			ar.mActivityClass = activityClass;
 		}
-		fAvgVelocity /= res.length;
-		fAvgVelocity *= 3.6f; // convert m/s to km/h
-		nLastDetectedTime = res[res.length-1];
 		
-		nStepCount += res.length;
+		int nPeakCount = mStepEngine.process(n3D, idx, samplingInterval);
+		if(nPeakCount <= 0)
+			return null;
+		float fAvgVelocity = mStepEngine.getVelocity();	// km/h
+		
+		nStepCount += nPeakCount;
 		ar.mShakeActionCount = nStepCount;
+		ar.mStepCount = nPeakCount;
 		
-		Logs.d("#");
-		Logs.d("# of Xdata: "+nX.length+", shake: "+ar.mShakeActionCount);
+		if(Logs.isLoggable(Logs.LEVEL_DEBUG))
+			Logs.d(TAG, "# of Xdata: "+idx+", shake: "+ar.mShakeActionCount);
 		
 		double MET = 1.0;
 		if(fAvgVelocity < 2.7)
@@ -125,7 +265,8 @@ public class Analyzer {
 		}
 		
 		// 70kg�� ����� 3.5 mph(1.5m/s)�� 30�� �ɾ��� ��: 139.65 kcal
-		ar.mCalorie = MET*mWeight*(1/3600.)*1000;
+		ar.mMET = MET;
+		ar.mCalorie = MET*mWeight*(ar.mTotalTime/3600000.)*1000;
 		duCalorie += ar.mCalorie;
 		ar.mSumOfCalorie = duCalorie;
 		
@@ -298,16 +439,138 @@ public class Analyzer {
 		return ar;
 	}
 	
+	/**
+	 * Integer square root. Sum of squared counts is exact in double, so
+	 * hardware square root gives exact floor without any normalization.
+	 * @param n			value (0 ~ 2^52)
+	 * @return	int		floor of square root
+	 */
+	public static int isqrt(long n) {
+		return (int)Math.sqrt((double)n);
+	}
+	
 	@Deprecated
 	public static double calculateCalorie(int shakeActionCount) {
 		return shakeActionCount*50;
 	}
 	
-	public static void setWeight(double weight) {
+	public synchronized void setWeight(double weight) {
 		// Set user weight
 		if(weight > 0 && weight < 1000)
 			mWeight = weight;
 	}
 	
+	public synchronized double getWeight() {
+		return mWeight;
+	}
+	
+	/**
+	 * Select step engine. Step counting restarts.
+	 * @param engine		STEP_ENGINE_PEAK or STEP_ENGINE_CADENCE
+	 */
+	public synchronized void setStepEngine(int engine) {
+		mStepEngine = makeStepEngine(engine);
+	}
+	
+	/**
+	 * Features of the last window. Dominant frequency is not calculated,
+	 * because no analysis uses it. Valid until next analysis.
+	 * @return	AccelFeatures
+	 */
+	public synchronized AccelFeatures getFeatures() {
+		return mFeatures;
+	}
+	
+	/**
+	 * @return	int		activity class of the last analyzed window. ActivityReport.ACTIVITY_XXX
+	 */
+	public synchronized int getActivityClass() {
+		return mActivityClass;
+	}
+	
+	/**
+	 * @return	long	count of samples given to this session
+	 */
+	public synchronized long getReceivedSampleCount() {
+		return mReceivedSampleCount;
+	}
+	
+	/**
+	 * @return	long	count of samples analyzed. Less than received if samples were evicted from store.
+	 */
+	public synchronized long getAnalyzedSampleCount() {
+		return mAnalyzedSampleCount;
+	}
+	
+	public synchronized int getStepCount() {
+		return nStepCount;
+	}
+	
+	public synchronized double getCalorie() {
+		return duCalorie;
+	}
+	
+	/**
+	 * Copy counters of this session
+	 * @return	State		snapshot which is not changed by later analysis
+	 */
+	public synchronized State snapshot() {
+		State state = new State();
+		state.mStepCount = nStepCount;
+		state.mCalorie = duCalorie;
+		state.mWeight = mWeight;
+		return state;
+	}
+	
+	/**
+	 * Restore counters. Peak detection restarts, so the first step
+	 * after restore has no step interval.
+	 * @param state		snapshot from snapshot()
+	 */
+	public synchronized void restore(State state) {
+		resetPeakDetection();
+		nStepCount = state.mStepCount;
+		duCalorie = state.mCalorie;
+		mWeight = state.mWeight;
+	}
+	
+	/**
+	 * Clear counters and peak detection. Weight is kept.
+	 */
+	public synchronized void reset() {
+		resetPeakDetection();
+		nStepCount = 0;
+		duCalorie = 0.;
+		mReceivedSampleCount = 0;
+		mAnalyzedSampleCount = 0;
+	}
+	
+	
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+	
+	private static IStepEngine makeStepEngine(int engine) {
+		if(engine == STEP_ENGINE_PEAK)
+			return new PeakStepEngine(PEAK_OFFSET);
+		return new CadenceStepEngine();
+	}
+	
+	private void makeFilters(int samplingInterval) {
+		float sampleRate = 1000.f / samplingInterval;
+		float lowPassCutoff = Math.min(LOW_PASS_CUTOFF, sampleRate * 0.45f);
+		mHighPass = Biquad.highPass(sampleRate, HIGH_PASS_CUTOFF, Biquad.BUTTERWORTH_Q);
+		mLowPass = Biquad.lowPass(sampleRate, lowPassCutoff, Biquad.BUTTERWORTH_Q);
+		mFilterInterval = samplingInterval;
+	}
+	
+	private void resetPeakDetection() {
+		if(mHighPass != null) {
+			mHighPass.reset();
+			mLowPass.reset();
+		}
+		mStepEngine.reset();
+		mActivityClass = ActivityReport.ACTIVITY_UNKNOWN;
+	}
 	
 }
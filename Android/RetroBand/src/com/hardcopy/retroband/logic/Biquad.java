@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * Second order IIR filter (biquad), transposed direct form II.
+ * Coefficients of low-pass and high-pass filters follow R. Bristow-Johnson's
+ * Audio EQ Cookbook. Use Q = BUTTERWORTH_Q for a flat pass band.
+ * <p>
+ * Filter keeps its state between calls, so consecutive frames are filtered
+ * as one stream. First sample after reset() sets the state as if the signal
+ * had always been that value, so a constant offset like gravity makes no transient.
+ * Nothing is allocated after construction.
+ */
+public class Biquad {
+
+	public static final float BUTTERWORTH_Q = 0.70710678f;
+
+	private final float mB0, mB1, mB2, mA1, mA2;
+	private float mZ1 = 0;
+	private float mZ2 = 0;
+	private boolean mPrimed = false;
+
+
+	/**
+	 * Constructor. Coefficients must be divided by a0.
+	 */
+	public Biquad(float b0, float b1, float b2, float a1, float a2) {
+		mB0 = b0;
+		mB1 = b1;
+		mB2 = b2;
+		mA1 = a1;
+		mA2 = a2;
+	}
+
+	/**
+	 * Make low-pass filter
+	 * @param sampleRate		samples per second
+	 * @param cutoff			cutoff frequency in Hz. Must be lower than sampleRate / 2.
+	 * @param q					quality factor
+	 * @return	Biquad
+	 */
+	public static Biquad lowPass(float sampleRate, float cutoff, float q) {
+		double w0 = 2 * Math.PI * cutoff / sampleRate;
+		double cos = Math.cos(w0);
+		double alpha = Math.sin(w0) / (2 * q);
+		double a0 = 1 + alpha;
+		return new Biquad((float)((1 - cos) / 2 / a0), (float)((1 - cos) / a0), (float)((1 - cos) / 2 / a0),
+				(float)(-2 * cos / a0), (float)((1 - alpha) / a0));
+	}
+
+	/**
+	 * Make high-pass filter
+	 * @param sampleRate		samples per second
+	 * @param cutoff			cutoff frequency in Hz. Must be lower than sampleRate / 2.
+	 * @param q					quality factor
+	 * @return	Biquad
+	 */
+	public static Biquad highPass(float sampleRate, float cutoff, float q) {
+		double w0 = 2 * Math.PI * cutoff / sampleRate;
+		double cos = Math.cos(w0);
+		double alpha = Math.sin(w0) / (2 * q);
+		double a0 = 1 + alpha;
+		return new Biquad((float)((1 + cos) / 2 / a0), (float)(-(1 + cos) / a0), (float)((1 + cos) / 2 / a0),
+				(float)(-2 * cos / a0), (float)((1 - alpha) / a0));
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Forget filter state. Next sample primes the filter.
+	 */
+	public void reset() {
+		mZ1 = 0;
+		mZ2 = 0;
+		mPrimed = false;
+	}
+
+	/**
+	 * Filter one sample
+	 * @param x				input
+	 * @return	float		output
+	 */
+	public float process(float x) {
+		if(!mPrimed)
+			prime(x);
+		float y = mB0 * x + mZ1;
+		mZ1 = mB1 * x - mA1 * y + mZ2;
+		mZ2 = mB2 * x - mA2 * y;
+		return y;
+	}
+
+	/**
+	 * Filter samples in place
+	 * @param data			samples
+	 * @param offset		index of the first sample
+	 * @param length		count of samples
+	 */
+	public void process(float[] data, int offset, int length) {
+		if(length < 1)
+			return;
+		if(!mPrimed)
+			prime(data[offset]);
+		float z1 = mZ1;
+		float z2 = mZ2;
+		for(int i = offset; i < offset + length; i++) {
+			float x = data[i];
+			float y = mB0 * x + z1;
+			z1 = mB1 * x - mA1 * y + z2;
+			z2 = mB2 * x - mA2 * y;
+			data[i] = y;
+		}
+		mZ1 = z1;
+		mZ2 = z2;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	// Set steady state of constant input x
+	private void prime(float x) {
+		float y = x * (mB0 + mB1 + mB2) / (1 + mA1 + mA2);
+		mZ2 = mB2 * x - mA2 * y;
+		mZ1 = mB1 * x - mA1 * y + mZ2;
+		mPrimed = true;
+	}
+
+}
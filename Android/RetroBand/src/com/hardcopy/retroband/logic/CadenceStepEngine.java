@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * Step engine which estimates cadence from spectrum of magnitude.
+ * <p>
+ * Last WINDOW_TIME of magnitude is kept in a ring buffer. For each window,
+ * the buffer is Hann windowed and transformed with FFT. The strongest bin in
+ * step frequency band is the cadence, refined by parabolic interpolation.
+ * Steps of a window are cadence * window time. Fractions are carried to the
+ * next window, so no step is lost at window edges.
+ * <p>
+ * FFT tables and buffers are made only when sampling interval changes.
+ */
+public class CadenceStepEngine implements IStepEngine {
+
+	private static final int WINDOW_TIME = 4000;			// Spectrum window in milli-second
+	private static final int MIN_FILL_TIME = 2000;			// No estimation until this much is filled
+	private static final int MAX_FFT_SIZE = 512;
+	private static final float MIN_STEP_FREQUENCY = 0.8f;	// Hz
+	private static final float MAX_STEP_FREQUENCY = 4.f;	// Hz
+	private static final float MIN_PEAK_RATIO = 0.15f;		// Peak power / power of step band. Lower is not periodic.
+	private static final float STRIDE = 0.5f;				// Step length in meter
+
+	private int mSamplingInterval = 0;
+	private float[] mRing = null;		// Last window of magnitude
+	private int mRingPos = 0;
+	private int mFilled = 0;
+	private float[] mHann = null;
+	private Fft mFft = null;
+	private float[] mRe = null;
+	private float[] mIm = null;
+	private int mMinBin = 0;
+	private int mMaxBin = 0;
+
+	private float mCadence = 0;			// Steps per second
+	private float mFraction = 0;		// Step fraction carried to next window
+
+
+	public CadenceStepEngine() {
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	@Override
+	public int process(float[] magnitude, int length, int samplingInterval) {
+		if(samplingInterval < 1 || length < 1)
+			return 0;
+		if(samplingInterval != mSamplingInterval)
+			makeTables(samplingInterval);
+
+		int size = mRing.length;
+		for(int i = 0; i < length; i++) {
+			mRing[mRingPos] = magnitude[i];
+			mRingPos = (mRingPos + 1) % size;
+		}
+		mFilled = Math.min(size, mFilled + length);
+		if(mFilled * samplingInterval < MIN_FILL_TIME) {
+			mCadence = 0;
+			return 0;
+		}
+
+		mCadence = estimateCadence(samplingInterval);
+		float steps = mCadence * length * samplingInterval / 1000.f + mFraction;
+		int count = (int)steps;
+		mFraction = steps - count;
+		return count;
+	}
+
+	/**
+	 * @return	float	cadence of the last window in steps per second
+	 */
+	public float getCadence() {
+		return mCadence;
+	}
+
+	@Override
+	public float getVelocity() {
+		return STRIDE * mCadence * 3.6f;	// km/h
+	}
+
+	@Override
+	public int flush() {
+		// Carried fraction of a step
+		int count = Math.round(mFraction);
+		reset();
+		return count;
+	}
+
+	@Override
+	public void reset() {
+		mFilled = 0;
+		mRingPos = 0;
+		mCadence = 0;
+		mFraction = 0;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private void makeTables(int samplingInterval) {
+		int samples = Math.max(4, WINDOW_TIME / samplingInterval);
+		int fftSize = Math.min(Fft.getSizeFor(samples), MAX_FFT_SIZE);
+		samples = Math.min(samples, fftSize);
+
+		mRing = new float[samples];
+		mHann = new float[samples];
+		for(int i = 0; i < samples; i++) {
+			mHann[i] = (float)(0.5 - 0.5 * Math.cos(2 * Math.PI * i / (samples - 1)));
+		}
+		mFft = new Fft(fftSize);
+		mRe = new float[fftSize];
+		mIm = new float[fftSize];
+
+		float sampleRate = 1000.f / samplingInterval;
+		mMinBin = Math.max(1, (int)Math.ceil(MIN_STEP_FREQUENCY * fftSize / sampleRate));
+		mMaxBin = Math.min(fftSize / 2 - 1, (int)(MAX_STEP_FREQUENCY * fftSize / sampleRate));
+		mSamplingInterval = samplingInterval;
+		reset();
+	}
+
+	private float estimateCadence(int samplingInterval) {
+		int size = mRing.length;
+		int n = mFilled;
+		int start = (mRingPos - n + size) % size;		// Oldest sample
+
+		float mean = 0;
+		for(int i = 0; i < n; i++) {
+			mean += mRing[(start + i) % size];
+		}
+		mean /= n;
+
+		// Hann table is made for a full ring. Partly filled ring stretches it.
+		for(int i = 0; i < mRe.length; i++) {
+			mRe[i] = i < n ? (mRing[(start + i) % size] - mean) * mHann[i * (size - 1) / (n - 1)] : 0;
+			mIm[i] = 0;
+		}
+		mFft.transform(mRe, mIm);
+
+		int peak = -1;
+		float peakPower = 0;
+		float bandPower = 0;
+		for(int k = mMinBin; k <= mMaxBin; k++) {
+			float power = mRe[k] * mRe[k] + mIm[k] * mIm[k];
+			bandPower += power;
+			if(power > peakPower) {
+				peakPower = power;
+				peak = k;
+			}
+		}
+		if(peak < 0 || bandPower <= 0 || peakPower < MIN_PEAK_RATIO * bandPower)
+			return 0;
+
+		// Parabolic interpolation between neighbour bins
+		float bin = peak;
+		float left = mRe[peak - 1] * mRe[peak - 1] + mIm[peak - 1] * mIm[peak - 1];
+		float right = mRe[peak + 1] * mRe[peak + 1] + mIm[peak + 1] * mIm[peak + 1];
+		float denominator = left - 2 * peakPower + right;
+		if(denominator < 0)
+			bin += 0.5f * (left - right) / denominator;
+
+		return bin * 1000.f / (samplingInterval * mFft.getSize());
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import com.hardcopy.retroband.contents.ContentObject;
+
+/**
+ * Calculates features of a window of accel samples in one pass.
+ * <p>
+ * Samples are given as x, y, z column arrays with a range, so chunks of
+ * SampleStore or part of a large array can be used without copying:
+ * <pre>
+ * 	extractor.begin(count);
+ * 	extractor.add(x, y, z, offset, length);		// once for each chunk
+ * 	extractor.end(samplingInterval, features);
+ * </pre>
+ * Magnitude series of the window is kept in a scratch buffer and
+ * can be used by caller until next begin(). Dominant frequency needs an FFT,
+ * so it is calculated only when computeDominantFrequency() is called.
+ * Buffers are reused. Not thread-safe.
+ */
+public class FeatureExtractor {
+
+	private static final int AXIS_OFFSET = 32768;
+	private static final int MAX_FFT_SIZE = 256;
+
+	private float[] mMagnitude = new float[ContentObject.MAX_DATA_COUNT];
+	private int mCount = 0;
+
+	// Sums of current window
+	private final long[] mSum = new long[3];
+	private final long[] mSumOfSquare = new long[3];
+	private final int[] mMin = new int[3];
+	private final int[] mMax = new int[3];
+	private long mAbsSum = 0;
+	private double mMagnitudeSum = 0;
+	private double mMagnitudeSumOfSquare = 0;
+	private float mMagnitudeMin = 0;
+	private float mMagnitudeMax = 0;
+
+	// FFT buffers
+	private Fft mFft = null;
+	private float[] mRe = null;
+	private float[] mIm = null;
+
+
+	public FeatureExtractor() {
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Start a window
+	 * @param capacity		expected count of samples. Buffer grows if needed.
+	 */
+	public void begin(int capacity) {
+		if(mMagnitude.length < capacity)
+			mMagnitude = new float[capacity];
+		mCount = 0;
+		for(int axis = 0; axis < 3; axis++) {
+			mSum[axis] = 0;
+			mSumOfSquare[axis] = 0;
+			mMin[axis] = Integer.MAX_VALUE;
+			mMax[axis] = Integer.MIN_VALUE;
+		}
+		mAbsSum = 0;
+		mMagnitudeSum = 0;
+		mMagnitudeSumOfSquare = 0;
+		mMagnitudeMin = Float.MAX_VALUE;
+		mMagnitudeMax = -Float.MAX_VALUE;
+	}
+
+	/**
+	 * Add samples [offset, offset + length) of column arrays
+	 */
+	public void add(int[] x, int[] y, int[] z, int offset, int length) {
+		if(mCount + length > mMagnitude.length) {
+			float[] magnitude = new float[mCount + length];
+			System.arraycopy(mMagnitude, 0, magnitude, 0, mCount);
+			mMagnitude = magnitude;
+		}
+
+		for(int i = offset; i < offset + length; i++) {
+			int vx = x[i];
+			int vy = y[i];
+			int vz = z[i];
+			accumulate(0, vx);
+			accumulate(1, vy);
+			accumulate(2, vz);
+			mAbsSum += Math.abs(vx) + Math.abs(vy) + Math.abs(vz);
+
+			long ox = vx + AXIS_OFFSET;
+			long oy = vy + AXIS_OFFSET;
+			long oz = vz + AXIS_OFFSET;
+			float m = Analyzer.isqrt(ox*ox + oy*oy + oz*oz);
+			mMagnitude[mCount++] = m;
+			mMagnitudeSum += m;
+			mMagnitudeSumOfSquare += (double)m * m;
+			if(m < mMagnitudeMin)
+				mMagnitudeMin = m;
+			if(m > mMagnitudeMax)
+				mMagnitudeMax = m;
+		}
+	}
+
+	/**
+	 * Finish the window and fill features except dominant frequency
+	 * @param samplingInterval		time between samples in milli-second
+	 * @param features				result
+	 */
+	public void end(int samplingInterval, AccelFeatures features) {
+		int n = mCount;
+		features.mCount = n;
+		features.mDominantFrequency = 0;
+		if(n < 1)
+			return;
+
+		for(int axis = 0; axis < 3; axis++) {
+			double mean = (double)mSum[axis] / n;
+			features.mMean[axis] = (float)mean;
+			features.mVariance[axis] = (float)Math.max(0, (double)mSumOfSquare[axis] / n - mean * mean);
+			features.mMin[axis] = mMin[axis];
+			features.mMax[axis] = mMax[axis];
+		}
+		features.mSignalMagnitudeArea = (float)mAbsSum / n;
+
+		double mean = mMagnitudeSum / n;
+		features.mMagnitudeMean = (float)mean;
+		features.mMagnitudeVariance = (float)Math.max(0, mMagnitudeSumOfSquare / n - mean * mean);
+		features.mMagnitudeMin = mMagnitudeMin;
+		features.mMagnitudeMax = mMagnitudeMax;
+
+		// Zero-crossings over the scratch buffer. Input is not read again.
+		int crossings = 0;
+		float m = (float)mean;
+		boolean above = mMagnitude[0] > m;
+		for(int i = 1; i < n; i++) {
+			boolean current = mMagnitude[i] > m;
+			if(current != above)
+				crossings++;
+			above = current;
+		}
+		features.mZeroCrossingRate = samplingInterval > 0 ? crossings * 1000.f / (n * samplingInterval) : 0;
+	}
+
+	/**
+	 * Calculate dominant frequency of magnitude with FFT.
+	 * Uses last MAX_FFT_SIZE values of the magnitude buffer as it is now,
+	 * so caller may filter the buffer first. Call after end().
+	 * @param samplingInterval		time between samples in milli-second
+	 * @param features				result of end()
+	 */
+	public void computeDominantFrequency(int samplingInterval, AccelFeatures features) {
+		int n = Math.min(mCount, MAX_FFT_SIZE);
+		features.mDominantFrequency = 0;
+		if(n < 4 || samplingInterval < 1)
+			return;
+
+		int size = Fft.getSizeFor(n);
+		if(mFft == null || mFft.getSize() != size) {
+			mFft = new Fft(size);
+			mRe = new float[size];
+			mIm = new float[size];
+		}
+		int start = mCount - n;
+		float mean = 0;
+		for(int i = start; i < mCount; i++) {
+			mean += mMagnitude[i];
+		}
+		mean /= n;
+		for(int i = 0; i < size; i++) {
+			mRe[i] = i < n ? mMagnitude[start + i] - mean : 0;
+			mIm[i] = 0;
+		}
+		mFft.transform(mRe, mIm);
+
+		int peak = 0;
+		float peakPower = 0;
+		for(int k = 1; k <= size / 2; k++) {
+			float power = mRe[k] * mRe[k] + mIm[k] * mIm[k];
+			if(power > peakPower) {
+				peakPower = power;
+				peak = k;
+			}
+		}
+		features.mDominantFrequency = peak * 1000.f / (samplingInterval * size);
+	}
+
+	/**
+	 * Magnitude of samples added after begin(). Caller may modify it.
+	 * @return	float[]		buffer which has getCount() valid values
+	 */
+	public float[] getMagnitude() {
+		return mMagnitude;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private void accumulate(int axis, int v) {
+		mSum[axis] += v;
+		mSumOfSquare[axis] += (long)v * v;
+		if(v < mMin[axis])
+			mMin[axis] = v;
+		if(v > mMax[axis])
+			mMax[axis] = v;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * In-place radix-2 FFT.
+ * Twiddle factors and bit reversal table are calculated once by the constructor,
+ * so transform() does not allocate.
+ */
+public class Fft {
+
+	private final int mSize;
+	private final float[] mCos;
+	private final float[] mSin;
+	private final int[] mReverse;
+
+
+	/**
+	 * Constructor
+	 * @param size		count of points. Must be power of 2.
+	 */
+	public Fft(int size) {
+		if(size < 2 || (size & (size - 1)) != 0)
+			throw new IllegalArgumentException("FFT size must be power of 2: " + size);
+		mSize = size;
+		mCos = new float[size / 2];
+		mSin = new float[size / 2];
+		for(int i = 0; i < size / 2; i++) {
+			mCos[i] = (float)Math.cos(2 * Math.PI * i / size);
+			mSin[i] = (float)Math.sin(2 * Math.PI * i / size);
+		}
+		int bits = Integer.numberOfTrailingZeros(size);
+		mReverse = new int[size];
+		for(int i = 0; i < size; i++) {
+			mReverse[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Forward transform in place
+	 * @param re		real part, size points
+	 * @param im		imaginary part, size points
+	 */
+	public void transform(float[] re, float[] im) {
+		for(int i = 0; i < mSize; i++) {
+			int j = mReverse[i];
+			if(j > i) {
+				float t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+
+		for(int len = 2; len <= mSize; len <<= 1) {
+			int half = len >> 1;
+			int step = mSize / len;
+			for(int i = 0; i < mSize; i += len) {
+				for(int j = 0; j < half; j++) {
+					float wr = mCos[j * step];
+					float wi = -mSin[j * step];
+					int a = i + j;
+					int b = a + half;
+					float tr = re[b] * wr - im[b] * wi;
+					float ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return	int		smallest power of 2 which is not less than n
+	 */
+	public static int getSizeFor(int n) {
+		int size = 2;
+		while(size < n) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+}
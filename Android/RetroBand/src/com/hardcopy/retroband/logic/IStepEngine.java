@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * Counts steps from accel magnitude.
+ * Engine keeps its own state between windows, so windows must be given in order.
+ */
+public interface IStepEngine {
+	/**
+	 * Process a window of magnitude
+	 * @param magnitude			magnitude samples. Engine may not keep the array.
+	 * @param length			count of samples
+	 * @param samplingInterval	time between samples in milli-second
+	 * @return	int				count of steps in this window
+	 */
+	public int process(float[] magnitude, int length, int samplingInterval);
+	
+	/**
+	 * @return	float	average speed of steps in the last window in km/h. 0 if unknown.
+	 */
+	public float getVelocity();
+	
+	/**
+	 * Forget previous windows
+	 */
+	public void reset();
+	
+	/**
+	 * Finish steps which are found but not counted yet, and forget previous windows.
+	 * Called when activity stops, so those steps are not lost.
+	 * @return	int		count of steps not counted yet
+	 */
+	public int flush();
+}
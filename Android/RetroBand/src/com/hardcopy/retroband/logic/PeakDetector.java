@@ -14,6 +14,12 @@ import com.hardcopy.retroband.utils.Logs;
  * We retained the first "spikiness" function he proposed, based on computing
  * the max signed distance to left and right neighbors.
  * <p>
+ * Unlike the paper, only a value which is the largest of its neighbors has
+ * spikiness, and the other values have 0. On a smooth periodic series (a steady
+ * gait) the slopes have spikiness too, and then mean and std of the spikiness
+ * are as large as the peaks themselves. A retained peak is the largest value of
+ * its neighbors, so no two peaks are closer than the window size.
+ * <p>
  * <pre> 
  *              http://sites.google.com/site/girishpalshikar/Home/mypublications/
  *              SimpleAlgorithmsforPeakDetectioninTimeSeriesACADABAI_2009.pdf
@@ -22,14 +28,75 @@ import com.hardcopy.retroband.utils.Logs;
  */
 public class PeakDetector {
 
-	final private float offset = 0.1f;
+	/** Spikiness is computed by scanning +/- windowSize neighbours. O(n * windowSize) */
+	public static final int SPIKINESS_SCAN = 0;
+	/** Spikiness is computed from sliding window minimums kept in monotonic deques. O(n) */
+	public static final int SPIKINESS_DEQUE = 1;
+
+	public static final float DEFAULT_OFFSET = 0.1f;
+
+	final private float offset;
 	private float[] T;
+	private int length;
+	private int spikinessMethod = SPIKINESS_DEQUE;
+
+	// Buffers of process(). They grow with length and are kept for next call.
+	private float[] S = new float[0];
+	private int[] leftQ = new int[0];
+	private int[] rightQ = new int[0];
+	private int[] leftMaxQ = new int[0];
+	private int[] rightMaxQ = new int[0];
+	private final ArrayList<Integer> peakLocations = new ArrayList<Integer>();
 
 	/**
 	 * Create a peak detector for the given time series.
 	 */
 	public PeakDetector(final float[] timeSeries) {
-		this.T = timeSeries; 
+		this(timeSeries, timeSeries.length);
+	}
+
+	/**
+	 * Create a peak detector for the first <code>length</code> values of the time series.
+	 * Lets caller reuse a larger array.
+	 */
+	public PeakDetector(final float[] timeSeries, final int length) {
+		this(timeSeries, length, DEFAULT_OFFSET);
+	}
+
+	/**
+	 * Create a peak detector for the first <code>length</code> values of the time series.
+	 * Differences smaller than <code>offset</code> are ignored. Use a scaled offset
+	 * when the time series is scaled.
+	 */
+	public PeakDetector(final float[] timeSeries, final int length, final float offset) {
+		this.T = timeSeries;
+		this.length = length;
+		this.offset = offset;
+	}
+
+	/**
+	 * Set the time series to process next. Lets caller reuse a detector and its buffers.
+	 * @param timeSeries	time series
+	 * @param length		count of values to process from the beginning of timeSeries
+	 */
+	public void setTimeSeries(final float[] timeSeries, final int length) {
+		this.T = timeSeries;
+		this.length = length;
+	}
+
+	/**
+	 * Select how spikiness is computed. Both give identical results.
+	 * @param method		SPIKINESS_SCAN or SPIKINESS_DEQUE
+	 */
+	public void setSpikinessMethod(final int method) {
+		this.spikinessMethod = method;
+	}
+
+	/**
+	 * Spikiness of a value, calculated by last process()
+	 */
+	float getSpikiness(final int index) {
+		return S[index];
 	}
 
 	/**
@@ -39,35 +106,97 @@ public class PeakDetector {
 	 * @param stringency  	threshold for peak values. Peak with values lower than <code>
 	 * 						mean + stringency * std</code> will be rejected. 
 	 * 						<code>Mean</code> and <code>std</code> are calculated on the 
-	 * 						spikiness function. Typical values range from 1 to 3.
+	 * 						spikiness function of values which have windowSize neighbors
+	 * 						at both sides. Typical values range from 1 to 3.
 	 * @return an int array, with one element by retained peak, containing the index of 
 	 * the peak in the time series array.
 	 */
 	public int[] process(final int windowSize, final float stringency) {
 		// Compute peak function values
-		float[] S = new float[T.length];
+		if (S.length < length) {
+			S = new float[length];
+			leftQ = new int[length];
+			rightQ = new int[length];
+			leftMaxQ = new int[length];
+			rightMaxQ = new int[length];
+		}
+		for (int i = 0; i < length; i++) {
+			S[i] = 0;
+		}
 		float maxLeft=0, maxRight=0;
-		for (int i = windowSize; i < S.length - windowSize; i++) {
-			maxLeft = Math.abs(T[i] - T[i-1]) > offset ? T[i] - T[i-1] : 0;
-			maxRight = Math.abs(T[i] - T[i+1]) > offset ? T[i] - T[i+1] : 0;
-			for (int j = 2; j <= windowSize; j++) {
-				float a = Math.abs(T[i]-T[i-j]) > offset ? T[i]-T[i-j] : 0;
-				float b = Math.abs(T[i]-T[i+j]) > offset ? T[i]-T[i+j] : 0;
-				if (a > maxLeft)
-					maxLeft = a;
-				if (b > maxRight)
-					maxRight = b;
+		if (spikinessMethod == SPIKINESS_DEQUE && windowSize > 0) {
+			// Max signed distance to neighbours is the distance to the smallest neighbour.
+			// Thresholding that distance by offset gives the same value as thresholding each one.
+			// leftQ has indices of increasing values in [i-windowSize, i-1], rightQ in [i+1, i+windowSize]
+			// leftMaxQ and rightMaxQ have indices of decreasing values in same ranges
+			int lh = 0, lt = 0, rh = 0, rt = 0;
+			int lmh = 0, lmt = 0, rmh = 0, rmt = 0;
+			int leftNext = 0, rightNext = 0;
+			for (int i = windowSize; i < length - windowSize; i++) {
+				while (leftNext < i) {
+					while (lt > lh && T[leftQ[lt-1]] >= T[leftNext])
+						lt--;
+					leftQ[lt++] = leftNext;
+					while (lmt > lmh && T[leftMaxQ[lmt-1]] <= T[leftNext])
+						lmt--;
+					leftMaxQ[lmt++] = leftNext;
+					leftNext++;
+				}
+				while (leftQ[lh] < i - windowSize)
+					lh++;
+				while (leftMaxQ[lmh] < i - windowSize)
+					lmh++;
+				while (rightNext <= i + windowSize) {
+					while (rt > rh && T[rightQ[rt-1]] >= T[rightNext])
+						rt--;
+					rightQ[rt++] = rightNext;
+					while (rmt > rmh && T[rightMaxQ[rmt-1]] <= T[rightNext])
+						rmt--;
+					rightMaxQ[rmt++] = rightNext;
+					rightNext++;
+				}
+				while (rightQ[rh] <= i)
+					rh++;
+				while (rightMaxQ[rmh] <= i)
+					rmh++;
+
+				// Equal values at right make a plateau, and its last value is the peak
+				if (T[leftMaxQ[lmh]] > T[i] || T[rightMaxQ[rmh]] >= T[i])
+					continue;
+				float a = T[i] - T[leftQ[lh]];
+				float b = T[i] - T[rightQ[rh]];
+				maxLeft = Math.abs(a) > offset ? a : 0;
+				maxRight = Math.abs(b) > offset ? b : 0;
+				S[i] = 0.5f * (maxRight + maxLeft);
+			}
+		} else {
+			for (int i = windowSize; i < length - windowSize; i++) {
+				boolean largest = T[i-1] <= T[i] && T[i+1] < T[i];
+				maxLeft = Math.abs(T[i] - T[i-1]) > offset ? T[i] - T[i-1] : 0;
+				maxRight = Math.abs(T[i] - T[i+1]) > offset ? T[i] - T[i+1] : 0;
+				for (int j = 2; j <= windowSize; j++) {
+					float a = Math.abs(T[i]-T[i-j]) > offset ? T[i]-T[i-j] : 0;
+					float b = Math.abs(T[i]-T[i+j]) > offset ? T[i]-T[i+j] : 0;
+					if (a > maxLeft)
+						maxLeft = a;
+					if (b > maxRight)
+						maxRight = b;
+					if (T[i-j] > T[i] || T[i+j] >= T[i])
+						largest = false;
+				}
+				if (largest)
+					S[i] = 0.5f * (maxRight + maxLeft);
 			}
-			S[i] = 0.5f * (maxRight + maxLeft);
-        }
+		}
 
 		
-		// Compute mean and std of peak function
+		// Compute mean and std of peak function.
+		// First and last windowSize values have no spikiness, and they are not counted.
 		float mean = 0;
 		int n = 0;
 		float M2 = 0;
 		float delta;
-		for (int i = 0; i < S.length; i++) {
+		for (int i = windowSize; i < length - windowSize; i++) {
 			n = n + 1;
 			delta = S[i] - mean;
 			mean = mean + delta/n;
@@ -79,32 +208,16 @@ public class PeakDetector {
 		float std = (float) Math.sqrt(variance);
             
 		// Collect only large peaks
-		ArrayList<Integer> peakLocations = new ArrayList<Integer>();
-		for (int i = 0; i < S.length; i++) {
+		peakLocations.clear();
+		for (int i = 0; i < length; i++) {
 			if (S[i] > 0 && (S[i]-mean) > stringency * std) {
 				peakLocations.add(i);
 			}
 		}
-		Logs.d("#");
-		Logs.d("maxLeft: "+maxLeft+", maxRight: "+maxRight+", mean: "+ mean+", variance: " +variance+", std: " + std);
+		if (Logs.isLoggable(Logs.LEVEL_DEBUG))
+			Logs.d("maxLeft: "+maxLeft+", maxRight: "+maxRight+", mean: "+ mean+", variance: " +variance+", std: " + std);
 		
-		// Remove peaks too close
-		ArrayList<Integer> toPrune = new ArrayList<Integer>();
-		int peak1, peak2, weakerPeak;
-		for (int i = 0; i < peakLocations.size()-1; i++) {
-			peak1 = peakLocations.get(i);
-			peak2 = peakLocations.get(i+1);
-
-			if (peak2 - peak1 < windowSize) {
-				// Too close, prune the smallest one
-				if (T[peak2] > T[peak1])
-					weakerPeak = peak1;
-				else 
-					weakerPeak = peak2;
-				toPrune.add(weakerPeak);
-			}
-		}
-		peakLocations.removeAll(toPrune);
+		// Peaks are largest values of their neighbors, so none is too close to another.
 
 		// Convert to int[]
 		int[] peakArray = new int[peakLocations.size()];
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import com.hardcopy.retroband.contents.ContentManager;
+
+/**
+ * Step engine which counts peaks of magnitude.
+ * Speed is calculated from time between peaks with 0.5m stride.
+ */
+public class PeakStepEngine implements IStepEngine {
+
+	private static final int PEAK_WINDOW_TIME = 200;	// Peak detection window in milli-second (4 samples at 20Hz)
+	private static final float STRIDE = 0.5f;			// Step length in meter
+
+	private static final float PEAK_STRINGENCY = 1.5f;
+	private static final int PEAK_BLOCK_TIME = ContentManager.REPORT_INTERVAL;	// Statistics block, same as analysis window
+
+	private final float mOffset;
+	private final PeakCollector mPeakCollector = new PeakCollector();
+	private StreamingPeakDetector mStreamingDetector = null;
+	private int mDetectorInterval = 0;		// Sampling interval which detector is made for
+	private long nLastPeakIndex = -1;
+	private float mVelocity = 0;
+
+
+	/**
+	 * Constructor
+	 * @param offset		differences of magnitude smaller than this are ignored
+	 */
+	public PeakStepEngine(float offset) {
+		mOffset = offset;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	@Override
+	public int process(float[] magnitude, int length, int samplingInterval) {
+		float[] n3D = magnitude;
+		int idx = length;
+		int nWindowSize = Math.max(3, PEAK_WINDOW_TIME / samplingInterval);
+		float fSamplingPeriod = samplingInterval / 1000.f;	// in second
+		float fStepTime = 0.f;
+		float fStepVelocity = 0.f;
+		float fAvgVelocity = 0.f;
+		int nPeakCount = 0;
+		mVelocity = 0;
+
+		// Peaks near the end of this window are reported with next window
+		if(mStreamingDetector == null || mDetectorInterval != samplingInterval) {
+			int nBlockSize = Math.max(2 * nWindowSize + 1, PEAK_BLOCK_TIME / samplingInterval);
+			mStreamingDetector = new StreamingPeakDetector(nWindowSize, mOffset, PEAK_STRINGENCY, nBlockSize, mPeakCollector);
+			mDetectorInterval = samplingInterval;
+			nLastPeakIndex = -1;
+		}
+		mPeakCollector.clear();
+		for(int i = 0; i < idx; ++i)
+		{
+			mStreamingDetector.add(n3D[i]);
+		}
+
+		nPeakCount = mPeakCollector.mCount;
+		if(nPeakCount <= 0)
+			return 0;
+
+		// Step time from previous peak, even if it was in previous window
+		int nIntervalCount = 0;
+		for(int i = 0; i < nPeakCount; ++i)
+		{
+			long peak = mPeakCollector.mPeaks[i];
+			if(nLastPeakIndex > -1) {
+				fStepTime = (peak - nLastPeakIndex)*fSamplingPeriod;
+				fStepVelocity = STRIDE/fStepTime;
+				fAvgVelocity += fStepVelocity;
+				nIntervalCount++;
+			}
+			nLastPeakIndex = peak;
+		}
+		if(nIntervalCount > 0)
+			fAvgVelocity /= nIntervalCount;
+		mVelocity = fAvgVelocity * 3.6f; // convert m/s to km/h
+		return nPeakCount;
+	}
+
+	@Override
+	public float getVelocity() {
+		return mVelocity;
+	}
+
+	@Override
+	public int flush() {
+		int count = 0;
+		if(mStreamingDetector != null) {
+			mPeakCollector.clear();
+			mStreamingDetector.flush();
+			count = mPeakCollector.mCount;
+			mPeakCollector.clear();
+		}
+		reset();
+		return count;
+	}
+
+	@Override
+	public void reset() {
+		if(mStreamingDetector != null)
+			mStreamingDetector.reset();
+		nLastPeakIndex = -1;
+		mVelocity = 0;
+	}
+
+	/**
+	 * Keeps peaks of a window. Array grows only when a window has more peaks than before.
+	 */
+	private static class PeakCollector implements IPeakListener {
+		long[] mPeaks = new long[16];
+		int mCount = 0;
+
+		void clear() {
+			mCount = 0;
+		}
+
+		@Override
+		public void OnPeakDetected(long index, float value) {
+			if(mCount == mPeaks.length) {
+				long[] peaks = new long[mPeaks.length * 2];
+				System.arraycopy(mPeaks, 0, peaks, 0, mCount);
+				mPeaks = peaks;
+			}
+			mPeaks[mCount] = index;
+			mCount++;
+		}
+	}
+
+}
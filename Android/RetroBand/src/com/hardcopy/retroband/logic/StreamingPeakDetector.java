@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+/**
+ * Incremental version of PeakDetector.
+ * <p>
+ * Takes one sample at a time, so peaks are found across frame boundaries.
+ * Spikiness of a sample is calculated same as PeakDetector when windowSize
+ * samples after it have arrived. Smallest and largest neighbours are kept in
+ * monotonic deques, so a sample costs O(1) amortized.
+ * Spikiness is collected in blocks of blockSize samples, and each block is
+ * thresholded with mean and std of the block itself. Peaks of a block are same
+ * as PeakDetector finds in the block with windowSize samples before and after it,
+ * and a peak is reported up to blockSize + windowSize samples after it occurs.
+ * <p>
+ * Nothing is allocated after construction or setWindowSize().
+ */
+public class StreamingPeakDetector {
+
+	private final IPeakListener mListener;
+	private final float mOffset;
+	private final float mStringency;
+	private final int mBlockSize;
+
+	private int mWindowSize;
+	private float[] mWindow;		// Last 2 * windowSize + 1 samples
+	private long mCount = 0;		// Samples added
+
+	// Smallest and largest of windowSize samples at each side of center sample
+	private SlidingExtremum mLeftMin;
+	private SlidingExtremum mLeftMax;
+	private SlidingExtremum mRightMin;
+	private SlidingExtremum mRightMax;
+
+	// Block of spikiness waiting for statistics
+	private final float[] mBlockSpikiness;
+	private final float[] mBlockValue;
+	private int mBlockCount = 0;
+	private long mBlockStart = 0;	// Index of the first sample in block
+
+
+	/**
+	 * Constructor
+	 * @param windowSize	+/- windowSize samples are inspected for each sample
+	 * @param stringency	peak spikiness must exceed mean + stringency * std
+	 * @param blockSize		samples in a block which mean and std are calculated from. Use analysis window size.
+	 * @param listener		receives peaks
+	 */
+	public StreamingPeakDetector(int windowSize, float stringency, int blockSize, IPeakListener listener) {
+		this(windowSize, PeakDetector.DEFAULT_OFFSET, stringency, blockSize, listener);
+	}
+
+	/**
+	 * Constructor
+	 * @param windowSize	+/- windowSize samples are inspected for each sample
+	 * @param offset		differences smaller than this are ignored. Scale it with samples.
+	 * @param stringency	peak spikiness must exceed mean + stringency * std
+	 * @param blockSize		samples in a block which mean and std are calculated from. Use analysis window size.
+	 * @param listener		receives peaks
+	 */
+	public StreamingPeakDetector(int windowSize, float offset, float stringency, int blockSize, IPeakListener listener) {
+		mOffset = offset;
+		mStringency = stringency;
+		mBlockSize = Math.max(2, blockSize);
+		mBlockSpikiness = new float[mBlockSize];
+		mBlockValue = new float[mBlockSize];
+		mListener = listener;
+		setWindowSize(windowSize);
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Change window size. Detector is reset.
+	 * @param windowSize	+/- windowSize samples are inspected for each sample
+	 */
+	public void setWindowSize(int windowSize) {
+		if(windowSize < 1)
+			windowSize = 1;
+		if(mWindow == null || mWindowSize != windowSize) {
+			mWindowSize = windowSize;
+			mWindow = new float[windowSize * 2 + 1];
+			mLeftMin = new SlidingExtremum(mWindow.length, false);
+			mLeftMax = new SlidingExtremum(mWindow.length, true);
+			mRightMin = new SlidingExtremum(mWindow.length, false);
+			mRightMax = new SlidingExtremum(mWindow.length, true);
+		}
+		reset();
+	}
+
+	public int getWindowSize() {
+		return mWindowSize;
+	}
+
+	/**
+	 * Forget every sample and statistics.
+	 * Peaks not reported yet are discarded. Call flush() before to keep them.
+	 */
+	public void reset() {
+		mCount = 0;
+		mBlockCount = 0;
+		mBlockStart = 0;
+		mLeftMin.clear();
+		mLeftMax.clear();
+		mRightMin.clear();
+		mRightMax.clear();
+	}
+	
+	/**
+	 * Threshold the partial block and report every peak found so far.
+	 * Last windowSize samples have no spikiness yet, so they are not inspected.
+	 */
+	public void flush() {
+		if(mBlockCount > 1)
+			processBlock();
+		mBlockCount = 0;
+	}
+
+	/**
+	 * Add a sample. Listener may be called.
+	 * @param value		sample value
+	 */
+	public void add(float value) {
+		long index = mCount;
+		mWindow[(int)(index % mWindow.length)] = value;
+		mCount++;
+
+		// Sample becomes a left neighbour when center passes it
+		long left = index - mWindowSize - 1;
+		if(left >= 0) {
+			float v = get(left);
+			mLeftMin.add(left, v);
+			mLeftMax.add(left, v);
+		}
+		mRightMin.add(index, value);
+		mRightMax.add(index, value);
+		if(mCount < mWindow.length)
+			return;
+
+		// Spikiness of the center sample
+		long center = index - mWindowSize;
+		mLeftMin.removeBefore(center - mWindowSize);
+		mLeftMax.removeBefore(center - mWindowSize);
+		mRightMin.removeBefore(center + 1);
+		mRightMax.removeBefore(center + 1);
+		float t = get(center);
+		float s = 0;
+		// Same as PeakDetector: only the last value of a plateau is a peak
+		if(mLeftMax.getValue() <= t && mRightMax.getValue() < t) {
+			float a = t - mLeftMin.getValue();
+			float b = t - mRightMin.getValue();
+			float maxLeft = Math.abs(a) > mOffset ? a : 0;
+			float maxRight = Math.abs(b) > mOffset ? b : 0;
+			s = 0.5f * (maxRight + maxLeft);
+		}
+
+		if(mBlockCount == 0)
+			mBlockStart = center;
+		mBlockSpikiness[mBlockCount] = s;
+		mBlockValue[mBlockCount] = t;
+		mBlockCount++;
+		if(mBlockCount == mBlockSize) {
+			processBlock();
+			mBlockCount = 0;
+		}
+	}
+
+	/**
+	 * @return	long	count of samples added since reset
+	 */
+	public long getSampleCount() {
+		return mCount;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private float get(long index) {
+		return mWindow[(int)(index % mWindow.length)];
+	}
+
+	/**
+	 * Threshold spikiness of the block with its own mean and std
+	 */
+	private void processBlock() {
+		// Welford, same as PeakDetector
+		float mean = 0;
+		float m2 = 0;
+		for(int i = 0; i < mBlockCount; i++) {
+			float delta = mBlockSpikiness[i] - mean;
+			mean += delta / (i + 1);
+			m2 += delta * (mBlockSpikiness[i] - mean);
+		}
+		float threshold = mStringency * (float)Math.sqrt(m2 / (mBlockCount - 1));
+
+		// Peaks are largest values of their neighbours, so none is too close to another
+		for(int i = 0; i < mBlockCount; i++) {
+			float s = mBlockSpikiness[i];
+			if(s > 0 && (s - mean) > threshold && mListener != null)
+				mListener.OnPeakDetected(mBlockStart + i, mBlockValue[i]);
+		}
+	}
+
+
+	/**
+	 * Smallest or largest value of a sliding range of samples.
+	 * Keeps a monotonic deque of sample index and value in a ring.
+	 */
+	private static class SlidingExtremum {
+		private final long[] mIndex;
+		private final float[] mValue;
+		private final boolean mLargest;
+		private int mHead = 0;
+		private int mSize = 0;
+
+		/**
+		 * @param capacity		most samples kept at once
+		 * @param largest		true to keep largest value, false to keep smallest
+		 */
+		SlidingExtremum(int capacity, boolean largest) {
+			mIndex = new long[capacity];
+			mValue = new float[capacity];
+			mLargest = largest;
+		}
+
+		void clear() {
+			mHead = 0;
+			mSize = 0;
+		}
+
+		/**
+		 * Add a sample at the end of range. Samples which can't be the extremum any more are removed.
+		 */
+		void add(long index, float value) {
+			while(mSize > 0) {
+				float last = mValue[(mHead + mSize - 1) % mValue.length];
+				if(mLargest ? last > value : last < value)
+					break;
+				mSize--;
+			}
+			int tail = (mHead + mSize) % mValue.length;
+			mIndex[tail] = index;
+			mValue[tail] = value;
+			mSize++;
+		}
+
+		/**
+		 * Remove samples before index from the start of range
+		 */
+		void removeBefore(long index) {
+			while(mSize > 0 && mIndex[mHead] < index) {
+				mHead = (mHead + 1) % mValue.length;
+				mSize--;
+			}
+		}
+
+		float getValue() {
+			return mValue[mHead];
+		}
+	}
+
+}
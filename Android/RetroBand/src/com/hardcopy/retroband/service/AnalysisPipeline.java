@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.service;
+
+import com.hardcopy.retroband.bluetooth.FrameRingQueue;
+import com.hardcopy.retroband.bluetooth.IFrameListener;
+import com.hardcopy.retroband.contents.ActivityReport;
+import com.hardcopy.retroband.contents.ContentManager;
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
+import com.hardcopy.retroband.utils.Constants;
+import com.hardcopy.retroband.utils.Logs;
+
+import android.os.Handler;
+
+/**
+ * Moves analysis off the main thread.
+ * <pre>
+ * 	ingest		bluetooth reader thread parses stream and offers objects
+ * 	cache		analysis thread runs ContentManager.addContentObject()
+ * 	analyze		same thread, ContentManager.analyzeContents() every second
+ * 	aggregate	same thread, ContentManager adds report to time buckets
+ * 				and rolls buckets every minute
+ * 	checkpoint	same thread, ContentManager appends current buckets to a file
+ * 				every few seconds, restored after process kill
+ * 	persist		ContentManager queues changed buckets every minute and
+ * 				ReportWriter thread writes DB
+ * 	publish		finished reports and accel data are sent to UI handler
+ * </pre>
+ * Ingest queue is a lock-free single-producer/single-consumer ring of
+ * preallocated frames. If analysis falls behind, the oldest frame is
+ * dropped (POLICY_DROP_OLDEST) so the reader thread never stalls the socket,
+ * the new frame is rejected (POLICY_DROP_NEWEST), or the producer waits (POLICY_BLOCK).
+ * Only one thread may call offer().
+ * <p>
+ * Analysis is driven by AnalysisScheduler on a monotonic clock, not by
+ * packet arrival, so reports come on time even when the band goes quiet.
+ * requestFlush() analyzes the partial window, e.g. on disconnect.
+ */
+public class AnalysisPipeline implements IFrameListener, IScheduleListener {
+
+	private static final String TAG = "AnalysisPipeline";
+
+	public static final int POLICY_DROP_OLDEST = FrameRingQueue.POLICY_DROP_OLDEST;
+	public static final int POLICY_DROP_NEWEST = FrameRingQueue.POLICY_DROP_NEWEST;
+	public static final int POLICY_BLOCK = FrameRingQueue.POLICY_BLOCK;
+
+	private static final int INGEST_QUEUE_SIZE = 32;
+	private static final long STOP_TIMEOUT = 1000;
+	
+	// Scheduled tasks
+	private static final int TASK_LIVE_REPORT = 1;
+	private static final int TASK_ROLLUP = 2;
+	private static final int TASK_PERSIST = 3;
+	private static final int TASK_CHECKPOINT = 4;
+	public static final long LIVE_REPORT_INTERVAL = ContentManager.REPORT_INTERVAL;
+	public static final long ROLLUP_INTERVAL = 60 * 1000;
+	public static final long DEFAULT_PERSIST_INTERVAL = 60 * 1000;
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 5 * 1000;
+
+	private final ContentManager mContentManager;
+	private final FrameRingQueue mIngestQueue;
+	private final ContentObjectPool mPool = ContentObjectPool.getInstance();
+	private final IClock mClock;
+	private volatile Handler mPublishHandler = null;
+	private volatile boolean mFlushRequested = false;
+	private volatile long mPersistInterval = DEFAULT_PERSIST_INTERVAL;
+	private volatile long mCheckpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	private Thread mThread = null;
+	private volatile int mMaxBacklog = 0;
+
+
+	/**
+	 * Constructor
+	 * @param cm			content manager which analyzes and aggregates objects
+	 * @param policy		POLICY_DROP_OLDEST, POLICY_DROP_NEWEST or POLICY_BLOCK
+	 */
+	public AnalysisPipeline(ContentManager cm, int policy) {
+		this(cm, policy, AnalysisScheduler.SYSTEM_CLOCK);
+	}
+	
+	/**
+	 * Constructor
+	 * @param cm			content manager which analyzes and aggregates objects
+	 * @param policy		POLICY_DROP_OLDEST, POLICY_DROP_NEWEST or POLICY_BLOCK
+	 * @param clock			monotonic clock of scheduler
+	 */
+	public AnalysisPipeline(ContentManager cm, int policy, IClock clock) {
+		mContentManager = cm;
+		mIngestQueue = new FrameRingQueue(INGEST_QUEUE_SIZE, policy);
+		mClock = clock;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Set handler which receives MESSAGE_READ_ACCEL_REPORT and MESSAGE_READ_ACCEL_DATA
+	 * @param h		UI handler
+	 */
+	public void setPublishHandler(Handler h) {
+		mPublishHandler = h;
+	}
+
+	/**
+	 * Set how often changed buckets are written on DB. Used from next start().
+	 * @param interval		time in milli-second
+	 */
+	public void setPersistInterval(long interval) {
+		mPersistInterval = interval;
+	}
+	
+	/**
+	 * Set how often changed buckets are appended to checkpoint file. Used from next start().
+	 * @param interval		time in milli-second
+	 */
+	public void setCheckpointInterval(long interval) {
+		mCheckpointInterval = interval;
+	}
+
+	public synchronized void start() {
+		if(mThread != null)
+			return;
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				analyzeLoop();
+			}
+		}, TAG);
+		mThread.start();
+	}
+
+	/**
+	 * Stop analysis thread. Objects waiting in queue are discarded
+	 * and cached objects are analyzed as a partial window.
+	 * Analysis thread saves activity reports to DB before it ends.
+	 * @return	boolean		true if the thread ended and reports are saved,
+	 * 						false if it is still saving after STOP_TIMEOUT
+	 */
+	public synchronized boolean stop() {
+		if(mThread == null)
+			return true;
+		Thread thread = mThread;
+		mThread = null;
+		thread.interrupt();
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(thread.isAlive()) {
+			Logs.e(TAG, "# Analysis thread is still saving reports");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Ingest stage. Called by bluetooth reader thread.
+	 */
+	@Override
+	public void OnFrameReceived(ContentObject co, int backlog) {
+		offer(co);
+	}
+
+	/**
+	 * Copy parsed object into ingest queue. Caller can reuse the object after this returns.
+	 * @param co		parsed object
+	 */
+	public void offer(ContentObject co) {
+		if(co == null)
+			return;
+
+		mIngestQueue.offer(co);
+
+		int size = mIngestQueue.size();
+		if(size > mMaxBacklog)
+			mMaxBacklog = size;
+	}
+
+	/**
+	 * Analyze cached objects now instead of waiting for the period to end.
+	 * Can be called from any thread.
+	 */
+	public void requestFlush() {
+		mFlushRequested = true;
+		mIngestQueue.wakeConsumer();
+	}
+	
+	/**
+	 * Analysis thread. Called by scheduler.
+	 */
+	@Override
+	public void OnScheduledTask(int taskId, long now, boolean isFlush) {
+		switch(taskId) {
+		case TASK_LIVE_REPORT:
+			// DB writes are handed to ReportWriter.
+			ActivityReport ar = mContentManager.analyzeContents();
+			Handler h = mPublishHandler;
+			if(h != null && ar != null)
+				h.obtainMessage(Constants.MESSAGE_READ_ACCEL_REPORT, ar).sendToTarget();
+			break;
+		case TASK_ROLLUP:
+			mContentManager.rollupActivityReport();
+			break;
+		case TASK_PERSIST:
+			mContentManager.persistActivityReport();
+			break;
+		case TASK_CHECKPOINT:
+			mContentManager.checkpointActivityReport();
+			break;
+		}
+	}
+	
+	/**
+	 * @return	long	count of objects dropped because analysis was slow
+	 */
+	public long getDroppedCount() {
+		return mIngestQueue.getOverflowCount();
+	}
+
+	/**
+	 * @return	int		max count of objects waited in ingest queue
+	 */
+	public int getMaxBacklog() {
+		return mMaxBacklog;
+	}
+
+
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+
+	private void analyzeLoop() {
+		AnalysisScheduler scheduler = new AnalysisScheduler(mClock, this);
+		scheduler.addTask(TASK_LIVE_REPORT, LIVE_REPORT_INTERVAL);
+		scheduler.addTask(TASK_ROLLUP, ROLLUP_INTERVAL);
+		scheduler.addTask(TASK_PERSIST, mPersistInterval);
+		scheduler.addTask(TASK_CHECKPOINT, mCheckpointInterval);
+		
+		while(!Thread.currentThread().isInterrupted()) {
+			if(mFlushRequested) {
+				mFlushRequested = false;
+				scheduler.flush();
+			}
+			scheduler.runDueTasks();
+			
+			// ContentManager caches objects, so each frame needs its own object
+			ContentObject co = mPool.acquire(0);
+			if(!mIngestQueue.take(co, scheduler.getDelayToNextTask())) {
+				mPool.release(co);
+				continue;
+			}
+			
+			// Publish accel data. UI releases its own copy after drawing.
+			Handler h = mPublishHandler;
+			if(h != null) {
+				ContentObject copy = mPool.acquire(co.mTimeInMilli);
+				copy.copyFrom(co);
+				h.obtainMessage(Constants.MESSAGE_READ_ACCEL_DATA, copy).sendToTarget();
+			}
+			
+			// Cache. ContentManager releases the object after analysis.
+			mContentManager.addContentObject(co);
+		}
+		mIngestQueue.clear();
+		
+		// Clear interrupt so the final save can wait for DB writes
+		Thread.interrupted();
+		scheduler.flush();
+		mContentManager.saveCurrentActivityReport();
+		Logs.d(TAG, "# Analysis thread stopped. dropped=" + getDroppedCount());
+	}
+	
+}
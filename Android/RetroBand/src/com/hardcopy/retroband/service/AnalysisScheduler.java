@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.service;
+
+import android.os.SystemClock;
+
+/**
+ * Runs periodic tasks on a monotonic clock, independent of packet arrival.
+ * Each task has its own period, e.g. 1 sec live report and 1 min rollup.
+ * <p>
+ * Owner thread calls runDueTasks() and waits getDelayToNextTask() for new data.
+ * If the thread falls behind by more than one period, missed periods are
+ * skipped instead of running the task several times in a row.
+ * flush() runs every task now, for partial windows on disconnect or stop.
+ * <p>
+ * Not thread-safe. Only the owner thread may call methods.
+ */
+public class AnalysisScheduler {
+
+	public static final int MAX_TASKS = 4;
+
+	/** Clock of android.os.SystemClock */
+	public static final IClock SYSTEM_CLOCK = new IClock() {
+		@Override
+		public long elapsedRealtime() {
+			return SystemClock.elapsedRealtime();
+		}
+	};
+
+	private final IClock mClock;
+	private final IScheduleListener mListener;
+
+	private final int[] mTaskId = new int[MAX_TASKS];
+	private final long[] mPeriod = new long[MAX_TASKS];
+	private final long[] mDeadline = new long[MAX_TASKS];
+	private int mTaskCount = 0;
+
+
+	/**
+	 * Constructor
+	 * @param clock			monotonic clock. Use SYSTEM_CLOCK on device.
+	 * @param listener		called for due tasks
+	 */
+	public AnalysisScheduler(IClock clock, IScheduleListener listener) {
+		mClock = clock;
+		mListener = listener;
+	}
+
+
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+
+	/**
+	 * Add periodic task. First run is one period later.
+	 * @param taskId		ID passed to listener
+	 * @param period		period in milli-second
+	 */
+	public void addTask(int taskId, long period) {
+		if(mTaskCount >= MAX_TASKS)
+			throw new IllegalStateException("Too many tasks");
+		if(period < 1)
+			throw new IllegalArgumentException("Invalid period: " + period);
+		mTaskId[mTaskCount] = taskId;
+		mPeriod[mTaskCount] = period;
+		mDeadline[mTaskCount] = mClock.elapsedRealtime() + period;
+		mTaskCount++;
+	}
+
+	/**
+	 * Run tasks whose deadline has passed
+	 * @return	int		count of tasks run
+	 */
+	public int runDueTasks() {
+		int count = 0;
+		for(int i = 0; i < mTaskCount; i++) {
+			long now = mClock.elapsedRealtime();
+			if(now < mDeadline[i])
+				continue;
+			mDeadline[i] += mPeriod[i];
+			if(mDeadline[i] <= now) {
+				// Too late. Skip missed periods but keep the phase.
+				long missed = (now - mDeadline[i]) / mPeriod[i] + 1;
+				mDeadline[i] += missed * mPeriod[i];
+			}
+			mListener.OnScheduledTask(mTaskId[i], now, false);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return	long	milli-seconds until the next deadline. 0 if a task is due.
+	 */
+	public long getDelayToNextTask() {
+		if(mTaskCount < 1)
+			return Long.MAX_VALUE;
+		long now = mClock.elapsedRealtime();
+		long delay = Long.MAX_VALUE;
+		for(int i = 0; i < mTaskCount; i++) {
+			delay = Math.min(delay, mDeadline[i] - now);
+		}
+		return Math.max(0, delay);
+	}
+
+	/**
+	 * Run every task now and start new periods from now.
+	 */
+	public void flush() {
+		long now = mClock.elapsedRealtime();
+		for(int i = 0; i < mTaskCount; i++) {
+			mDeadline[i] = now + mPeriod[i];
+			mListener.OnScheduledTask(mTaskId[i], now, true);
+		}
+	}
+
+}
@@ -19,11 +19,9 @@ package com.hardcopy.retroband.service;
 import java.util.Timer;
 
 import com.hardcopy.retroband.bluetooth.*;
-import com.hardcopy.retroband.contents.ActivityReport;
 import com.hardcopy.retroband.contents.ContentManager;
 import com.hardcopy.retroband.contents.ContentObject;
 import com.hardcopy.retroband.contents.IContentManagerListener;
-import com.hardcopy.retroband.logic.Analyzer;
 import com.hardcopy.retroband.utils.AppSettings;
 import com.hardcopy.retroband.utils.Constants;
 
@@ -56,10 +54,15 @@ public class RetroBandService extends Service implements IContentManagerListener
 	private ConnectionInfo mConnectionInfo = null;
 	
 	private TransactionBuilder mTransactionBuilder = null;
-	private TransactionReceiver mTransactionReceiver = null;
+	private TransactionReceiver mTransactionReceiver = null;	// Used by bluetooth reader thread
+	
+	// Sampling parameters of this session. Legacy remote ignores these.
+	private int mSampleRate = TransactionBuilder.Transaction.DEFAULT_SAMPLE_RATE;
+	private int mSamplesPerFrame = ContentObject.DATA_COUNT;
 	
 	// Content
 	private ContentManager mContentManager = null;
+	private AnalysisPipeline mPipeline = null;		// Analyze on worker thread
 	
 	// Auto-refresh timer
 	private Timer mRefreshTimer = null;
@@ -137,7 +140,6 @@ public class RetroBandService extends Service implements IContentManagerListener
 		
 		AppSettings.initializeAppSettings(mContext);
 		startServiceMonitoring();
-		Analyzer.setWeight(AppSettings.getWeight());
 		
 		// Get connection info instance
 		mConnectionInfo = ConnectionInfo.getInstance(mContext);
@@ -177,21 +179,76 @@ public class RetroBandService extends Service implements IContentManagerListener
 	}
 	
 	
+	/**
+	 * Ask remote device to send COBS framed frames (protocol version 3)
+	 * with compressed payload.
+	 * Old firmware ignores this and keeps sending legacy frames.
+	 * Transaction receiver accepts every version.
+	 */
+	private void requestProtocolVersion() {
+		if(mTransactionBuilder == null)
+			return;
+		
+		TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
+		transaction.begin();
+		transaction.setCommand(TransactionBuilder.Transaction.COMMAND_SET_PROTOCOL_VERSION, 
+				TransactionBuilder.Transaction.PROTOCOL_VERSION_COBS);
+		transaction.settingFinished();
+		transaction.sendTransaction();
+		
+		// Compressed payload. Remote sends raw payload if it's not smaller.
+		transaction.begin();
+		transaction.setCommand(TransactionBuilder.Transaction.COMMAND_SET_COMPRESSION, 1);
+		transaction.settingFinished();
+		transaction.sendTransaction();
+		
+		requestSamplingConfig();
+	}
+	
+	/**
+	 * Send sampling rate and frame size to remote.
+	 * Receiver stamps parsed objects with matching sampling interval.
+	 */
+	private void requestSamplingConfig() {
+		if(mTransactionReceiver != null)
+			mTransactionReceiver.setSamplingInterval(1000 / mSampleRate);
+		if(mTransactionBuilder == null)
+			return;
+		
+		TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
+		transaction.begin();
+		transaction.setCommand(TransactionBuilder.Transaction.COMMAND_SET_SAMPLE_RATE, mSampleRate);
+		transaction.settingFinished();
+		transaction.sendTransaction();
+		
+		transaction.begin();
+		transaction.setCommand(TransactionBuilder.Transaction.COMMAND_SET_FRAME_SIZE, mSamplesPerFrame);
+		transaction.settingFinished();
+		transaction.sendTransaction();
+	}
+	
+
 	/*****************************************************
 	 *	Public methods
 	 ******************************************************/
 	public void finalizeService() {
 		Log.d(TAG, "# Service : finalize ---");
 		
-		// Save activity report to DB
-		mContentManager.saveCurrentActivityReport();
-
 		// Stop the bluetooth session
 		mBluetoothAdapter = null;
 		if (mBtManager != null)
 			mBtManager.stop();
 		mBtManager = null;
 		
+		// Analysis thread saves activity report to DB when it stops.
+		// If it is still running, saving here would race with its last window.
+		if(mPipeline != null) {
+			mPipeline.stop();
+			mPipeline = null;
+		} else {
+			mContentManager.saveCurrentActivityReport();
+		}
+		
 		// Stop the timer
 		if(mRefreshTimer != null) {
 			mRefreshTimer.cancel();
@@ -215,11 +272,23 @@ public class RetroBandService extends Service implements IContentManagerListener
 		if(mBtManager == null)
 			setupBT();
 		
+		// Get content manager and start analysis pipeline
+		mContentManager = ContentManager.getInstance(mContext, this);
+		mContentManager.getAnalyzer().setWeight(AppSettings.getWeight());
+		if(mPipeline == null) {
+			mPipeline = new AnalysisPipeline(mContentManager, AnalysisPipeline.POLICY_DROP_OLDEST);
+			mPipeline.start();
+		}
+		mPipeline.setPublishHandler(mActivityHandler);
+		
 		// Initialize transaction builder & receiver
 		if(mTransactionBuilder == null)
 			mTransactionBuilder = new TransactionBuilder(mBtManager, mActivityHandler);
-		if(mTransactionReceiver == null)
+		if(mTransactionReceiver == null) {
 			mTransactionReceiver = new TransactionReceiver(mActivityHandler);
+			// Stream is parsed on bluetooth reader thread and parsed objects go to pipeline directly
+			mBtManager.setFrameReceiver(mTransactionReceiver, mPipeline);
+		}
 		
 		// If ConnectionInfo holds previous connection info,
 		// try to connect using it.
@@ -233,9 +302,6 @@ public class RetroBandService extends Service implements IContentManagerListener
 				mBtManager.start();
 			}
 		}
-		
-		// Get content manager
-		mContentManager = ContentManager.getInstance(mContext, this);
 		// TODO: 
 	}
 	
@@ -313,6 +379,46 @@ public class RetroBandService extends Service implements IContentManagerListener
 		sendMessageToDevice(message);
 	}
 	
+	/**
+	 * Change sampling rate and frame size of remote device.
+	 * Values are sent immediately if connected, or when the next connection is made.
+	 * @param sampleRate		samples per second (1 ~ MAX_SAMPLE_RATE). Must divide 1000,
+	 * 							so sampling interval is exact in milli-second. (Remote ignores others.)
+	 * @param samplesPerFrame	samples in a frame (1 ~ ContentObject.MAX_DATA_COUNT)
+	 */
+	public void setSamplingConfig(int sampleRate, int samplesPerFrame) {
+		if(sampleRate < 1 || sampleRate > TransactionBuilder.Transaction.MAX_SAMPLE_RATE
+				|| 1000 % sampleRate != 0
+				|| samplesPerFrame < 1 || samplesPerFrame > ContentObject.MAX_DATA_COUNT) {
+			Log.e(TAG, "# Service - invalid sampling config: " + sampleRate + "Hz, " + samplesPerFrame + " samples");
+			return;
+		}
+		mSampleRate = sampleRate;
+		mSamplesPerFrame = samplesPerFrame;
+		
+		if(mBtManager != null && mBtManager.getState() == BluetoothManager.STATE_CONNECTED)
+			requestSamplingConfig();
+	}
+	
+	/**
+	 * Change user weight used for calorie calculation
+	 * @param weight		weight in kg
+	 */
+	public void setUserWeight(int weight) {
+		if(mContentManager != null)
+			mContentManager.getAnalyzer().setWeight(weight);
+	}
+	
+	/**
+	 * Returns max count of parsed frames which waited at the same time.
+	 * Values larger than 1 mean several frames arrived in one bluetooth read.
+	 */
+	public int getMaxFrameBacklog() {
+		if(mTransactionReceiver == null)
+			return 0;
+		return mTransactionReceiver.getMaxBacklogCount();
+	}
+	
 	/**
 	 * Start service monitoring. Service monitoring prevents
 	 * unintended close of service.
@@ -353,6 +459,9 @@ public class RetroBandService extends Service implements IContentManagerListener
 				switch (msg.arg1) {
 				case BluetoothManager.STATE_NONE:
 					mActivityHandler.obtainMessage(Constants.MESSAGE_BT_STATE_INITIALIZED).sendToTarget();
+					// Analyze partial window of lost connection
+					if(mPipeline != null)
+						mPipeline.requestFlush();
 					if(mRefreshTimer != null) {
 						mRefreshTimer.cancel();
 						mRefreshTimer = null;
@@ -361,6 +470,8 @@ public class RetroBandService extends Service implements IContentManagerListener
 					
 				case BluetoothManager.STATE_LISTEN:
 					mActivityHandler.obtainMessage(Constants.MESSAGE_BT_STATE_LISTENING).sendToTarget();
+					if(mPipeline != null)
+						mPipeline.requestFlush();
 					break;
 					
 				case BluetoothManager.STATE_CONNECTING:
@@ -369,6 +480,8 @@ public class RetroBandService extends Service implements IContentManagerListener
 					
 				case BluetoothManager.STATE_CONNECTED:
 					mActivityHandler.obtainMessage(Constants.MESSAGE_BT_STATE_CONNECTED).sendToTarget();
+					// Reader thread resets receiver by itself
+					requestProtocolVersion();
 					break;
 				}
 				break;
@@ -378,28 +491,9 @@ public class RetroBandService extends Service implements IContentManagerListener
 				Log.d(TAG, "Service - MESSAGE_WRITE: ");
 				break;
 
-			// Received packets from remote
-			case BluetoothManager.MESSAGE_READ:
-				//Log.d(TAG, "Service - MESSAGE_READ: ");
-				
-				byte[] readBuf = (byte[]) msg.obj;
-				int readCount = msg.arg1;
-				// construct commands from the valid bytes in the buffer
-				if(mTransactionReceiver != null) {
-					mTransactionReceiver.setByteArray(readBuf, readCount);
-					ContentObject co = mTransactionReceiver.getObject();
-					if(co != null) {
-						ActivityReport ar = mContentManager.addContentObject(co);
-						if(ar != null) {
-							mActivityHandler.obtainMessage(Constants.MESSAGE_READ_ACCEL_REPORT, ar).sendToTarget();
-						}
-						mActivityHandler.obtainMessage(Constants.MESSAGE_READ_ACCEL_DATA, co).sendToTarget();
-						
-						// TODO: If you want to save accel raw data, do it here.
-					}
-				}
-				break;
-				
+			// Received packets are parsed on bluetooth reader thread
+			// and sent to analysis pipeline. (See setupService())
+			
 			case BluetoothManager.MESSAGE_DEVICE_NAME:
 				Log.d(TAG, "Service - MESSAGE_DEVICE_NAME: ");
 				
@@ -16,59 +16,125 @@
 
 package com.hardcopy.retroband.utils;
 
+import com.hardcopy.retroband.BuildConfig;
+
 import android.util.Log;
 
+/**
+ * Logging facade.
+ * <p>
+ * Each level is checked before a message is made, so use methods which take
+ * values or isLoggable() instead of building strings at the call site.
+ * They have fixed arity, so no argument array or boxed value is made.
+ * Per-sample logs must be guarded by HOT_PATH. It is a compile time constant,
+ * so the compiler removes the whole statement in release builds:
+ * <pre>
+ * 	if(Logs.HOT_PATH)
+ * 		mSampleLog.d("# magnitude: ", value);
+ * </pre>
+ * Use RateLimitedLogger for those to keep logcat readable.
+ */
 public class Logs {
 	
 	private static final String TAG = "RetroWatch";
-	public static boolean mIsEnabled = true;
 	
+	// Set true only while debugging analysis. Statements guarded by this are not compiled.
+	public static final boolean HOT_PATH = false;
+	
+	// Same values as android.util.Log
+	public static final int LEVEL_VERBOSE = Log.VERBOSE;
+	public static final int LEVEL_DEBUG = Log.DEBUG;
+	public static final int LEVEL_INFO = Log.INFO;
+	public static final int LEVEL_ERROR = Log.ERROR;
+	
+	// Release builds print nothing unless enabled at runtime, and then info and errors only.
+	public static boolean mIsEnabled = BuildConfig.DEBUG;
+	public static int mLevel = BuildConfig.DEBUG ? LEVEL_VERBOSE : LEVEL_INFO;		// Messages below this level are dropped
+	
+	
+	/**
+	 * @param level			LEVEL_VERBOSE, LEVEL_DEBUG, LEVEL_INFO or LEVEL_ERROR
+	 * @return	boolean		true if message of the level is printed
+	 */
+	public static boolean isLoggable(int level) {
+		return mIsEnabled && level >= mLevel;
+	}
 	
 	public static void v(String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_VERBOSE)) {
 			Log.v(TAG, msg);
 		}
 	}
 	
 	public static void v(String tag, String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_VERBOSE)) {
 			Log.v(tag, msg);
 		}
 	}
 	
 	public static void d(String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_DEBUG)) {
 			Log.d(TAG, msg);
 		}
 	}
 	
 	public static void d(String tag, String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_DEBUG)) {
 			Log.d(tag, msg);
 		}
 	}
 	
+	/**
+	 * Prints msg followed by value. Nothing is allocated when debug level is disabled.
+	 */
+	public static void d(String tag, String msg, float value) {
+		if(isLoggable(LEVEL_DEBUG)) {
+			Log.d(tag, msg + value);
+		}
+	}
+	
+	public static void d(String tag, String msg, long value) {
+		if(isLoggable(LEVEL_DEBUG)) {
+			Log.d(tag, msg + value);
+		}
+	}
+	
+	/**
+	 * Prints msg1, value1, msg2 and value2
+	 */
+	public static void d(String tag, String msg1, long value1, String msg2, long value2) {
+		if(isLoggable(LEVEL_DEBUG)) {
+			Log.d(tag, msg1 + value1 + msg2 + value2);
+		}
+	}
+	
+	public static void d(String tag, String msg1, float value1, String msg2, float value2) {
+		if(isLoggable(LEVEL_DEBUG)) {
+			Log.d(tag, msg1 + value1 + msg2 + value2);
+		}
+	}
+	
 	public static void e(String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_ERROR)) {
 			Log.e(TAG, msg);
 		}
 	}
 	
 	public static void e(String tag, String msg) {
-		if(mIsEnabled) {
+		if(isLoggable(LEVEL_ERROR)) {
 			Log.e(tag, msg);
 		}
 	}
 	
 	public static void i(String msg) {
-		if(mIsEnabled) {
-			Log.e(TAG, msg);
+		if(isLoggable(LEVEL_INFO)) {
+			Log.i(TAG, msg);
 		}
 	}
 	
 	public static void i(String tag, String msg) {
-		if(mIsEnabled) {
-			Log.e(tag, msg);
+		if(isLoggable(LEVEL_INFO)) {
+			Log.i(tag, msg);
 		}
 	}
 	
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.utils;
+
+/**
+ * Debug logger for per-sample diagnostics.
+ * Prints every N-th message, and at most one message in an interval.
+ * Skipped messages are counted and printed with the next message.
+ * Strings are made only for printed messages.
+ * Not thread-safe. Use one instance for each thread.
+ */
+public class RateLimitedLogger {
+	
+	private final String mTag;
+	private final int mSampleEvery;
+	private final long mMinInterval;
+	
+	private int mCallCount = 0;
+	private int mSkippedCount = 0;
+	private long mLastLogTime = 0;
+	
+	
+	/**
+	 * Constructor
+	 * @param tag				log tag
+	 * @param sampleEvery		print one of this many messages
+	 * @param minInterval		min time between printed messages in milli-second
+	 */
+	public RateLimitedLogger(String tag, int sampleEvery, long minInterval) {
+		mTag = tag;
+		mSampleEvery = sampleEvery < 1 ? 1 : sampleEvery;
+		mMinInterval = minInterval;
+	}
+	
+	
+	/*****************************************************
+	 *	Public methods
+	 ******************************************************/
+	
+	/**
+	 * Call this before making a message
+	 * @return	boolean		true if message should be printed now
+	 */
+	public boolean isAllowed() {
+		if(!Logs.isLoggable(Logs.LEVEL_DEBUG))
+			return false;
+		mCallCount++;
+		if(mCallCount < mSampleEvery) {
+			mSkippedCount++;
+			return false;
+		}
+		mCallCount = 0;
+		
+		long now = System.currentTimeMillis();
+		if(now - mLastLogTime < mMinInterval) {
+			mSkippedCount++;
+			return false;
+		}
+		mLastLogTime = now;
+		return true;
+	}
+	
+	public void d(String msg) {
+		if(isAllowed())
+			print(msg);
+	}
+	
+	public void d(String msg, float value) {
+		if(isAllowed())
+			print(msg + value);
+	}
+	
+	public void d(String msg, long value) {
+		if(isAllowed())
+			print(msg + value);
+	}
+	
+	
+	/*****************************************************
+	 *	Private methods
+	 ******************************************************/
+	
+	private void print(String msg) {
+		if(mSkippedCount > 0) {
+			Logs.d(mTag, msg + " (skipped " + mSkippedCount + ")");
+			mSkippedCount = 0;
+		} else {
+			Logs.d(mTag, msg);
+		}
+	}
+	
+}
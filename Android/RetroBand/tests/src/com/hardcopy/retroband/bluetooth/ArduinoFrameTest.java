@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ContentObject;
+
+/**
+ * Decodes frames made by the Arduino sketch. See ArduinoFrames.
+ */
+public class ArduinoFrameTest {
+
+	@Test
+	public void version2Frames() {
+		String[] frames = new String[] {ArduinoFrames.V2_FRAME_0, ArduinoFrames.V2_FRAME_3, ArduinoFrames.V2_FRAME_4};
+		assertFrames(stream(null, frames));
+	}
+
+	@Test
+	public void version3Frames() {
+		String[] frames = new String[] {ArduinoFrames.V3_FRAME_0, ArduinoFrames.V3_FRAME_3, ArduinoFrames.V3_FRAME_4};
+		// Sketch sends a delimiter when it switches to version 3
+		assertFrames(stream(new byte[] {CobsCodec.DELIMITER}, frames));
+	}
+
+	@Test
+	public void version3FramesAfterGarbage() {
+		String[] frames = new String[] {ArduinoFrames.V3_FRAME_0, ArduinoFrames.V3_FRAME_3, ArduinoFrames.V3_FRAME_4};
+		// Tail of a frame which was being sent before the receiver started
+		assertFrames(stream(new byte[] {0x12, 0x34, (byte)0xfe, 0x56, CobsCodec.DELIMITER}, frames));
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	private static byte[] stream(byte[] head, String[] frames) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if(head != null)
+			out.write(head, 0, head.length);
+		for(int i=0; i<frames.length; i++) {
+			byte[] frame = ArduinoFrames.bytes(frames[i]);
+			out.write(frame, 0, frame.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Feed stream of frame 0, 3, 4 in reads of 13 bytes and check samples
+	 */
+	private static void assertFrames(byte[] stream) {
+		int[][] expected = new int[][] {
+				ArduinoFrames.samples(ArduinoFrames.KIND_EDGE, 20),
+				ArduinoFrames.samples(ArduinoFrames.KIND_EXTREME, 20),
+				ArduinoFrames.samples(ArduinoFrames.KIND_WALK, 50)
+		};
+		TransactionReceiver receiver = new TransactionReceiver(null);
+		byte[] read = new byte[13];
+		int frame = 0;
+		for(int offset=0; offset < stream.length; offset += read.length) {
+			int count = Math.min(read.length, stream.length - offset);
+			System.arraycopy(stream, offset, read, 0, count);
+			receiver.setByteArray(read, count);
+			ContentObject co;
+			while((co = receiver.getObject()) != null) {
+				TransactionReceiverTest.assertFrame("frame " + frame, expected[frame], co);
+				receiver.recycleObject(co);
+				frame++;
+			}
+		}
+		assertEquals(expected.length, frame);
+		assertNull(receiver.getObject());
+
+		FrameParserV2 parser = receiver.getParserV2();
+		assertEquals(3, parser.getFrameCount());
+		assertEquals(0, parser.getCrcErrorCount());
+		// Frame 1 and 2 are missing in sequence
+		assertEquals(2, parser.getLostFrameCount());
+	}
+
+}
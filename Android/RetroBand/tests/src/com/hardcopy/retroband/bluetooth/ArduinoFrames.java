@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+/**
+ * Frames made by makeFrame() and cobsEncode() of the Arduino sketch.
+ * The sketch functions were built for the host with AVR integer sizes
+ * (16-bit int, 32-bit long) and fed with samples(). Frame N has sequence N.
+ */
+final class ArduinoFrames {
+
+	static final int KIND_EDGE = 0;
+	static final int KIND_WALK = 1;
+	static final int KIND_ZERO = 2;
+	static final int KIND_EXTREME = 3;
+
+	// 20 samples, values of 0x7Fxx and xx01 which legacy substitution breaks
+	static final String V2_FRAME_0 =
+			"fefb020000001400787f010001c0007f020001c0257f030001c04a7f040001c06f7f050001c0947f060001c0b97f0700" +
+			"01c0de7f080001c1037f090001c1287f0a0001c14d7f0b0001c1727f0c0001c1977f0d0001c1bc7f0e0001c1e17f0f00" +
+			"01c2067f100001c22b7f110001c2507f120001c2757f130001c29a7f140001c2bf7668";
+
+	// Frame 0 in protocol version 3
+	static final String V3_FRAME_0 =
+			"02030101021404787f010301c0037f020601c0257f030601c04a7f040601c06f7f050601c0947f060601c0b97f070601" +
+			"c0de7f080601c1037f090601c1287f0a0601c14d7f0b0601c1727f0c0601c1977f0d0601c1bc7f0e0601c1e17f0f0601" +
+			"c2067f100601c22b7f110601c2507f120601c2757f130601c29a7f140601c2bf40ac00";
+
+	// 20 samples of walking, compressed
+	static final String V2_FRAME_1 =
+			"fefb02010001140057b410fff901c00cc2016a3dc2016a3dc2016a3d95036a3dc2016a3dc2016a3d95036ad202c201b5" +
+			"053dc2016a3d95036a3dc2016a3dc2016a3d95036ad202c2016a3dc2016a3d9503b5053dc2016a3dc2016a3d95036a3d" +
+			"5fab";
+
+	// Frame 1 in protocol version 3
+	static final String V3_FRAME_1 =
+			"0303010301145b57b410fff901c00cc2016a3dc2016a3dc2016a3d95036a3dc2016a3dc2016a3d95036ad202c201b505" +
+			"3dc2016a3d95036a3dc2016a3dc2016a3d95036ad202c2016a3dc2016a3d9503b5053dc2016a3dc2016a3d95036a3dd8" +
+			"5a00";
+
+	// 50 samples of zero, compressed
+	static final String V2_FRAME_2 =
+			"fefb02010002320096000000000000000000000000000000000000000000000000000000000000000000000000000000" +
+			"000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000" +
+			"000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000" +
+			"00000000000000000000000000000005c6";
+
+	// Frame 2 in protocol version 3
+	static final String V3_FRAME_2 =
+			"030301030232029601010101010101010101010101010101010101010101010101010101010101010101010101010101" +
+			"010101010101010101010101010101010101010101010101010101010101010101010101010101010101010101010101" +
+			"010101010101010101010101010101010101010101010101010101010101010101010101010101010101010101010101" +
+			"0101010101010101010101010103208e00";
+
+	// 20 samples of extreme values. Compression is not smaller, so raw payload
+	static final String V2_FRAME_3 =
+			"fefb0200000314007880007fff00007fff8000051f80007fff0a3e7fff80000f5d80007fff147c7fff8000199b80007f" +
+			"ff1eba7fff800023d980007fff28f87fff80002e1780007fff33367fff8000385580007fff3d747fff8000429380007f" +
+			"ff47b27fff80004cd180007fff51f07fff8000570f80007fff5c2e7fff8000614d50b3";
+
+	// Frame 3 in protocol version 3
+	static final String V3_FRAME_3 =
+			"020301030314037880037fff01047fff8004051f80087fff0a3e7fff80040f5d80087fff147c7fff8004199b80087fff" +
+			"1eba7fff800423d980087fff28f87fff80042e1780087fff33367fff8004385580087fff3d747fff8004429380087fff" +
+			"47b27fff80044cd180087fff51f07fff8004570f80087fff5c2e7fff8005614d667700";
+
+	// 50 samples of walking, raw. Body is longer than a COBS block
+	static final String V2_FRAME_4 =
+			"fefb0200000432012c041ac1800320047bc1b5030104dcc1ea02e2053dc21f02c30472c25402a404d3c28902850534c2" +
+			"be02660469c2f3030f04cac19802f0052bc1cd02d10460c20202b204c1c23702930522c26c02740457c2a1031d04b8c2" +
+			"d602fe0519c30b02df044ec1b002c004afc1e502a10510c21a02820445c24f026304a6c284030c0507c2b902ed043cc2" +
+			"ee02ce049dc19302af04fec1c802900433c1fd02710494c232031a04f5c26702fb042ac29c02dc048bc2d102bd04ecc3" +
+			"06029e0421c1ab027f0482c1e0026004e3c21503090544c24a02ea0479c27f02cb04dac2b402ac053bc2e9028d0470c1" +
+			"8e026e04d1c1c303170532c1f802f80467c22d02d904c8c26202ba0529c297029b045ec2cc027c04bfc301025d0520c1" +
+			"a603060455c1db02e704b6c21002c80517c24502a98398";
+
+	// Frame 4 in protocol version 3
+	static final String V3_FRAME_4 =
+			"020301ff0432012c041ac1800320047bc1b5030104dcc1ea02e2053dc21f02c30472c25402a404d3c28902850534c2be" +
+			"02660469c2f3030f04cac19802f0052bc1cd02d10460c20202b204c1c23702930522c26c02740457c2a1031d04b8c2d6" +
+			"02fe0519c30b02df044ec1b002c004afc1e502a10510c21a02820445c24f026304a6c284030c0507c2b902ed043cc2ee" +
+			"02ce049dc19302af04fec1c802900433c1fd02710494c232031a04f5c26702fb042ac29c02dc048bc2d102bd04ecc306" +
+			"029e0421c1ab027f0482c1e0026004e3c21503090544c24a02ea0479c27f02cb04dac2b402ac053bc2e9028d0470c18e" +
+			"026e04d1c1c303170532c1f802f80467c22d3502d904c8c26202ba0529c297029b045ec2cc027c04bfc301025d0520c1" +
+			"a603060455c1db02e704b6c21002c80517c24502a9cff700";
+
+	private ArduinoFrames() {
+	}
+
+	/**
+	 * Same samples as the sketch was fed with
+	 * @param kind		KIND_EDGE, KIND_WALK, KIND_ZERO or KIND_EXTREME
+	 * @param count		sample count
+	 * @return	int[]	x, y, z of each sample
+	 */
+	static int[] samples(int kind, int count) {
+		int[] data = new int[count * 3];
+		for(int i=0; i<count; i++) {
+			int x, y, z;
+			if(kind == KIND_EDGE) {
+				x = 0x7f01 + i;
+				y = 0x0001;
+				z = -16384 + i * 37;
+			} else if(kind == KIND_WALK) {
+				x = 1200 + ((i * 97) % 300) - 150;
+				y = -16000 + ((i * 53) % 400);
+				z = 800 - ((i * 31) % 200);
+			} else if(kind == KIND_ZERO) {
+				x = 0;
+				y = 0;
+				z = 0;
+			} else {
+				x = (i % 2 == 1) ? 32767 : -32768;
+				y = (i % 2 == 1) ? -32768 : 32767;
+				z = (short)(i * 1311);
+			}
+			data[i * 3] = (short)x;
+			data[i * 3 + 1] = (short)y;
+			data[i * 3 + 2] = (short)z;
+		}
+		return data;
+	}
+
+	static byte[] bytes(String hex) {
+		byte[] data = new byte[hex.length() / 2];
+		for(int i=0; i<data.length; i++)
+			data[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		return data;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ByteRingBufferTest {
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(1, new ByteRingBuffer(1).capacity());
+		assertEquals(128, new ByteRingBuffer(100).capacity());
+		assertEquals(512, new ByteRingBuffer(512).capacity());
+	}
+
+	@Test
+	public void writePeekSkipAcrossWrapAround() {
+		ByteRingBuffer buffer = new ByteRingBuffer(8);
+		byte[] src = new byte[] {1, 2, 3, 4, 5, 6};
+
+		assertEquals(6, buffer.write(src, 0, 6));
+		buffer.skip(5);
+		// Next write wraps around the end of the array
+		assertEquals(6, buffer.write(src, 0, 6));
+		assertEquals(7, buffer.available());
+		assertEquals(6, buffer.peek(0));
+		for(int i=0; i<6; i++)
+			assertEquals(src[i], buffer.peek(i + 1));
+	}
+
+	@Test
+	public void writeStopsWhenFull() {
+		ByteRingBuffer buffer = new ByteRingBuffer(4);
+		byte[] src = new byte[] {1, 2, 3, 4, 5, 6};
+
+		assertEquals(4, buffer.write(src, 0, 6));
+		assertEquals(0, buffer.remaining());
+		assertEquals(0, buffer.write(src, 4, 2));
+
+		buffer.skip(100);
+		assertEquals(0, buffer.available());
+		assertEquals(2, buffer.write(src, 4, 2));
+		assertEquals(5, buffer.peek(0));
+	}
+
+	@Test
+	public void clearForgetsBytes() {
+		ByteRingBuffer buffer = new ByteRingBuffer(4);
+		buffer.write(new byte[] {1, 2, 3}, 0, 3);
+		buffer.clear();
+		assertEquals(0, buffer.available());
+		assertEquals(4, buffer.remaining());
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CobsCodecTest {
+
+	@Test
+	public void runOf254NonZeroBytesFillsOneBlock() {
+		byte[] data = filled(254, (byte)0x55);
+		byte[] encoded = encode(data);
+
+		assertEquals(256, encoded.length);
+		assertEquals((byte)0xff, encoded[0]);
+		assertEquals(0x01, encoded[255]);
+		assertArrayEquals(data, decode(encoded));
+		assertArrayEquals(data, decodeStream(encoded));
+	}
+
+	@Test
+	public void runOf255NonZeroBytesStartsSecondBlock() {
+		byte[] data = filled(255, (byte)0x55);
+		byte[] encoded = encode(data);
+
+		assertEquals(257, encoded.length);
+		assertEquals((byte)0xff, encoded[0]);
+		assertEquals(0x02, encoded[255]);
+		assertArrayEquals(data, decode(encoded));
+		assertArrayEquals(data, decodeStream(encoded));
+	}
+
+	@Test
+	public void zeroAfterFullBlockIsKept() {
+		byte[] data = filled(255, (byte)0x55);
+		data[254] = 0;
+		byte[] encoded = encode(data);
+
+		assertArrayEquals(data, decode(encoded));
+		assertArrayEquals(data, decodeStream(encoded));
+	}
+
+	@Test
+	public void allZeroPayload() {
+		for(int length=1; length<=600; length+=599) {
+			byte[] data = new byte[length];
+			byte[] encoded = encode(data);
+
+			assertEquals(length + 1, encoded.length);
+			for(int i=0; i<encoded.length; i++)
+				assertEquals(0x01, encoded[i]);
+			assertArrayEquals(data, decode(encoded));
+			assertArrayEquals(data, decodeStream(encoded));
+		}
+	}
+
+	@Test
+	public void randomFramesRoundTrip() {
+		Random random = new Random(1);
+		for(int n=0; n<100000; n++) {
+			byte[] data = new byte[random.nextInt(700)];
+			random.nextBytes(data);
+			// Mostly zeros, mostly non-zero or mixed
+			int zeroPercent = (n % 3 == 0) ? 90 : (n % 3 == 1) ? 1 : 30;
+			for(int i=0; i<data.length; i++) {
+				if(random.nextInt(100) < zeroPercent)
+					data[i] = 0;
+			}
+
+			byte[] encoded = encode(data);
+			assertTrue(encoded.length <= CobsCodec.getMaxEncodedLength(data.length));
+			for(int i=0; i<encoded.length; i++)
+				assertTrue(encoded[i] != CobsCodec.DELIMITER);
+			assertArrayEquals(data, decode(encoded));
+			if(data.length > 0)
+				assertArrayEquals(data, decodeStream(encoded));
+		}
+	}
+
+	@Test
+	public void encodeAndDecodeAtOffset() {
+		byte[] data = new byte[] {9, 9, 1, 0, 2, 0, 0, 3, 9};
+		byte[] encoded = new byte[20];
+		int length = CobsCodec.encode(data, 2, 6, encoded, 3);
+		byte[] decoded = new byte[20];
+
+		assertEquals(6, CobsCodec.decode(encoded, 3, length, decoded, 5));
+		assertArrayEquals(Arrays.copyOfRange(data, 2, 8), Arrays.copyOfRange(decoded, 5, 11));
+	}
+
+	@Test
+	public void decodeRejectsCodeBeyondEnd() {
+		byte[] encoded = new byte[] {0x05, 1, 2};
+		assertEquals(-1, CobsCodec.decode(encoded, 0, encoded.length, new byte[8], 0));
+	}
+
+	@Test
+	public void streamDecoderSplitsFramesAtDelimiter() {
+		byte[] first = new byte[] {1, 0, 2};
+		byte[] second = new byte[] {0, 0, 7};
+		CobsDecoder decoder = new CobsDecoder(16);
+
+		assertEquals(CobsDecoder.RESULT_NONE, feed(decoder, CobsCodec.DELIMITER));
+		assertEquals(CobsDecoder.RESULT_FRAME_COMPLETED, feedFrame(decoder, encode(first)));
+		assertArrayEquals(first, Arrays.copyOf(decoder.getBuffer(), decoder.getLength()));
+		// Empty frame between delimiters
+		assertEquals(CobsDecoder.RESULT_NONE, feed(decoder, CobsCodec.DELIMITER));
+		assertEquals(CobsDecoder.RESULT_FRAME_COMPLETED, feedFrame(decoder, encode(second)));
+		assertArrayEquals(second, Arrays.copyOf(decoder.getBuffer(), decoder.getLength()));
+	}
+
+	@Test
+	public void streamDecoderRecoversAfterTruncatedFrame() {
+		byte[] data = new byte[] {1, 2, 3, 4, 5};
+		byte[] encoded = encode(data);
+		CobsDecoder decoder = new CobsDecoder(16);
+
+		// Frame is cut in the middle of a block
+		for(int i=0; i<3; i++)
+			assertEquals(CobsDecoder.RESULT_NONE, decoder.feed(encoded[i]));
+		assertEquals(CobsDecoder.RESULT_ERROR, decoder.feed(CobsCodec.DELIMITER));
+
+		assertEquals(CobsDecoder.RESULT_FRAME_COMPLETED, feedFrame(decoder, encoded));
+		assertArrayEquals(data, Arrays.copyOf(decoder.getBuffer(), decoder.getLength()));
+	}
+
+	@Test
+	public void streamDecoderRejectsTooLongFrame() {
+		CobsDecoder decoder = new CobsDecoder(8);
+		byte[] encoded = encode(filled(9, (byte)1));
+
+		int result = CobsDecoder.RESULT_NONE;
+		for(int i=0; i<encoded.length && result == CobsDecoder.RESULT_NONE; i++)
+			result = decoder.feed(encoded[i]);
+		assertEquals(CobsDecoder.RESULT_ERROR, result);
+
+		byte[] data = filled(8, (byte)1);
+		assertEquals(CobsDecoder.RESULT_FRAME_COMPLETED, feedFrame(decoder, encode(data)));
+		assertArrayEquals(data, Arrays.copyOf(decoder.getBuffer(), decoder.getLength()));
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	private static byte[] filled(int length, byte value) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, value);
+		return data;
+	}
+
+	private static byte[] encode(byte[] data) {
+		byte[] encoded = new byte[CobsCodec.getMaxEncodedLength(data.length)];
+		int length = CobsCodec.encode(data, 0, data.length, encoded, 0);
+		return Arrays.copyOf(encoded, length);
+	}
+
+	private static byte[] decode(byte[] encoded) {
+		byte[] decoded = new byte[encoded.length];
+		int length = CobsCodec.decode(encoded, 0, encoded.length, decoded, 0);
+		assertTrue(length >= 0);
+		return Arrays.copyOf(decoded, length);
+	}
+
+	private static byte[] decodeStream(byte[] encoded) {
+		CobsDecoder decoder = new CobsDecoder(encoded.length);
+		assertEquals(CobsDecoder.RESULT_FRAME_COMPLETED, feedFrame(decoder, encoded));
+		return Arrays.copyOf(decoder.getBuffer(), decoder.getLength());
+	}
+
+	/**
+	 * Feed encoded frame and delimiter
+	 * @return	int		result of the delimiter
+	 */
+	private static int feedFrame(CobsDecoder decoder, byte[] encoded) {
+		for(int i=0; i<encoded.length; i++)
+			assertEquals(CobsDecoder.RESULT_NONE, decoder.feed(encoded[i]));
+		return decoder.feed(CobsCodec.DELIMITER);
+	}
+
+	private static int feed(CobsDecoder decoder, byte b) {
+		return decoder.feed(b);
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
+
+public class FrameParserV2Test {
+
+	private final FrameParserV2 mParser = new FrameParserV2();
+	private final FrameQueue mQueue = new FrameQueue(4, new ContentObjectPool(4));
+
+	@Test
+	public void compressedSketchFrames() {
+		assertSketchFrame(ArduinoFrames.V2_FRAME_1, FrameParserV2.PROTOCOL_VERSION, ArduinoFrames.KIND_WALK, 20);
+		assertSketchFrame(ArduinoFrames.V3_FRAME_1, FrameParserV2.PROTOCOL_VERSION_COBS, ArduinoFrames.KIND_WALK, 20);
+		assertSketchFrame(ArduinoFrames.V2_FRAME_2, FrameParserV2.PROTOCOL_VERSION, ArduinoFrames.KIND_ZERO, 50);
+		assertSketchFrame(ArduinoFrames.V3_FRAME_2, FrameParserV2.PROTOCOL_VERSION_COBS, ArduinoFrames.KIND_ZERO, 50);
+
+		// Walking: 20 samples in 87 bytes instead of 120. Zero: 1 byte per axis.
+		assertEquals(87 + 87 + 150 + 150, mParser.getPayloadByteCount());
+	}
+
+	@Test
+	public void deltaVarintRoundTrip() {
+		Random random = new Random(5);
+		for(int n=0; n<2000; n++) {
+			int count = 1 + random.nextInt(FrameParserV2.MAX_SAMPLE_COUNT);
+			int[] samples = new int[count * 3];
+			for(int i=0; i<samples.length; i++) {
+				// Full range and small steps
+				samples[i] = (n % 2 == 0) ? (short)random.nextInt() : (short)(i * 3 - 40 + random.nextInt(9));
+			}
+			byte[] payload = writeDeltaVarint(samples);
+			if(payload.length > count * 6)
+				continue;	// Remote sends raw payload in this case
+
+			byte[] body = makeBody(FrameParserV2.FLAG_DELTA_VARINT, n, count, payload);
+			assertEquals(FrameParserV2.RESULT_FRAME_COMPLETED, parse(body));
+			assertSamples(samples, mQueue.poll());
+		}
+	}
+
+	@Test
+	public void largestDeltasTakeThreeBytes() {
+		// -32768 to 32767 is the largest delta
+		int[] samples = new int[] {-32768, 0, 0, 32767, 0, 0, 32767, 0, 0};
+		byte[] payload = writeDeltaVarint(samples);
+		assertEquals(3 + 1 + 1 + 3 + 1 + 1 + 1 + 1 + 1, payload.length);
+
+		assertEquals(FrameParserV2.RESULT_FRAME_COMPLETED,
+				parse(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 3, payload)));
+		assertSamples(samples, mQueue.poll());
+	}
+
+	@Test
+	public void truncatedVarintIsRejected() {
+		int[] samples = new int[] {1000, -2000, 3000};
+		byte[] payload = writeDeltaVarint(samples);
+		// Last byte says more bytes follow
+		payload[payload.length - 1] |= 0x80;
+
+		assertInvalid(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 1, payload));
+	}
+
+	@Test
+	public void missingSamplesAreRejected() {
+		byte[] payload = writeDeltaVarint(new int[] {1, 2, 3, 4, 5});
+		// Header says 2 samples but payload has 5 values
+		assertInvalid(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 2, payload));
+	}
+
+	@Test
+	public void extraBytesAreRejected() {
+		byte[] samples = writeDeltaVarint(new int[] {1, 2, 3});
+		byte[] payload = new byte[samples.length + 1];
+		System.arraycopy(samples, 0, payload, 0, samples.length);
+
+		assertInvalid(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 1, payload));
+	}
+
+	@Test
+	public void tooLongVarintIsRejected() {
+		// 6 continuation bytes can't be a 16-bit delta
+		byte[] payload = new byte[] {(byte)0x81, (byte)0x81, (byte)0x81, (byte)0x81, (byte)0x81, 0x01};
+		assertInvalid(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 1, payload));
+	}
+
+	@Test
+	public void compressedPayloadLargerThanRawIsRejected() {
+		byte[] payload = new byte[7];
+		assertInvalid(makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 1, payload));
+	}
+
+	@Test
+	public void corruptedCrcIsRejected() {
+		byte[] body = makeBody(FrameParserV2.FLAG_DELTA_VARINT, 0, 1, writeDeltaVarint(new int[] {1, 2, 3}));
+		body[FrameParserV2.HEADER_SIZE] ^= 0x01;
+
+		assertEquals(FrameParserV2.RESULT_INVALID_FRAME, parse(body));
+		assertEquals(1, mParser.getCrcErrorCount());
+		assertNull(mQueue.poll());
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	private void assertSketchFrame(String hex, int version, int kind, int count) {
+		byte[] frame = ArduinoFrames.bytes(hex);
+		byte[] body;
+		int length;
+		if(version == FrameParserV2.PROTOCOL_VERSION) {
+			body = frame;
+			length = frame.length - FrameParserV2.START_BYTE_SIZE;
+			System.arraycopy(frame, FrameParserV2.START_BYTE_SIZE, body, 0, length);
+		} else {
+			// Without delimiter
+			body = new byte[frame.length];
+			length = CobsCodec.decode(frame, 0, frame.length - 1, body, 0);
+		}
+		assertTrue((body[FrameParserV2.OFFSET_FLAGS] & FrameParserV2.FLAG_DELTA_VARINT) != 0);
+		assertEquals(FrameParserV2.RESULT_FRAME_COMPLETED, mParser.parseBody(body, 0, length, version, mQueue));
+		assertSamples(ArduinoFrames.samples(kind, count), mQueue.poll());
+	}
+
+	private int parse(byte[] body) {
+		return mParser.parseBody(body, 0, body.length, FrameParserV2.PROTOCOL_VERSION, mQueue);
+	}
+
+	private void assertInvalid(byte[] body) {
+		int inUse = mQueue.size();
+		assertEquals(FrameParserV2.RESULT_INVALID_FRAME, parse(body));
+		assertEquals(1, mParser.getHeaderErrorCount());
+		assertEquals(inUse, mQueue.size());
+	}
+
+	private static void assertSamples(int[] expected, ContentObject co) {
+		TransactionReceiverTest.assertFrame("samples", expected, co);
+	}
+
+	/**
+	 * Same as writeDeltaVarint() of the sketch, without the raw size limit
+	 */
+	static byte[] writeDeltaVarint(int[] samples) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int[] previous = new int[3];
+		for(int i=0; i<samples.length; i++) {
+			int delta = samples[i] - previous[i % 3];
+			previous[i % 3] = samples[i];
+			int zigzag = (delta << 1) ^ (delta >> 31);
+			while((zigzag & ~0x7f) != 0) {
+				out.write((zigzag & 0x7f) | 0x80);
+				zigzag >>>= 7;
+			}
+			out.write(zigzag);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Frame body from version byte to CRC
+	 */
+	static byte[] makeBody(int flags, int sequence, int sampleCount, byte[] payload) {
+		byte[] body = new byte[FrameParserV2.HEADER_SIZE + payload.length + FrameParserV2.CRC_SIZE];
+		body[FrameParserV2.OFFSET_VERSION] = FrameParserV2.PROTOCOL_VERSION;
+		body[FrameParserV2.OFFSET_FLAGS] = (byte)flags;
+		body[FrameParserV2.OFFSET_SEQUENCE] = (byte)(sequence >> 8);
+		body[FrameParserV2.OFFSET_SEQUENCE + 1] = (byte)sequence;
+		body[FrameParserV2.OFFSET_SAMPLE_COUNT] = (byte)sampleCount;
+		body[FrameParserV2.OFFSET_PAYLOAD_LENGTH] = (byte)(payload.length >> 8);
+		body[FrameParserV2.OFFSET_PAYLOAD_LENGTH + 1] = (byte)payload.length;
+		System.arraycopy(payload, 0, body, FrameParserV2.HEADER_SIZE, payload.length);
+		int crc = Crc16.calculate(body, 0, FrameParserV2.HEADER_SIZE + payload.length);
+		body[body.length - 2] = (byte)(crc >> 8);
+		body[body.length - 1] = (byte)crc;
+		return body;
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
+
+public class FrameQueueTest {
+
+	@Test
+	public void fullQueueDropsOldestFrame() {
+		ContentObjectPool pool = new ContentObjectPool(8);
+		FrameQueue queue = new FrameQueue(3, pool);
+		ContentObject[] frames = new ContentObject[4];
+		for(int i=0; i<frames.length; i++) {
+			frames[i] = queue.obtain(i + 1);
+			queue.push(frames[i]);
+		}
+
+		assertEquals(3, queue.size());
+		assertEquals(1, queue.getDroppedCount());
+		assertEquals(3, queue.getMaxSize());
+		// Dropped frame went back to pool
+		assertEquals(3, pool.getInUseCount());
+		assertSame(frames[1], queue.poll());
+		assertSame(frames[2], queue.poll());
+		assertSame(frames[3], queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void drainKeepsArrivalOrder() {
+		ContentObjectPool pool = new ContentObjectPool(8);
+		FrameQueue queue = new FrameQueue(8, pool);
+		ContentObject[] frames = new ContentObject[5];
+		for(int i=0; i<frames.length; i++) {
+			frames[i] = queue.obtain(i + 1);
+			queue.push(frames[i]);
+		}
+
+		ContentObject[] out = new ContentObject[3];
+		assertEquals(3, queue.drain(out));
+		assertSame(frames[0], out[0]);
+		assertSame(frames[2], out[2]);
+		assertEquals(2, queue.drain(out));
+		assertSame(frames[3], out[0]);
+		assertSame(frames[4], out[1]);
+		assertEquals(0, queue.drain(out));
+	}
+
+	@Test
+	public void clearRecyclesWaitingFrames() {
+		ContentObjectPool pool = new ContentObjectPool(8);
+		FrameQueue queue = new FrameQueue(8, pool);
+		for(int i=0; i<5; i++)
+			queue.push(queue.obtain(i + 1));
+
+		queue.clear();
+		assertEquals(0, queue.size());
+		assertEquals(0, pool.getInUseCount());
+		assertEquals(0, pool.getCreatedCount());
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ContentObject;
+
+/**
+ * Policies on a full queue, and one producer against one consumer thread.
+ * Every sample of frame N has value N, so a torn copy is found.
+ * Thread tests find torn copies only on multi-core machines,
+ * so overwrite during copy is also tested on one thread.
+ */
+public class FrameRingQueueTest {
+
+	private static final int FRAME_COUNT = 200000;
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(1, new FrameRingQueue(1, FrameRingQueue.POLICY_BLOCK).capacity());
+		assertEquals(8, new FrameRingQueue(5, FrameRingQueue.POLICY_BLOCK).capacity());
+		assertEquals(32, new FrameRingQueue(32, FrameRingQueue.POLICY_BLOCK).capacity());
+	}
+
+	@Test
+	public void dropOldestKeepsNewestFrames() {
+		FrameRingQueue queue = new FrameRingQueue(4, FrameRingQueue.POLICY_DROP_OLDEST);
+		ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		for(int i=0; i<10; i++)
+			assertTrue(queue.offer(makeFrame(src, i)));
+
+		assertEquals(4, queue.size());
+		assertEquals(6, queue.getOverflowCount());
+		assertFrames(queue, 6, 10);
+	}
+
+	@Test
+	public void dropNewestRejectsFramesWhenFull() {
+		FrameRingQueue queue = new FrameRingQueue(4, FrameRingQueue.POLICY_DROP_NEWEST);
+		ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		for(int i=0; i<10; i++)
+			assertEquals(i < 4, queue.offer(makeFrame(src, i)));
+
+		assertEquals(4, queue.size());
+		assertEquals(6, queue.getOverflowCount());
+		assertFrames(queue, 0, 4);
+	}
+
+	@Test
+	public void frameOverwrittenWhileCopyingIsReadAgain() {
+		final FrameRingQueue queue = new FrameRingQueue(2, FrameRingQueue.POLICY_DROP_OLDEST);
+		final ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		queue.offer(makeFrame(src, 0));
+		queue.offer(makeFrame(src, 1));
+
+		// Producer writes two frames just after consumer copied frame 0
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1) {
+			private boolean mOverwritten = false;
+
+			@Override
+			public void copyFrom(ContentObject from) {
+				super.copyFrom(from);
+				if(!mOverwritten) {
+					mOverwritten = true;
+					queue.offer(makeFrame(src, 2));
+					queue.offer(makeFrame(src, 3));
+				}
+			}
+		};
+		assertTrue(queue.poll(dst));
+		assertEquals(2, dst.mId);
+		assertWhole(dst);
+		assertEquals(2, queue.getOverflowCount());
+		assertFrames(queue, 3, 4);
+	}
+
+	@Test
+	public void blockWaitsUntilConsumerTakesFrame() throws Exception {
+		final FrameRingQueue queue = new FrameRingQueue(2, FrameRingQueue.POLICY_BLOCK);
+		final ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		queue.offer(makeFrame(src, 0));
+		queue.offer(makeFrame(src, 1));
+
+		final AtomicBoolean offered = new AtomicBoolean(false);
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				offered.set(queue.offer(makeFrame(src, 2)));
+			}
+		});
+		producer.start();
+		producer.join(100);
+		assertTrue("producer must wait on full queue", producer.isAlive());
+
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		assertTrue(queue.poll(dst));
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertTrue(offered.get());
+		assertEquals(0, queue.getOverflowCount());
+		assertFrames(queue, 1, 3);
+	}
+
+	@Test
+	public void interruptedProducerGivesUp() throws Exception {
+		final FrameRingQueue queue = new FrameRingQueue(1, FrameRingQueue.POLICY_BLOCK);
+		final ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		queue.offer(makeFrame(src, 0));
+
+		final AtomicBoolean offered = new AtomicBoolean(true);
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				offered.set(queue.offer(makeFrame(src, 1)));
+			}
+		});
+		producer.start();
+		producer.join(50);
+		producer.interrupt();
+		producer.join(1000);
+
+		assertFalse(producer.isAlive());
+		assertFalse(offered.get());
+		assertEquals(1, queue.getOverflowCount());
+		assertFrames(queue, 0, 1);
+	}
+
+	@Test
+	public void takeWithTimeoutReturnsWhenWoken() throws Exception {
+		final FrameRingQueue queue = new FrameRingQueue(4, FrameRingQueue.POLICY_DROP_OLDEST);
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+
+		long start = System.nanoTime();
+		assertFalse(queue.take(dst, 20));
+		assertTrue(System.nanoTime() - start >= 15 * 1000000L);
+
+		Thread waker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				queue.wakeConsumer();
+			}
+		});
+		waker.start();
+		start = System.nanoTime();
+		assertFalse(queue.take(dst, 10000));
+		assertTrue(System.nanoTime() - start < 5000 * 1000000L);
+		waker.join();
+	}
+
+	@Test
+	public void clearRemovesWaitingFrames() {
+		FrameRingQueue queue = new FrameRingQueue(4, FrameRingQueue.POLICY_DROP_OLDEST);
+		ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		queue.offer(makeFrame(src, 0));
+		queue.offer(makeFrame(src, 1));
+		queue.clear();
+
+		assertEquals(0, queue.size());
+		assertFalse(queue.poll(src));
+		queue.offer(makeFrame(src, 2));
+		assertFrames(queue, 2, 3);
+	}
+
+	@Test
+	public void blockDeliversEveryFrameAcrossThreads() throws Exception {
+		Result result = run(FrameRingQueue.POLICY_BLOCK);
+		assertEquals(FRAME_COUNT, result.mReceived);
+		assertEquals(0, result.mOverflow);
+	}
+
+	@Test
+	public void dropOldestDeliversWholeFramesAcrossThreads() throws Exception {
+		Result result = run(FrameRingQueue.POLICY_DROP_OLDEST);
+		assertEquals(FRAME_COUNT, result.mReceived + result.mOverflow);
+	}
+
+	@Test
+	public void dropNewestDeliversWholeFramesAcrossThreads() throws Exception {
+		Result result = run(FrameRingQueue.POLICY_DROP_NEWEST);
+		assertEquals(FRAME_COUNT, result.mReceived + result.mOverflow);
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	private static class Result {
+		int mReceived;
+		long mOverflow;
+	}
+
+	/**
+	 * Producer offers FRAME_COUNT frames while consumer takes them.
+	 * Checks that frames keep order and are never torn.
+	 */
+	private static Result run(int policy) throws Exception {
+		final FrameRingQueue queue = new FrameRingQueue(2, policy);
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+				for(int i=0; i<FRAME_COUNT; i++)
+					queue.offer(makeFrame(src, i));
+				done.set(true);
+			}
+		});
+		producer.start();
+
+		Result result = new Result();
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		int last = -1;
+		try {
+			while(true) {
+				boolean finished = done.get();
+				if(!queue.take(dst, 10)) {
+					if(finished)
+						break;
+					continue;
+				}
+				assertTrue("frame " + dst.mId + " after " + last, dst.mId > last);
+				assertWhole(dst);
+				last = dst.mId;
+				result.mReceived++;
+			}
+		} finally {
+			// Blocked producer gives up if consumer failed
+			producer.interrupt();
+			producer.join(10000);
+		}
+		result.mOverflow = queue.getOverflowCount();
+		return result;
+	}
+
+	private static ContentObject makeFrame(ContentObject src, int id) {
+		src.mId = id;
+		src.mTimeInMilli = 1000L + id;
+		int count = ContentObject.MAX_DATA_COUNT - id % 4;
+		for(int i=0; i<count * 3; i++)
+			src.mAccelData[i] = id;
+		src.mAccelIndex = count;
+		src.mCacheIndex = 0;
+		return src;
+	}
+
+	private static void assertWhole(ContentObject co) {
+		assertEquals("time of " + co.mId, 1000L + co.mId, co.mTimeInMilli);
+		assertEquals("count of " + co.mId, ContentObject.MAX_DATA_COUNT - co.mId % 4, co.getSampleCount());
+		for(int i=0; i<co.getSampleCount() * 3; i++)
+			assertEquals("sample " + i + " of " + co.mId, co.mId, co.mAccelData[i]);
+	}
+
+	private static void assertFrames(FrameRingQueue queue, int first, int end) {
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		for(int i=first; i<end; i++) {
+			assertTrue(queue.poll(dst));
+			assertEquals(i, dst.mId);
+			assertWhole(dst);
+		}
+		assertFalse(queue.poll(dst));
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.ContentObjectPool;
+
+/**
+ * Replays legacy byte captures through the receiver.
+ * Loopback tests use piped streams in place of the bluetooth socket.
+ */
+public class TransactionReceiverTest {
+
+	@Test
+	public void legacyFramesAreParsedWithAnyReadSize() {
+		int[][] samples = makeSamples(50, 1);
+		byte[] capture = makeLegacyCapture(samples);
+
+		int[] readSizes = new int[] {1, 2, 7, 64, 128, 512};
+		for(int r=0; r<readSizes.length; r++) {
+			TransactionReceiver receiver = new TransactionReceiver(null);
+			int frame = 0;
+			for(int offset=0; offset < capture.length; offset += readSizes[r]) {
+				receiver.setByteArray(copy(capture, offset, readSizes[r]), Math.min(readSizes[r], capture.length - offset));
+				ContentObject co;
+				while((co = receiver.getObject()) != null) {
+					assertFrame("read size " + readSizes[r], samples[frame], co);
+					receiver.recycleObject(co);
+					frame++;
+				}
+			}
+			assertEquals(samples.length, frame);
+		}
+	}
+
+	@Test
+	public void burstLargerThanQueueDropsOldestFrames() {
+		int[][] samples = makeSamples(20, 4);
+		byte[] capture = makeLegacyCapture(samples);
+		TransactionReceiver receiver = new TransactionReceiver(null);
+
+		receiver.setByteArray(capture, capture.length);
+		int backlog = receiver.getBacklogCount();
+		assertEquals(samples.length - backlog, receiver.getDroppedCount());
+		for(int f = samples.length - backlog; f < samples.length; f++) {
+			ContentObject co = receiver.getObject();
+			assertFrame("frame " + f, samples[f], co);
+			receiver.recycleObject(co);
+		}
+		assertNull(receiver.getObject());
+	}
+
+	@Test
+	public void steadyStateParsingMakesNoObjects() {
+		int[][] samples = makeSamples(100, 2);
+		byte[] capture = makeLegacyCapture(samples);
+		byte[] read = new byte[128];
+		TransactionReceiver receiver = new TransactionReceiver(null);
+		ContentObjectPool pool = ContentObjectPool.getInstance();
+
+		// Warm up
+		replay(receiver, capture, read);
+		int created = pool.getCreatedCount();
+		int inUse = pool.getInUseCount();
+
+		int frames = 0;
+		for(int i=0; i<100; i++)
+			frames += replay(receiver, capture, read);
+
+		assertEquals(100 * samples.length, frames);
+		assertEquals(created, pool.getCreatedCount());
+		assertEquals(inUse, pool.getInUseCount());
+	}
+
+	@Test
+	public void resetSessionDropsCachedBytesAndFrames() {
+		int[][] samples = makeSamples(2, 3);
+		byte[] capture = makeLegacyCapture(samples);
+		TransactionReceiver receiver = new TransactionReceiver(null);
+		int inUse = ContentObjectPool.getInstance().getInUseCount();
+
+		// First frame and half of the second one
+		int half = capture.length - 60;
+		receiver.setByteArray(capture, half);
+		assertEquals(1, receiver.getBacklogCount());
+
+		receiver.resetSession();
+		assertEquals(0, receiver.getBacklogCount());
+		assertEquals(inUse, ContentObjectPool.getInstance().getInUseCount());
+
+		// Rest of the old frame must not be glued to the new connection
+		receiver.setByteArray(copy(capture, half, capture.length - half), capture.length - half);
+		assertNull(receiver.getObject());
+		receiver.setByteArray(capture, capture.length);
+		ContentObject co = receiver.getObject();
+		assertNotNull(co);
+		assertFrame("new session", samples[0], co);
+		receiver.recycleObject(co);
+	}
+
+	@Test
+	public void loopbackStreamDeliversEveryFrameInOrder() throws Exception {
+		int[][] samples = makeSamples(200, 5);
+		final byte[] capture = makeLegacyCapture(samples);
+		final PipedOutputStream remote = new PipedOutputStream();
+		PipedInputStream socket = new PipedInputStream(remote, 256);
+		TransactionReceiver receiver = new TransactionReceiver(null);
+		FrameRecorder recorder = new FrameRecorder();
+		int inUse = ContentObjectPool.getInstance().getInUseCount();
+
+		// Remote device writes in random sizes, then disconnects
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(6);
+				try {
+					for(int offset=0; offset < capture.length; ) {
+						int count = Math.min(1 + random.nextInt(300), capture.length - offset);
+						remote.write(capture, offset, count);
+						offset += count;
+					}
+					remote.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		writer.start();
+		receiver.readStream(socket, new byte[128], recorder);
+		writer.join();
+
+		assertEquals(samples.length, recorder.mFrames.size());
+		for(int f=0; f<samples.length; f++)
+			assertFrame("frame " + f, samples[f], recorder.mFrames.get(f));
+		assertEquals(0, receiver.getDroppedCount());
+		assertEquals(0, receiver.getBacklogCount());
+		assertEquals(inUse, ContentObjectPool.getInstance().getInUseCount());
+	}
+
+	@Test
+	public void loopbackReadErrorIsThrownAfterEarlierFrames() {
+		int[][] samples = makeSamples(3, 7);
+		final byte[] capture = makeLegacyCapture(samples);
+		final IOException lost = new IOException("connection lost");
+		InputStream socket = new InputStream() {
+			private final ByteArrayInputStream mData = new ByteArrayInputStream(capture);
+
+			@Override
+			public int read() throws IOException {
+				throw lost;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = mData.read(b, off, len);
+				if(count < 0)
+					throw lost;
+				return count;
+			}
+		};
+		TransactionReceiver receiver = new TransactionReceiver(null);
+		FrameRecorder recorder = new FrameRecorder();
+
+		try {
+			receiver.readStream(socket, new byte[64], recorder);
+			fail("read error must be thrown");
+		} catch (IOException e) {
+			assertSame(lost, e);
+		}
+		assertEquals(samples.length, recorder.mFrames.size());
+	}
+
+
+	/*****************************************************
+	 *	Capture helpers
+	 ******************************************************/
+
+	/**
+	 * Samples which survive the legacy null byte substitution.
+	 * (High byte must not be 0x7F and low byte must not be 0x01.)
+	 */
+	static int[][] makeSamples(int frames, long seed) {
+		Random random = new Random(seed);
+		int[][] samples = new int[frames][ContentObject.DATA_COUNT * 3];
+		for(int f=0; f<frames; f++) {
+			for(int i=0; i<samples[f].length; i++) {
+				int value;
+				do {
+					value = (short)(random.nextGaussian() * 8000);
+				} while(((value >> 8) & 0xff) == 0x7f || (value & 0xff) == 0x01);
+				samples[f][i] = value;
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Same bytes as sendToRemote() of the Arduino sketch:
+	 * "accel", start bytes, data with 0x00 substituted, end bytes.
+	 */
+	static byte[] makeLegacyCapture(int[][] samples) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int f=0; f<samples.length; f++) {
+			out.write('a'); out.write('c'); out.write('c'); out.write('e'); out.write('l');
+			out.write(0xfe);
+			out.write(0xfd);
+			for(int i=0; i<samples[f].length; i++) {
+				int high = (samples[f][i] >> 8) & 0xff;
+				int low = samples[f][i] & 0xff;
+				out.write(high == 0 ? 0x7f : high);
+				out.write(low == 0 ? 0x01 : low);
+			}
+			out.write(0xfd);
+			out.write(0xfe);
+		}
+		return out.toByteArray();
+	}
+
+	static void assertFrame(String message, int[] expected, ContentObject co) {
+		assertEquals(message, expected.length / 3, co.getSampleCount());
+		for(int i=0; i<expected.length; i++)
+			assertEquals(message + " at " + i, expected[i], co.mAccelData[i]);
+	}
+
+	private static int replay(TransactionReceiver receiver, byte[] capture, byte[] read) {
+		int frames = 0;
+		for(int offset=0; offset < capture.length; offset += read.length) {
+			int count = Math.min(read.length, capture.length - offset);
+			System.arraycopy(capture, offset, read, 0, count);
+			receiver.setByteArray(read, count);
+			ContentObject co;
+			while((co = receiver.getObject()) != null) {
+				receiver.recycleObject(co);
+				frames++;
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Copies accel data, because objects are recycled after the listener returns.
+	 */
+	private static class FrameRecorder implements IFrameListener {
+		final ArrayList<ContentObject> mFrames = new ArrayList<ContentObject>();
+
+		@Override
+		public void OnFrameReceived(ContentObject co, int backlog) {
+			ContentObject copy = new ContentObject(co.mContentType, co.mId, co.mTimeInMilli);
+			copy.copyFrom(co);
+			mFrames.add(copy);
+		}
+	}
+
+	private static byte[] copy(byte[] src, int offset, int length) {
+		byte[] dst = new byte[length];
+		System.arraycopy(src, offset, dst, 0, Math.min(length, src.length - offset));
+		return dst;
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Checkpoint file must give back the last whole record after a kill at any byte.
+ */
+public class ActivityCheckpointTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+		mFile = new File(mFolder.getRoot(), "checkpoint");
+	}
+
+	@Test
+	public void restoresCurrentBuckets() {
+		ActivityRollup saved = makeRollup(100);
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(mFile);
+		checkpoint.write(saved);
+		checkpoint.close();
+
+		ActivityRollup restored = new ActivityRollup(null);
+		assertTrue(new ActivityCheckpoint(mFile).restore(restored));
+		assertSameBuckets(saved, restored);
+	}
+
+	@Test
+	public void missingFileRestoresNothing() {
+		ActivityRollup rollup = new ActivityRollup(null);
+		assertFalse(new ActivityCheckpoint(mFile).restore(rollup));
+		assertEquals(-1, rollup.getYear());
+	}
+
+	@Test
+	public void tornLastRecordIsSkipped() throws IOException {
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(mFile);
+		checkpoint.write(makeRollup(1));
+		checkpoint.write(makeRollup(2));
+		checkpoint.close();
+		long whole = mFile.length();
+		assertEquals(2 * ActivityCheckpoint.RECORD_SIZE, whole);
+
+		// Kill at every byte of the third record
+		checkpoint = new ActivityCheckpoint(mFile);
+		byte[] third = recordOf(makeRollup(3));
+		for(int length = 0; length < third.length; length++) {
+			RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+			file.setLength(whole);
+			file.seek(whole);
+			file.write(third, 0, length);
+			file.close();
+
+			ActivityRollup restored = new ActivityRollup(null);
+			assertTrue(checkpoint.restore(restored));
+			assertSameBuckets(makeRollup(2), restored);
+		}
+	}
+
+	@Test
+	public void recordWithBadChecksumIsSkipped() throws IOException {
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(mFile);
+		checkpoint.write(makeRollup(1));
+		checkpoint.write(makeRollup(2));
+		checkpoint.close();
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		long offset = ActivityCheckpoint.RECORD_SIZE + 30;
+		file.seek(offset);
+		int value = file.read();
+		file.seek(offset);
+		file.write(value ^ 0x10);
+		file.close();
+
+		ActivityRollup restored = new ActivityRollup(null);
+		assertTrue(checkpoint.restore(restored));
+		assertSameBuckets(makeRollup(1), restored);
+	}
+
+	@Test
+	public void fileIsCompactedAndKeepsLastRecord() {
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(mFile);
+		long maxLength = 0;
+		for(int i=1; i<=600; i++) {
+			checkpoint.write(makeRollup(i));
+			maxLength = Math.max(maxLength, mFile.length());
+
+			if(i % 97 == 0) {
+				ActivityRollup restored = new ActivityRollup(null);
+				assertTrue(checkpoint.restore(restored));
+				assertSameBuckets(makeRollup(i), restored);
+			}
+		}
+		checkpoint.close();
+
+		assertEquals(256 * ActivityCheckpoint.RECORD_SIZE, maxLength);
+		assertTrue(mFile.length() < maxLength);
+		assertFalse(new File(mFile.getPath() + ".tmp").exists());
+		ActivityRollup restored = new ActivityRollup(null);
+		assertTrue(new ActivityCheckpoint(mFile).restore(restored));
+		assertSameBuckets(makeRollup(600), restored);
+	}
+
+	@Test
+	public void newCheckpointStartsWithOneRecord() {
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(mFile);
+		checkpoint.write(makeRollup(1));
+		checkpoint.write(makeRollup(2));
+		checkpoint.close();
+
+		// Records of previous process are replaced by the first write
+		checkpoint = new ActivityCheckpoint(mFile);
+		checkpoint.write(makeRollup(3));
+		checkpoint.close();
+		assertEquals(ActivityCheckpoint.RECORD_SIZE, mFile.length());
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	/**
+	 * Rollup of 2024-06-10 13:xx which has activity for every minute until n
+	 */
+	private static ActivityRollup makeRollup(int n) {
+		ActivityRollup rollup = new ActivityRollup(null);
+		rollup.start(2024, 5, 9, 13, 0);
+		for(int i=1; i<=n; i++) {
+			rollup.advance(2024, 5, 9, 13 + (i / 60) % 10, i % 60);
+			rollup.add(i, 3 * i, 1, i % 7);
+		}
+		return rollup;
+	}
+
+	private byte[] recordOf(ActivityRollup rollup) throws IOException {
+		File file = new File(mFolder.getRoot(), "single");
+		ActivityCheckpoint checkpoint = new ActivityCheckpoint(file);
+		checkpoint.write(rollup);
+		checkpoint.close();
+		byte[] record = new byte[ActivityCheckpoint.RECORD_SIZE];
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		in.readFully(record);
+		in.close();
+		return record;
+	}
+
+	private static void assertSameBuckets(ActivityRollup expected, ActivityRollup actual) {
+		assertEquals(expected.getYear(), actual.getYear());
+		assertEquals(expected.getMonth(), actual.getMonth());
+		assertEquals(expected.getDay(), actual.getDay());
+		assertEquals(expected.getHour(), actual.getHour());
+		for(int level = ActivityRollup.LEVEL_HOUR; level < ActivityRollup.LEVEL_COUNT; level++) {
+			int slot = expected.getCurrentSlot(level);
+			assertEquals(slot, actual.getCurrentSlot(level));
+			for(int metric = 0; metric < ActivityRollup.METRIC_COUNT; metric++)
+				assertEquals("level " + level + ", metric " + metric,
+						expected.get(level, slot, metric), actual.get(level, slot, metric));
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Date fields of BucketBoundaryCache must be same as Calendar in the zone of the clock.
+ */
+public class BucketBoundaryCacheTest {
+
+	private static final long SECOND = 1000L;
+	private static final long MINUTE = BucketBoundaryCache.MINUTE_IN_MILLIS;
+	private static final long HOUR = BucketBoundaryCache.HOUR_IN_MILLIS;
+
+	private FakeWallClock mClock;
+	private BucketBoundaryCache mCache;
+
+	@Before
+	public void setUp() {
+		mClock = new FakeWallClock();
+	}
+
+	@Test
+	public void dayOfDstStartHas23Hours() {
+		// 2024-03-10 02:00 EST jumps to 03:00 EDT
+		TimeZone zone = TimeZone.getTimeZone("America/New_York");
+		long dayStart = localTime(zone, 2024, Calendar.MARCH, 10, 0, 0);
+		long nextDayStart = localTime(zone, 2024, Calendar.MARCH, 11, 0, 0);
+		assertEquals(23 * HOUR, nextDayStart - dayStart);
+
+		HashSet<Integer> hours = sweep(zone, dayStart - 2 * HOUR, nextDayStart + 2 * HOUR, 17 * SECOND, 10);
+		assertEquals(23, hours.size());
+		assertFalse(hours.contains(2));
+		// Next day boundary is corrected after offset change
+		mCache.update(dayStart + 12 * HOUR);
+		assertEquals(nextDayStart, mCache.getNextDay());
+	}
+
+	@Test
+	public void dayOfDstEndHas25Hours() {
+		// 2024-11-03 02:00 EDT goes back to 01:00 EST
+		TimeZone zone = TimeZone.getTimeZone("America/New_York");
+		long dayStart = localTime(zone, 2024, Calendar.NOVEMBER, 3, 0, 0);
+		long nextDayStart = localTime(zone, 2024, Calendar.NOVEMBER, 4, 0, 0);
+		assertEquals(25 * HOUR, nextDayStart - dayStart);
+
+		HashSet<Integer> hours = sweep(zone, dayStart - 2 * HOUR, nextDayStart + 2 * HOUR, 17 * SECOND, 3);
+		assertEquals(24, hours.size());
+
+		// Repeated hour goes to the same hour bucket
+		mCache.update(dayStart + HOUR + 30 * MINUTE);
+		assertEquals(1, mCache.getHour());
+		mCache.update(dayStart + 2 * HOUR + 30 * MINUTE);
+		assertEquals(1, mCache.getHour());
+		mCache.update(dayStart + 12 * HOUR);
+		assertEquals(nextDayStart, mCache.getNextDay());
+	}
+
+	@Test
+	public void halfHourDstShift() {
+		// Lord Howe Island moves clocks by 30 minutes
+		TimeZone zone = TimeZone.getTimeZone("Australia/Lord_Howe");
+		long start = localTime(zone, 2024, Calendar.APRIL, 6, 12, 0);
+		sweep(zone, start, start + 24 * HOUR, 29 * SECOND, 1);
+		start = localTime(zone, 2024, Calendar.OCTOBER, 5, 12, 0);
+		sweep(zone, start, start + 24 * HOUR, 29 * SECOND, 1);
+	}
+
+	@Test
+	public void zoneSwitchIsNoticedOnNextMinute() {
+		TimeZone utc = TimeZone.getTimeZone("UTC");
+		TimeZone seoul = TimeZone.getTimeZone("Asia/Seoul");
+		long time = localTime(utc, 2024, Calendar.JUNE, 30, 20, 10) + 15 * SECOND;
+		start(utc, time);
+		assertEquals(20, mCache.getHour());
+		assertEquals(29, mCache.getDay());
+
+		// Same minute. Zone is not read.
+		mClock.mZone = seoul;
+		mClock.mNow = time + 10 * SECOND;
+		assertFalse(mCache.update());
+		assertEquals(20, mCache.getHour());
+
+		// Next minute is 05:11 of next day in Seoul
+		mClock.mNow = time + 45 * SECOND;
+		assertTrue(mCache.update());
+		assertFields(seoul, mClock.mNow);
+		assertEquals(Calendar.JULY, mCache.getMonth());
+		assertEquals(0, mCache.getDay());
+		assertEquals(5, mCache.getHour());
+	}
+
+	@Test
+	public void invalidateNoticesZoneSwitchAtOnce() {
+		TimeZone utc = TimeZone.getTimeZone("UTC");
+		TimeZone kolkata = TimeZone.getTimeZone("Asia/Kolkata");
+		long time = localTime(utc, 2024, Calendar.JANUARY, 1, 0, 0) + 5 * SECOND;
+		start(utc, time);
+
+		mClock.mZone = kolkata;
+		mCache.invalidate();
+		mClock.mNow = time + SECOND;
+		assertTrue(mCache.update());
+		assertFields(kolkata, mClock.mNow);
+		assertEquals(5, mCache.getHour());
+		assertEquals(30, mCache.getMinute());
+	}
+
+	@Test
+	public void invalidateAtCachedBoundary() {
+		TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+		long time = localTime(zone, 2024, Calendar.DECEMBER, 31, 23, 59);
+		start(zone, time);
+		long boundary = mCache.getNextMinute();
+		assertEquals(localTime(zone, 2025, Calendar.JANUARY, 1, 0, 0), boundary);
+
+		// Last milli-second of cached minute
+		assertFalse(mCache.update(boundary - 1));
+		assertEquals(59, mCache.getSecond(boundary - 1));
+
+		// Invalidated exactly on the boundary: every field moves to the new year
+		mCache.invalidate();
+		assertTrue(mCache.update(boundary));
+		assertFields(zone, boundary);
+		assertEquals(2025, mCache.getYear());
+		assertEquals(boundary + MINUTE, mCache.getNextMinute());
+
+		// Invalidated again without time change: same fields
+		mCache.invalidate();
+		assertTrue(mCache.update(boundary));
+		assertFields(zone, boundary);
+		assertFalse(mCache.update(boundary + 59 * SECOND));
+	}
+
+	@Test
+	public void timeSetBackward() {
+		TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+		long time = localTime(zone, 2024, Calendar.MAY, 2, 10, 30);
+		start(zone, time);
+		// Time before cached minute is a boundary crossing too
+		assertTrue(mCache.update(time - 1));
+		assertFields(zone, time - 1);
+		assertTrue(mCache.update(time - 3 * BucketBoundaryCache.DAY_IN_MILLIS));
+		assertFields(zone, time - 3 * BucketBoundaryCache.DAY_IN_MILLIS);
+	}
+
+
+	private void start(TimeZone zone, long time) {
+		mClock.mZone = zone;
+		mClock.mNow = time;
+		mCache = new BucketBoundaryCache(mClock);
+		assertTrue(mCache.update());
+		assertFields(zone, time);
+	}
+
+	/**
+	 * Update cache along the time and check fields at each step
+	 * @return	HashSet<Integer>	hours seen on the given day of month (1-based)
+	 */
+	private HashSet<Integer> sweep(TimeZone zone, long start, long end, long step, int dayOfMonth) {
+		start(zone, start);
+		HashSet<Integer> hours = new HashSet<Integer>();
+		for(long time = start; time < end; time += step) {
+			mCache.update(time);
+			assertFields(zone, time);
+			if(mCache.getDay() == dayOfMonth - 1)
+				hours.add(mCache.getHour());
+		}
+		return hours;
+	}
+
+	private void assertFields(TimeZone zone, long time) {
+		Calendar calendar = Calendar.getInstance(zone);
+		calendar.setTimeInMillis(time);
+		String message = zone.getID() + " " + time;
+		assertEquals(message, calendar.get(Calendar.YEAR), mCache.getYear());
+		assertEquals(message, calendar.get(Calendar.MONTH), mCache.getMonth());
+		assertEquals(message, calendar.get(Calendar.DAY_OF_MONTH) - 1, mCache.getDay());
+		assertEquals(message, calendar.get(Calendar.HOUR_OF_DAY), mCache.getHour());
+		assertEquals(message, calendar.get(Calendar.MINUTE), mCache.getMinute());
+		assertEquals(message, calendar.get(Calendar.SECOND), mCache.getSecond(time));
+	}
+
+	private static long localTime(TimeZone zone, int year, int month, int day, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance(zone);
+		calendar.clear();
+		calendar.set(year, month, day, hour, minute, 0);
+		return calendar.getTimeInMillis();
+	}
+
+
+	private static class FakeWallClock implements IWallClock {
+		long mNow = 0;
+		TimeZone mZone = TimeZone.getTimeZone("UTC");
+
+		@Override
+		public long currentTimeMillis() {
+			return mNow;
+		}
+
+		@Override
+		public TimeZone getTimeZone() {
+			return mZone;
+		}
+	}
+
+}
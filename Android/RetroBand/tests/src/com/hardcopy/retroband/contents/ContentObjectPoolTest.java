@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.BuildConfig;
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Acquire and release lifecycle of pooled content objects.
+ */
+public class ContentObjectPoolTest {
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+	}
+
+	@Test
+	public void releasedObjectIsReusedAndReset() {
+		ContentObjectPool pool = new ContentObjectPool(1);
+		ContentObject co = pool.acquire(1000);
+		co.setId(7);
+		co.mSamplingInterval = 10;
+		co.mSampleIndex = 99;
+		for(int i=0; i<5; i++)
+			co.setAccelData(i + 1);
+		assertEquals(1, co.getSampleCount());
+		pool.release(co);
+
+		ContentObject reused = pool.acquire(2000);
+		assertSame(co, reused);
+		assertEquals(ContentObject.CONTENT_TYPE_ACCEL, reused.mContentType);
+		assertEquals(-1, reused.mId);
+		assertEquals(2000, reused.mTimeInMilli);
+		assertEquals(ContentObject.DEFAULT_SAMPLING_INTERVAL, reused.mSamplingInterval);
+		assertEquals(-1, reused.mSampleIndex);
+		assertEquals(0, reused.getSampleCount());
+		assertEquals(0, reused.mCacheIndex);
+		for(int i=0; i<reused.mAccelData.length; i++)
+			assertEquals(0, reused.mAccelData[i]);
+		assertEquals(0, pool.getCreatedCount());
+	}
+
+	@Test
+	public void emptyPoolMakesObjectsAndKeepsOnlyItsSize() {
+		ContentObjectPool pool = new ContentObjectPool(2);
+		ContentObject[] objects = new ContentObject[3];
+		for(int i=0; i<objects.length; i++)
+			objects[i] = pool.acquire(i + 1);
+		assertEquals(3, pool.getInUseCount());
+		assertEquals(1, pool.getCreatedCount());
+
+		for(int i=0; i<objects.length; i++)
+			pool.release(objects[i]);
+		assertEquals(0, pool.getInUseCount());
+
+		// Two free objects are kept, so the third acquire makes a new one
+		ContentObject first = pool.acquire(1);
+		ContentObject second = pool.acquire(1);
+		ContentObject third = pool.acquire(1);
+		assertEquals(2, pool.getCreatedCount());
+		assertNotSame(first, second);
+		assertNotSame(second, third);
+	}
+
+	@Test
+	public void steadyStateMakesNoObjects() {
+		ContentObjectPool pool = new ContentObjectPool(4);
+		ContentObject[] objects = new ContentObject[4];
+		for(int round=0; round<1000; round++) {
+			for(int i=0; i<objects.length; i++)
+				objects[i] = pool.acquire(round);
+			for(int i=0; i<objects.length; i++)
+				pool.release(objects[i]);
+		}
+		assertEquals(0, pool.getCreatedCount());
+		assertEquals(0, pool.getInUseCount());
+	}
+
+	@Test
+	public void releasingNullDoesNothing() {
+		ContentObjectPool pool = new ContentObjectPool(1);
+		pool.acquire(1);
+		pool.release(null);
+		assertEquals(1, pool.getInUseCount());
+	}
+
+	@Test
+	public void doubleReleaseIsReportedInDebugBuild() {
+		assumeTrue(BuildConfig.DEBUG);
+		ContentObjectPool pool = new ContentObjectPool(2);
+		ContentObject co = pool.acquire(1);
+		pool.release(co);
+		try {
+			pool.release(co);
+			fail("double release must be reported");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(0, pool.getInUseCount());
+	}
+
+	@Test
+	public void objectHeldTooLongIsReportedAsLeak() {
+		assumeTrue(BuildConfig.DEBUG);
+		ContentObjectPool pool = new ContentObjectPool(4);
+		ContentObject held = pool.acquire(1);
+		ContentObject fresh = pool.acquire(1);
+		assertEquals(0, pool.checkLeaks());
+
+		held.mAcquireTime = System.currentTimeMillis() - 60 * 1000;
+		assertEquals(1, pool.checkLeaks());
+
+		pool.release(held);
+		pool.release(fresh);
+		assertEquals(0, pool.checkLeaks());
+		assertEquals(0, pool.getInUseCount());
+	}
+
+}
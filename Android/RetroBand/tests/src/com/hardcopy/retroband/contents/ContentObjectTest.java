@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Date fields are made from mTimeInMilli when they are read.
+ */
+public class ContentObjectTest {
+
+	@Test
+	public void dateFieldsMatchCalendar() {
+		Random random = new Random(10);
+		ContentObject co = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		long base = 1388534400000L;		// 2014-01-01 UTC
+		for(int i=0; i<2000; i++) {
+			co.mTimeInMilli = base + (long)(random.nextDouble() * 20 * 365 * 24 * 3600 * 1000L);
+			assertDate(co.mTimeInMilli, co);
+		}
+	}
+
+	@Test
+	public void dateFollowsTimeAfterItIsRead() {
+		ContentObject co = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1400000000000L);
+		assertDate(1400000000000L, co);
+
+		// Next second, next day and going back in time
+		long[] times = new long[] {1400000001000L, 1400086400000L, 1300000000000L};
+		for(int i=0; i<times.length; i++) {
+			co.mTimeInMilli = times[i];
+			assertDate(times[i], co);
+		}
+	}
+
+	@Test
+	public void setTimeIsKeptUntilTimeChanges() {
+		ContentObject co = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1400000000000L);
+		co.setTime(2000, Calendar.FEBRUARY, 29, 23, 59, 58);
+		assertEquals(2000, co.getYear());
+		assertEquals(Calendar.FEBRUARY, co.getMonth());
+		assertEquals(29, co.getDay());
+		assertEquals(23, co.getHour());
+		assertEquals(59, co.getMinute());
+		assertEquals(58, co.getSecond());
+
+		co.mTimeInMilli += 1000;
+		assertDate(co.mTimeInMilli, co);
+	}
+
+	@Test
+	public void copyAndResetKeepDateConsistent() {
+		ContentObject src = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1400000000000L);
+		src.setTime(2000, Calendar.JANUARY, 1, 0, 0, 0);
+		ContentObject dst = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, 0, 1);
+		dst.copyFrom(src);
+		assertEquals(2000, dst.getYear());
+
+		dst.reset();
+		assertDate(1400000000000L, dst);
+	}
+
+	private static void assertDate(long time, ContentObject co) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		String message = "time " + time;
+		assertEquals(message, calendar.get(Calendar.YEAR), co.getYear());
+		assertEquals(message, calendar.get(Calendar.MONTH), co.getMonth());
+		assertEquals(message, calendar.get(Calendar.DAY_OF_MONTH), co.getDay());
+		assertEquals(message, calendar.get(Calendar.HOUR_OF_DAY), co.getHour());
+		assertEquals(message, calendar.get(Calendar.MINUTE), co.getMinute());
+		assertEquals(message, calendar.get(Calendar.SECOND), co.getSecond());
+	}
+
+}
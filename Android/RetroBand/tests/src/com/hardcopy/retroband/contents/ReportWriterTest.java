@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Reports are never dropped, whether the writer thread, the caller or close() writes them.
+ */
+public class ReportWriterTest {
+
+	private FakeDB mDB;
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+		mDB = new FakeDB();
+	}
+
+	@Test
+	public void reportsAreWrittenInOrderOnWriterThread() {
+		ReportWriter writer = new ReportWriter(mDB);
+		for(int i=0; i<10; i++)
+			writer.write(1, i, 2024, 5, 9, i, new int[] { i });
+		assertTrue(writer.flush(1000));
+
+		assertEquals(10, mDB.mHours.size());
+		for(int i=0; i<10; i++) {
+			assertEquals(i, (int)mDB.mHours.get(i));
+			assertFalse(Thread.currentThread() == mDB.mThreads.get(i));
+		}
+		assertEquals(0, writer.getCallerRunsCount());
+		writer.close();
+	}
+
+	@Test
+	public void fullQueueWritesOnCallerThread() throws Exception {
+		mDB.mBlock = new CountDownLatch(1);
+		ReportWriter writer = new ReportWriter(mDB);
+
+		// Writer thread holds the first report, then queue fills up
+		writer.write(1, 0, 2024, 5, 9, 0, null);
+		assertTrue(mDB.mStarted.await(1, TimeUnit.SECONDS));
+		for(int i=1; i<=20; i++)
+			writer.write(1, i, 2024, 5, 9, i, null);
+		assertFalse(writer.flush(50));
+
+		int callerRuns = writer.getCallerRunsCount();
+		assertTrue(callerRuns > 0);
+		assertEquals(callerRuns, mDB.countOn(Thread.currentThread()));
+
+		mDB.mBlock.countDown();
+		assertTrue(writer.flush(1000));
+		assertEquals(21, mDB.mHours.size());
+		writer.close();
+	}
+
+	@Test
+	public void closeWritesQueuedReportsAndLaterOnesOnCaller() throws Exception {
+		mDB.mBlock = new CountDownLatch(1);
+		ReportWriter writer = new ReportWriter(mDB);
+		for(int i=0; i<5; i++)
+			writer.write(1, i, 2024, 5, 9, i, null);
+		assertTrue(mDB.mStarted.await(1, TimeUnit.SECONDS));
+		mDB.mBlock.countDown();
+		writer.close();
+		assertEquals(5, mDB.mHours.size());
+
+		writer.write(1, 5, 2024, 5, 9, 5, null);
+		assertEquals(6, mDB.mHours.size());
+		assertSame(Thread.currentThread(), mDB.mThreads.get(5));
+		assertTrue(writer.flush(0));
+	}
+
+
+	/*****************************************************
+	 *	Helpers
+	 ******************************************************/
+
+	/**
+	 * Remembers hour and thread of each write. First write waits for mBlock if set.
+	 */
+	private static class FakeDB extends DBHelper {
+		final ArrayList<Integer> mHours = new ArrayList<Integer>();
+		final ArrayList<Thread> mThreads = new ArrayList<Thread>();
+		final CountDownLatch mStarted = new CountDownLatch(1);
+		volatile CountDownLatch mBlock = null;
+
+		FakeDB() {
+			super(null);
+		}
+
+		@Override
+		public long replaceActivityReport(int type, long time, int year, int month, int day, int hour, int[] dataArray, String subData) {
+			if(mStarted.getCount() > 0) {
+				mStarted.countDown();
+				if(mBlock != null) {
+					try {
+						mBlock.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			synchronized(this) {
+				mHours.add(hour);
+				mThreads.add(Thread.currentThread());
+			}
+			return 1;
+		}
+
+		synchronized int countOn(Thread thread) {
+			int count = 0;
+			for(int i=0; i<mThreads.size(); i++) {
+				if(mThreads.get(i) == thread)
+					count++;
+			}
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.contents.ActivityReport;
+import com.hardcopy.retroband.utils.Logs;
+
+public class AnalyzerTest {
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+	}
+
+	@Test
+	public void samplingRatesGiveSameSteps() {
+		// Same 100Hz trace resampled to 50Hz and 20Hz
+		int[][] trace100 = Walks.makeTrace(1.8, 16000, 100, 90, 21);
+		int[][][] traces = { Walks.downsample(trace100, 5), Walks.downsample(trace100, 2), trace100 };
+		int[] rates = { 20, 50, 100 };
+		for(int engine = Analyzer.STEP_ENGINE_PEAK; engine <= Analyzer.STEP_ENGINE_CADENCE; engine++) {
+			int[] steps = new int[rates.length];
+			for(int r=0; r<rates.length; r++) {
+				Analyzer analyzer = new Analyzer();
+				analyzer.setStepEngine(engine);
+				new Walks(analyzer, rates[r], 0).play(traces[r]);
+				steps[r] = analyzer.getStepCount();
+				assertEquals(90 * 1000, analyzer.getAnalyzedSampleCount() * 1000 / rates[r]);
+				assertEquals("engine " + engine + ", " + rates[r] + "Hz", 162, steps[r], 162 * 0.02);
+			}
+			assertEquals("engine " + engine + ", 20Hz and 50Hz", steps[0], steps[1], 2);
+			assertEquals("engine " + engine + ", 50Hz and 100Hz", steps[1], steps[2], 2);
+		}
+	}
+
+	@Test
+	public void stepsHeldByEngineAreReportedWhenWristStops() {
+		Analyzer analyzer = new Analyzer();
+		Walks walks = new Walks(analyzer, 20, 3);
+		walks.walk(1.8, 16000, 20);
+		int walkingSteps = walks.getReportedSteps();
+		walks.rest(5);
+
+		ArrayList<ActivityReport> reports = walks.getReports();
+		ActivityReport last = reports.get(reports.size() - 1);
+		assertEquals(ActivityReport.ACTIVITY_IDLE, last.mActivityClass);
+		assertTrue(last.mStepCount > 0);
+		assertEquals(0, last.mTotalTime);
+		assertEquals(0, last.mCalorie, 0);
+		assertEquals(walkingSteps + last.mStepCount, analyzer.getStepCount());
+		assertEquals(analyzer.getStepCount(), last.mShakeActionCount);
+		assertEquals(36, analyzer.getStepCount(), 1);
+	}
+
+	@Test
+	public void idleWindowWithoutHeldStepsHasNoReport() {
+		Analyzer analyzer = new Analyzer();
+		Walks walks = new Walks(analyzer, 20, 3);
+		walks.rest(5);
+		assertEquals(0, walks.getReports().size());
+	}
+
+	@Test
+	public void resetDiscardsHeldSteps() {
+		Analyzer analyzer = new Analyzer();
+		Walks walks = new Walks(analyzer, 20, 3);
+		walks.walk(1.8, 16000, 20);
+		analyzer.reset();
+		int reports = walks.getReports().size();
+		walks.rest(5);
+		assertEquals(reports, walks.getReports().size());
+		assertEquals(0, analyzer.getStepCount());
+	}
+
+	@Test
+	public void isqrtIsExactForEveryRawMagnitude() {
+		// Largest sum of squares of offset counts is 3 * 65535^2
+		long max = 3L * 65535 * 65535;
+		for(long k = 1; k * k <= max; k++) {
+			assertEquals(k, Analyzer.isqrt(k * k));
+			assertEquals(k - 1, Analyzer.isqrt(k * k - 1));
+			assertEquals(k, Analyzer.isqrt(k * k + 2 * k));
+		}
+		assertEquals(0, Analyzer.isqrt(0));
+	}
+
+	@Test
+	public void isqrtIsExactForLargeSquares() {
+		Random random = new Random(15);
+		for(int i=0; i<100000; i++) {
+			long k = 1 + random.nextInt((1 << 26) - 1);
+			assertEquals(k, Analyzer.isqrt(k * k));
+			assertEquals(k - 1, Analyzer.isqrt(k * k - 1));
+		}
+	}
+
+	@Test
+	public void fixedPointMagnitudeMatchesNormalizedFloat() {
+		Random random = new Random(16);
+		int n = 10000;
+		int[][] axes = new int[3][n];
+		for(int i=0; i<n; i++) {
+			for(int axis=0; axis<3; axis++)
+				axes[axis][i] = -32768 + random.nextInt(65536);
+		}
+		axes[0][0] = axes[1][0] = axes[2][0] = 32767;
+		axes[0][1] = axes[1][1] = axes[2][1] = -32768;
+
+		FeatureExtractor extractor = new FeatureExtractor();
+		extractor.begin(n);
+		extractor.add(axes[0], axes[1], axes[2], 0, n);
+		float[] raw = extractor.getMagnitude();
+		for(int i=0; i<n; i++) {
+			// Float path of Analyzer
+			float x = (float)(axes[0][i] + 32768) / 65535.f;
+			float y = (float)(axes[1][i] + 32768) / 65535.f;
+			float z = (float)(axes[2][i] + 32768) / 65535.f;
+			float normalized = (float)Math.sqrt(x*x + y*y + z*z);
+			assertEquals("sample " + i, normalized, raw[i] / 65535.f, 1.f / 65535 + 1e-6);
+		}
+	}
+
+}
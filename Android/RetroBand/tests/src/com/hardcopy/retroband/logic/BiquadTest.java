@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Filters are checked at the rate and cutoffs which Analyzer uses.
+ */
+public class BiquadTest {
+
+	private static final float RATE = 50;
+	private static final float GRAVITY = 65535;
+
+	@Test
+	public void gravityIsRemovedWithoutTransient() {
+		Biquad highPass = Biquad.highPass(RATE, 0.5f, Biquad.BUTTERWORTH_Q);
+		Biquad lowPass = Biquad.lowPass(RATE, 5, Biquad.BUTTERWORTH_Q);
+		for(int i=0; i<500; i++) {
+			assertEquals("high-pass " + i, 0, highPass.process(GRAVITY), GRAVITY * 1e-5);
+			assertEquals("low-pass " + i, GRAVITY, lowPass.process(GRAVITY), GRAVITY * 1e-5);
+		}
+	}
+
+	@Test
+	public void gravityOnSwingIsRemoved() {
+		Biquad highPass = Biquad.highPass(RATE, 0.5f, Biquad.BUTTERWORTH_Q);
+		int n = (int)(60 * RATE);
+		double sum = 0;
+		for(int i=0; i<n; i++) {
+			float y = highPass.process(GRAVITY + 16000 * (float)Math.sin(2 * Math.PI * 1.8 * i / RATE));
+			if(i >= n / 2)
+				sum += y;
+		}
+		assertEquals(0, sum / (n - n / 2), 100);
+	}
+
+	@Test
+	public void lowPassResponse() {
+		Biquad filter = Biquad.lowPass(RATE, 5, Biquad.BUTTERWORTH_Q);
+		assertEquals(1, gain(filter, 1), 0.01);
+		assertEquals(1, gain(filter, 2), 0.02);
+		assertEquals(Biquad.BUTTERWORTH_Q, gain(filter, 5), 0.02);
+		assertTrue(gain(filter, 15) < 0.1);
+		assertTrue(gain(filter, 20) < 0.05);
+	}
+
+	@Test
+	public void highPassResponse() {
+		Biquad filter = Biquad.highPass(RATE, 0.5f, Biquad.BUTTERWORTH_Q);
+		assertTrue(gain(filter, 0.05f) < 0.02);
+		assertEquals(Biquad.BUTTERWORTH_Q, gain(filter, 0.5f), 0.02);
+		assertEquals(1, gain(filter, 1.8f), 0.02);
+		assertEquals(1, gain(filter, 5), 0.01);
+	}
+
+	@Test
+	public void framesInPlaceMatchOneSampleAtATime() {
+		Random random = new Random(17);
+		int n = 1000;
+		float[] input = new float[n];
+		for(int i=0; i<n; i++)
+			input[i] = GRAVITY + (float)random.nextGaussian() * 8000;
+
+		Biquad single = Biquad.lowPass(RATE, 5, Biquad.BUTTERWORTH_Q);
+		float[] expected = new float[n];
+		for(int i=0; i<n; i++)
+			expected[i] = single.process(input[i]);
+
+		// Frames of random size, each in the middle of a larger array
+		Biquad framed = Biquad.lowPass(RATE, 5, Biquad.BUTTERWORTH_Q);
+		float[] buffer = new float[64];
+		for(int i=0; i<n; ) {
+			int length = Math.min(random.nextInt(40), n - i);
+			int offset = random.nextInt(buffer.length - length + 1);
+			for(int j=0; j<buffer.length; j++)
+				buffer[j] = -1;
+			System.arraycopy(input, i, buffer, offset, length);
+			framed.process(buffer, offset, length);
+			for(int j=0; j<buffer.length; j++) {
+				if(j < offset || j >= offset + length)
+					assertEquals("outside of frame", -1, buffer[j], 0);
+				else
+					assertEquals("sample " + (i + j - offset), expected[i + j - offset], buffer[j], 0);
+			}
+			i += length;
+		}
+	}
+
+	@Test
+	public void resetPrimesFilterAgain() {
+		Biquad filter = Biquad.highPass(RATE, 0.5f, Biquad.BUTTERWORTH_Q);
+		for(int i=0; i<100; i++)
+			filter.process(GRAVITY + 16000 * (i % 2));
+		filter.reset();
+
+		Biquad fresh = Biquad.highPass(RATE, 0.5f, Biquad.BUTTERWORTH_Q);
+		float[] data = new float[50];
+		for(int i=0; i<data.length; i++)
+			data[i] = GRAVITY / 2 + i;
+		float[] copy = data.clone();
+		filter.process(data, 0, data.length);
+		for(int i=0; i<copy.length; i++)
+			assertEquals(fresh.process(copy[i]), data[i], 0);
+	}
+
+	@Test
+	public void emptyFrameDoesNotPrime() {
+		Biquad filter = Biquad.lowPass(RATE, 5, Biquad.BUTTERWORTH_Q);
+		filter.process(new float[] { 1 }, 0, 0);
+		assertEquals(GRAVITY, filter.process(GRAVITY), GRAVITY * 1e-5);
+	}
+
+	/**
+	 * Amplitude ratio of a sine after the filter has settled.
+	 * Taken from RMS of whole periods, so sample phase does not matter.
+	 */
+	private static double gain(Biquad filter, float frequency) {
+		filter.reset();
+		int settle = (int)(RATE * 20 / frequency);
+		int n = (int)(RATE * 10 / frequency);
+		double sum = 0;
+		for(int i=0; i<settle + n; i++) {
+			float y = filter.process((float)Math.sin(2 * Math.PI * frequency * i / RATE));
+			if(i >= settle)
+				sum += (double)y * y;
+		}
+		return Math.sqrt(2 * sum / n);
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FeatureExtractorTest {
+
+	private static final int INTERVAL = 20;		// 50Hz
+
+	@Test
+	public void featuresOfSubRangesMatchDirectCalculation() {
+		Random random = new Random(9);
+		int[][] axes = new int[3][300];
+		for(int axis=0; axis<3; axis++) {
+			for(int i=0; i<300; i++) {
+				axes[axis][i] = (int)(random.nextGaussian() * 8000) + (axis - 1) * 10000;
+			}
+		}
+		// Window is [17, 117) and [150, 230) of the arrays
+		int[][] ranges = { { 17, 100 }, { 150, 80 } };
+		FeatureExtractor extractor = new FeatureExtractor();
+		extractor.begin(10);		// Buffer grows
+		for(int r=0; r<ranges.length; r++) {
+			extractor.add(axes[0], axes[1], axes[2], ranges[r][0], ranges[r][1]);
+		}
+		AccelFeatures features = new AccelFeatures();
+		extractor.end(INTERVAL, features);
+
+		int n = 180;
+		int[][] window = new int[3][n];
+		for(int axis=0; axis<3; axis++) {
+			System.arraycopy(axes[axis], 17, window[axis], 0, 100);
+			System.arraycopy(axes[axis], 150, window[axis], 100, 80);
+		}
+		assertEquals(n, features.mCount);
+		assertEquals(n, extractor.getCount());
+
+		double[] magnitude = new double[n];
+		double sma = 0;
+		for(int i=0; i<n; i++) {
+			long x = window[0][i] + 32768;
+			long y = window[1][i] + 32768;
+			long z = window[2][i] + 32768;
+			magnitude[i] = Math.floor(Math.sqrt((double)(x * x + y * y + z * z)));
+			assertEquals(magnitude[i], extractor.getMagnitude()[i], 0);
+			sma += Math.abs(window[0][i]) + Math.abs(window[1][i]) + Math.abs(window[2][i]);
+		}
+		for(int axis=0; axis<3; axis++) {
+			double[] values = new double[n];
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for(int i=0; i<n; i++) {
+				values[i] = window[axis][i];
+				min = Math.min(min, window[axis][i]);
+				max = Math.max(max, window[axis][i]);
+			}
+			assertEquals(mean(values), features.mMean[axis], 0.01);
+			assertEquals(variance(values), features.mVariance[axis], variance(values) * 1e-5);
+			assertEquals(min, features.mMin[axis]);
+			assertEquals(max, features.mMax[axis]);
+		}
+		assertEquals(sma / n, features.mSignalMagnitudeArea, 0.01);
+		assertEquals(mean(magnitude), features.mMagnitudeMean, 0.01);
+		assertEquals(variance(magnitude), features.mMagnitudeVariance, variance(magnitude) * 1e-5);
+
+		int crossings = 0;
+		double m = (float)mean(magnitude);
+		for(int i=1; i<n; i++) {
+			if((magnitude[i] > m) != (magnitude[i - 1] > m))
+				crossings++;
+		}
+		assertEquals(crossings * 1000.f / (n * INTERVAL), features.mZeroCrossingRate, 1e-4);
+		assertEquals(0, features.mDominantFrequency, 0);
+	}
+
+	@Test
+	public void beginStartsNewWindow() {
+		int[] x = { 100, 200, 300, 400 };
+		int[] y = { 0, 0, 0, 0 };
+		int[] z = { 0, 0, 0, 0 };
+		FeatureExtractor extractor = new FeatureExtractor();
+		AccelFeatures features = new AccelFeatures();
+		extractor.begin(4);
+		extractor.add(x, y, z, 0, 4);
+		extractor.end(INTERVAL, features);
+
+		extractor.begin(4);
+		extractor.add(x, y, z, 2, 2);
+		extractor.end(INTERVAL, features);
+		assertEquals(2, features.mCount);
+		assertEquals(350, features.mMean[AccelFeatures.AXIS_X], 0);
+		assertEquals(300, features.mMin[AccelFeatures.AXIS_X]);
+		assertEquals(400, features.mMax[AccelFeatures.AXIS_X]);
+	}
+
+	@Test
+	public void emptyWindowHasNoFeatures() {
+		FeatureExtractor extractor = new FeatureExtractor();
+		AccelFeatures features = new AccelFeatures();
+		features.mDominantFrequency = 1;
+		extractor.begin(0);
+		extractor.end(INTERVAL, features);
+		assertEquals(0, features.mCount);
+		assertEquals(0, features.mDominantFrequency, 0);
+	}
+
+	@Test
+	public void dominantFrequencyOfSwing() {
+		// 1.8Hz swing on y axis for 8 seconds. Only last 256 samples are transformed.
+		int n = 400;
+		int[] x = new int[n];
+		int[] y = new int[n];
+		int[] z = new int[n];
+		for(int i=0; i<n; i++) {
+			y[i] = (int)(-16384 + 8000 * Math.sin(2 * Math.PI * 1.8 * i * INTERVAL / 1000));
+		}
+		FeatureExtractor extractor = new FeatureExtractor();
+		AccelFeatures features = new AccelFeatures();
+		extractor.begin(n);
+		extractor.add(x, y, z, 0, n);
+		extractor.end(INTERVAL, features);
+		extractor.computeDominantFrequency(INTERVAL, features);
+		// Bin width is 50Hz / 256
+		assertEquals(1.8, features.mDominantFrequency, 50. / 256);
+
+		extractor.begin(3);
+		extractor.add(x, y, z, 0, 3);
+		extractor.end(INTERVAL, features);
+		extractor.computeDominantFrequency(INTERVAL, features);
+		assertEquals(0, features.mDominantFrequency, 0);
+	}
+
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for(int i=0; i<values.length; i++) {
+			sum += values[i];
+		}
+		return sum / values.length;
+	}
+
+	private static double variance(double[] values) {
+		double mean = mean(values);
+		double sum = 0;
+		for(int i=0; i<values.length; i++) {
+			sum += (values[i] - mean) * (values[i] - mean);
+		}
+		return sum / values.length;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Spikiness from monotonic deques must be same as the scan of +/- windowSize neighbours.
+ */
+public class PeakDetectorTest {
+
+	private static final float STRINGENCY = 1.5f;
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+	}
+
+	@Test
+	public void dequeMatchesScanOnRandomWindows() {
+		Random random = new Random(13);
+		float[] offsets = { 0.f, PeakDetector.DEFAULT_OFFSET, 0.5f };
+		for(int n=0; n<3000; n++) {
+			int length = random.nextInt(150);
+			int windowSize = 1 + random.nextInt(12);
+			float[] T = new float[length];
+			int kind = n % 3;
+			for(int i=0; i<length; i++) {
+				if(kind == 0)
+					T[i] = (float)random.nextGaussian();
+				else if(kind == 1)
+					T[i] = random.nextInt(4) * 0.25f;		// Many equal values
+				else
+					T[i] = (float)(50000 + random.nextGaussian() * 5000);
+			}
+			assertSameResult("window " + n, T, length, windowSize, offsets[random.nextInt(offsets.length)]);
+		}
+	}
+
+	@Test
+	public void dequeMatchesScanOnEdgeCases() {
+		int windowSize = 3;
+		float[] constant = new float[20];
+		float[] rising = new float[20];
+		float[] falling = new float[20];
+		float[] alternating = new float[20];
+		float[] spike = new float[20];
+		float[] plateau = new float[20];
+		for(int i=0; i<20; i++) {
+			constant[i] = 1.f;
+			rising[i] = i;
+			falling[i] = -i;
+			alternating[i] = i % 2;
+		}
+		spike[10] = 1.f;
+		plateau[9] = plateau[10] = plateau[11] = 1.f;
+
+		float[][] windows = { constant, rising, falling, alternating, spike, plateau };
+		for(int w=0; w<windows.length; w++) {
+			for(int length=0; length<=windows[w].length; length++) {
+				assertSameResult("edge case " + w + ", length " + length, windows[w], length, windowSize, 0.f);
+				assertSameResult("edge case " + w + ", length " + length, windows[w], length, windowSize, 0.5f);
+			}
+		}
+	}
+
+	@Test
+	public void reusedDetectorMatchesNewDetector() {
+		Random random = new Random(5);
+		PeakDetector reused = new PeakDetector(new float[0], 0);
+		for(int n=0; n<200; n++) {
+			// Long and short windows alternate so buffers hold values of longer windows
+			int length = (n % 2 == 0) ? 100 + random.nextInt(100) : random.nextInt(30);
+			float[] T = new float[length];
+			for(int i=0; i<length; i++) {
+				T[i] = (float)random.nextGaussian();
+			}
+			reused.setTimeSeries(T, length);
+			int[] expected = new PeakDetector(T, length).process(3, STRINGENCY);
+			assertArrayEquals("window " + n, expected, reused.process(3, STRINGENCY));
+		}
+	}
+
+
+	private static void assertSameResult(String message, float[] T, int length, int windowSize, float offset) {
+		PeakDetector scan = new PeakDetector(T, length, offset);
+		scan.setSpikinessMethod(PeakDetector.SPIKINESS_SCAN);
+		PeakDetector deque = new PeakDetector(T, length, offset);
+		deque.setSpikinessMethod(PeakDetector.SPIKINESS_DEQUE);
+
+		int[] expected = scan.process(windowSize, STRINGENCY);
+		int[] actual = deque.process(windowSize, STRINGENCY);
+		for(int i=0; i<length; i++) {
+			assertEquals(message + ", spikiness " + i, scan.getSpikiness(i), deque.getSpikiness(i), 0.f);
+		}
+		assertArrayEquals(message, expected, actual);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * Side by side step counts of peak and cadence engines on same walks.
+ * Prints a table of both, so a change of default engine can be judged from it.
+ */
+public class StepEngineComparisonTest {
+
+	private static final double[] CADENCES = { 1.5, 1.8, 2.2, 2.8, 3.3 };	// Steps per second
+	private static final int[] AMPLITUDES = { 8000, 16000, 26000 };			// Swing in raw counts
+	private static final int[] RATES = { 20, 50, 100 };						// Samples per second
+	private static final int WALK_TIME = 120;								// Seconds
+	private static final int PEAK_MIN_AMPLITUDE = 16000;	// Smaller swings are below peak offset
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+	}
+
+	@Test
+	public void compareEngines() {
+		StringBuilder table = new StringBuilder("steps/s  swing  expected  peak(20/50/100Hz)  cadence(20/50/100Hz)\n");
+		for(int c=0; c<CADENCES.length; c++) {
+			for(int a=0; a<AMPLITUDES.length; a++) {
+				double expected = CADENCES[c] * WALK_TIME;
+				table.append(CADENCES[c]).append("  ").append(AMPLITUDES[a]).append("  ").append((int)expected).append(" ");
+				for(int engine = Analyzer.STEP_ENGINE_PEAK; engine <= Analyzer.STEP_ENGINE_CADENCE; engine++) {
+					table.append(' ');
+					for(int r=0; r<RATES.length; r++) {
+						String name = (engine == Analyzer.STEP_ENGINE_PEAK ? "peak " : "cadence ")
+								+ CADENCES[c] + " steps/s, swing " + AMPLITUDES[a] + ", " + RATES[r] + "Hz";
+						int steps = countSteps(name, engine, CADENCES[c], AMPLITUDES[a], RATES[r]);
+						table.append(r > 0 ? "/" : "").append(steps);
+						if(engine == Analyzer.STEP_ENGINE_CADENCE || AMPLITUDES[a] >= PEAK_MIN_AMPLITUDE)
+							assertEquals(name, expected, steps, expected * 0.02);
+					}
+				}
+				table.append('\n');
+			}
+		}
+		System.out.print(table);
+	}
+
+
+	/**
+	 * Walk and stop. Every step must be in reports, including steps flushed when the wrist stopped.
+	 */
+	private static int countSteps(String name, int engine, double stepsPerSecond, int amplitude, int rate) {
+		Analyzer analyzer = new Analyzer();
+		analyzer.setStepEngine(engine);
+		Walks walks = new Walks(analyzer, rate, 7);
+		walks.walk(stepsPerSecond, amplitude, WALK_TIME);
+		walks.rest(3);
+		assertEquals(name, analyzer.getStepCount(), walks.getReportedSteps());
+		return analyzer.getStepCount();
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retroband.utils.Logs;
+
+/**
+ * StreamingPeakDetector must find the same peaks as PeakDetector.
+ */
+public class StreamingPeakDetectorTest {
+
+	private static final float STRINGENCY = 1.5f;
+	private static final float MAGNITUDE_OFFSET = PeakDetector.DEFAULT_OFFSET * 65535.f;
+
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+	}
+
+	@Test
+	public void oneBlockMatchesBatchOnRandomSeries() {
+		Random random = new Random(3);
+		for(int n=0; n<500; n++) {
+			int length = random.nextInt(300);
+			int windowSize = 1 + random.nextInt(10);
+			float[] T = new float[length];
+			for(int i=0; i<length; i++) {
+				T[i] = (n % 2 == 0) ? (float)random.nextGaussian() : random.nextInt(5) * 0.25f;
+			}
+			float offset = (n % 3 == 0) ? 0.f : PeakDetector.DEFAULT_OFFSET;
+			int[] expected = new PeakDetector(T, length, offset).process(windowSize, STRINGENCY);
+			assertArrayEquals("series " + n, expected, stream(T, windowSize, offset, Math.max(2, length)));
+		}
+	}
+
+	@Test
+	public void blocksMatchBatchWithNeighbours() {
+		Random random = new Random(11);
+		for(int n=0; n<200; n++) {
+			int length = random.nextInt(1000);
+			int windowSize = 1 + random.nextInt(10);
+			int blockSize = 2 + random.nextInt(100);
+			float[] T = new float[length];
+			for(int i=0; i<length; i++) {
+				T[i] = (float)(Math.sin(i * 0.3) + random.nextGaussian() * 0.3);
+			}
+			assertArrayEquals("series " + n, batchByBlock(T, windowSize, 0.f, blockSize),
+					stream(T, windowSize, 0.f, blockSize));
+		}
+	}
+
+	@Test
+	public void gaitMagnitudeMatchesBatch() {
+		int[] rates = { 20, 50, 100 };
+		double[] cadences = { 1.5, 1.8, 2.8, 3.5 };
+		for(int r=0; r<rates.length; r++) {
+			for(int c=0; c<cadences.length; c++) {
+				int rate = rates[r];
+				float[] T = gaitMagnitude(cadences[c], rate, 120, 17);
+				int windowSize = Math.max(3, 200 * rate / 1000);
+				String message = rate + "Hz, " + cadences[c] + " steps/s";
+				int[] expected = batchByBlock(T, windowSize, MAGNITUDE_OFFSET, rate);
+				int[] actual = stream(T, windowSize, MAGNITUDE_OFFSET, rate);
+				assertArrayEquals(message, expected, actual);
+				assertEquals(message, cadences[c] * 120, actual.length, cadences[c] * 120 * 0.03);
+			}
+		}
+	}
+
+	@Test
+	public void cleanSineHasPeakInEveryCycle() {
+		// 1Hz sine at 20Hz for 600 seconds
+		float[] T = new float[12000];
+		for(int i=0; i<T.length; i++) {
+			T[i] = (float)Math.sin(2 * Math.PI * i / 20);
+		}
+		int[] batch = new PeakDetector(T, T.length).process(4, STRINGENCY);
+		int[] streamed = stream(T, 4, PeakDetector.DEFAULT_OFFSET, 20);
+		assertEquals(600, batch.length);
+		assertEquals(600, streamed.length);
+		for(int i=0; i<streamed.length; i++) {
+			assertEquals(5 + i * 20, streamed[i]);
+		}
+	}
+
+	@Test
+	public void resetStartsIndexAgain() {
+		float[] T = gaitMagnitude(1.8, 50, 10, 5);
+		int windowSize = 10;
+		PeakList peaks = new PeakList();
+		StreamingPeakDetector detector = new StreamingPeakDetector(windowSize, MAGNITUDE_OFFSET, STRINGENCY, 50, peaks);
+		for(int i=0; i<T.length; i++) {
+			detector.add(T[i]);
+		}
+		detector.reset();
+		peaks.mPeaks.clear();
+		for(int i=0; i<T.length; i++) {
+			detector.add(T[i]);
+		}
+		detector.flush();
+		assertArrayEquals(stream(T, windowSize, MAGNITUDE_OFFSET, 50), peaks.toArray());
+	}
+
+
+	/**
+	 * Peaks of streaming detector after all samples are added and flushed
+	 */
+	private static int[] stream(float[] T, int windowSize, float offset, int blockSize) {
+		PeakList peaks = new PeakList();
+		StreamingPeakDetector detector = new StreamingPeakDetector(windowSize, offset, STRINGENCY, blockSize, peaks);
+		for(int i=0; i<T.length; i++) {
+			detector.add(T[i]);
+		}
+		detector.flush();
+		return peaks.toArray();
+	}
+
+	/**
+	 * Batch detection of each block, with windowSize samples before and after it
+	 */
+	private static int[] batchByBlock(float[] T, int windowSize, float offset, int blockSize) {
+		PeakList peaks = new PeakList();
+		PeakDetector detector = new PeakDetector(new float[0], 0, offset);
+		for(int start = 0; start + 2 * windowSize < T.length; start += blockSize) {
+			int end = Math.min(T.length, start + blockSize + 2 * windowSize);
+			detector.setTimeSeries(Arrays.copyOfRange(T, start, end), end - start);
+			int[] res = detector.process(windowSize, STRINGENCY);
+			for(int i=0; i<res.length; i++) {
+				peaks.OnPeakDetected(start + res[i], 0);
+			}
+		}
+		return peaks.toArray();
+	}
+
+	/**
+	 * Filtered magnitude of a wrist swinging once a step, same as Analyzer makes
+	 */
+	static float[] gaitMagnitude(double stepsPerSecond, int rate, int seconds, long seed) {
+		Random random = new Random(seed);
+		int n = rate * seconds;
+		int[] x = new int[n];
+		int[] y = new int[n];
+		int[] z = new int[n];
+		for(int i=0; i<n; i++) {
+			double phase = 2 * Math.PI * stepsPerSecond * i / rate;
+			x[i] = (int)(2000 + 5000 * Math.sin(phase + 1) + random.nextGaussian() * 300);
+			y[i] = (int)(-16384 + 16000 * Math.max(0, Math.sin(phase)) + random.nextGaussian() * 300);
+			z[i] = (int)(1000 + random.nextGaussian() * 300);
+		}
+		FeatureExtractor extractor = new FeatureExtractor();
+		extractor.begin(n);
+		extractor.add(x, y, z, 0, n);
+		extractor.end(1000 / rate, new AccelFeatures());
+		float[] magnitude = Arrays.copyOf(extractor.getMagnitude(), n);
+		Biquad.highPass(rate, 0.5f, Biquad.BUTTERWORTH_Q).process(magnitude, 0, n);
+		Biquad.lowPass(rate, Math.min(5.f, rate * 0.45f), Biquad.BUTTERWORTH_Q).process(magnitude, 0, n);
+		return magnitude;
+	}
+
+	private static class PeakList implements IPeakListener {
+		final ArrayList<Long> mPeaks = new ArrayList<Long>();
+
+		@Override
+		public void OnPeakDetected(long index, float value) {
+			mPeaks.add(index);
+		}
+
+		int[] toArray() {
+			int[] peaks = new int[mPeaks.size()];
+			for(int i=0; i<peaks.length; i++) {
+				peaks[i] = mPeaks.get(i).intValue();
+			}
+			return peaks;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.logic;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.hardcopy.retroband.contents.ActivityReport;
+import com.hardcopy.retroband.contents.ContentObject;
+import com.hardcopy.retroband.contents.SampleStore;
+
+/**
+ * Synthetic wrist traces fed to Analyzer one second at a time, same as ContentManager does.
+ * Wrist swings once a step: y axis has a half-wave of the step and x axis follows it.
+ */
+public class Walks {
+
+	private static final int NOISE = 300;		// Raw counts
+
+	private final Analyzer mAnalyzer;
+	private final int mRate;
+	private final SampleStore mStore = new SampleStore(SampleStore.DEFAULT_MAX_CHUNKS);
+	private final ArrayList<ContentObject> mWindow = new ArrayList<ContentObject>();
+	private final ArrayList<ActivityReport> mReports = new ArrayList<ActivityReport>();
+	private final Random mRandom;
+	private long mSampleCount = 0;
+
+
+	/**
+	 * Constructor
+	 * @param analyzer		analyzer to feed
+	 * @param rate			samples per second
+	 * @param seed			seed of noise
+	 */
+	public Walks(Analyzer analyzer, int rate, long seed) {
+		mAnalyzer = analyzer;
+		mRate = rate;
+		mRandom = new Random(seed);
+	}
+
+	/**
+	 * Walk and analyze every second
+	 * @param stepsPerSecond	cadence
+	 * @param amplitude			swing of y axis in raw counts
+	 * @param seconds			duration
+	 */
+	public void walk(double stepsPerSecond, int amplitude, int seconds) {
+		for(int s=0; s<seconds; s++) {
+			mWindow.clear();
+			ContentObject co = null;
+			for(int i=0; i<mRate; i++, mSampleCount++) {
+				if(co == null || co.getSampleCount() == ContentObject.MAX_DATA_COUNT) {
+					co = newObject();
+					mWindow.add(co);
+				}
+				double phase = 2 * Math.PI * stepsPerSecond * mSampleCount / mRate;
+				co.setAccelData(noise(2000 + 0.3 * amplitude * Math.sin(phase + 1)));
+				co.setAccelData(noise(-16384 + amplitude * Math.max(0, Math.sin(phase))));
+				co.setAccelData(noise(1000));
+			}
+			analyze();
+		}
+	}
+
+	/**
+	 * Analyze a recorded trace every second
+	 * @param trace		x, y and z samples at the rate of this instance
+	 */
+	public void play(int[][] trace) {
+		int length = trace[0].length;
+		for(int start=0; start<length; start+=mRate) {
+			mWindow.clear();
+			ContentObject co = null;
+			for(int i=start; i<Math.min(length, start + mRate); i++, mSampleCount++) {
+				if(co == null || co.getSampleCount() == ContentObject.MAX_DATA_COUNT) {
+					co = newObject();
+					mWindow.add(co);
+				}
+				co.setAccelData(trace[0][i]);
+				co.setAccelData(trace[1][i]);
+				co.setAccelData(trace[2][i]);
+			}
+			analyze();
+		}
+	}
+
+	/**
+	 * Keep the wrist still and analyze every second
+	 * @param seconds			duration
+	 */
+	public void rest(int seconds) {
+		walk(0, 0, seconds);
+	}
+
+	/**
+	 * @return	ArrayList<ActivityReport>	reports which were not null
+	 */
+	public ArrayList<ActivityReport> getReports() {
+		return mReports;
+	}
+
+	/**
+	 * @return	int		sum of steps of reports
+	 */
+	public int getReportedSteps() {
+		int steps = 0;
+		for(int i=0; i<mReports.size(); i++) {
+			steps += mReports.get(i).mStepCount;
+		}
+		return steps;
+	}
+
+
+	/**
+	 * Make a walk trace. Same samples as walk() makes.
+	 * @return	int[][]		x, y and z samples
+	 */
+	public static int[][] makeTrace(double stepsPerSecond, int amplitude, int rate, int seconds, long seed) {
+		Random random = new Random(seed);
+		int n = rate * seconds;
+		int[][] trace = new int[3][n];
+		for(int i=0; i<n; i++) {
+			double phase = 2 * Math.PI * stepsPerSecond * i / rate;
+			trace[0][i] = (int)(2000 + 0.3 * amplitude * Math.sin(phase + 1) + random.nextGaussian() * NOISE);
+			trace[1][i] = (int)(-16384 + amplitude * Math.max(0, Math.sin(phase)) + random.nextGaussian() * NOISE);
+			trace[2][i] = (int)(1000 + random.nextGaussian() * NOISE);
+		}
+		return trace;
+	}
+
+	/**
+	 * Resample a trace to a lower rate by averaging every factor samples
+	 */
+	public static int[][] downsample(int[][] trace, int factor) {
+		int n = trace[0].length / factor;
+		int[][] result = new int[3][n];
+		for(int axis=0; axis<3; axis++) {
+			for(int i=0; i<n; i++) {
+				long sum = 0;
+				for(int j=0; j<factor; j++) {
+					sum += trace[axis][i * factor + j];
+				}
+				result[axis][i] = (int)(sum / factor);
+			}
+		}
+		return result;
+	}
+
+
+	private ContentObject newObject() {
+		ContentObject co = new ContentObject(ContentObject.CONTENT_TYPE_ACCEL, -1, mSampleCount * 1000 / mRate);
+		co.mSamplingInterval = 1000 / mRate;
+		return co;
+	}
+
+	private void analyze() {
+		for(int i=0; i<mWindow.size(); i++) {
+			mStore.append(mWindow.get(i));
+		}
+		ActivityReport ar = mAnalyzer.analyzeAccel(mWindow, mStore, 1000 / mRate);
+		if(ar != null)
+			mReports.add(ar);
+	}
+
+	private int noise(double value) {
+		return (int)(value + mRandom.nextGaussian() * NOISE);
+	}
+
+}
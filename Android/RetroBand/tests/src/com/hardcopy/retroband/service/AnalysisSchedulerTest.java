@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Retro Band - Open source smart band project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retroband.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnalysisSchedulerTest {
+
+	private static final int TASK_REPORT = 1;
+	private static final int TASK_ROLLUP = 2;
+
+	private FakeClock mClock;
+	private TaskLog mLog;
+	private AnalysisScheduler mScheduler;
+
+	@Before
+	public void setUp() {
+		mClock = new FakeClock();
+		mClock.mNow = 10000;
+		mLog = new TaskLog();
+		mScheduler = new AnalysisScheduler(mClock, mLog);
+	}
+
+	@Test
+	public void firstRunIsOnePeriodLater() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		assertEquals(1000, mScheduler.getDelayToNextTask());
+
+		mClock.mNow = 10999;
+		assertEquals(0, mScheduler.runDueTasks());
+		assertEquals(1, mScheduler.getDelayToNextTask());
+
+		mClock.mNow = 11000;
+		assertEquals(0, mScheduler.getDelayToNextTask());
+		assertEquals(1, mScheduler.runDueTasks());
+		mLog.assertRun(0, TASK_REPORT, 11000, false);
+		assertEquals(1000, mScheduler.getDelayToNextTask());
+	}
+
+	@Test
+	public void lateRunKeepsPhase() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		mClock.mNow = 11300;
+		assertEquals(1, mScheduler.runDueTasks());
+		// Next deadline is 12000, not 12300
+		assertEquals(700, mScheduler.getDelayToNextTask());
+
+		mClock.mNow = 12000;
+		assertEquals(1, mScheduler.runDueTasks());
+		assertEquals(2, mLog.size());
+	}
+
+	@Test
+	public void missedPeriodsAreSkipped() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		// Thread stalled for 3.5 periods
+		mClock.mNow = 13500;
+		assertEquals(1, mScheduler.runDueTasks());
+		assertEquals(0, mScheduler.runDueTasks());
+		assertEquals(1, mLog.size());
+		mLog.assertRun(0, TASK_REPORT, 13500, false);
+		assertEquals(500, mScheduler.getDelayToNextTask());
+	}
+
+	@Test
+	public void stallEndingOnDeadlineSkipsToNextPeriod() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		mClock.mNow = 13000;
+		assertEquals(1, mScheduler.runDueTasks());
+		assertEquals(0, mScheduler.runDueTasks());
+		assertEquals(1000, mScheduler.getDelayToNextTask());
+	}
+
+	@Test
+	public void tasksKeepTheirOwnPeriods() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		mScheduler.addTask(TASK_ROLLUP, 60000);
+		int[] runs = new int[3];
+		// Owner thread sleeps until next deadline, and sometimes wakes up late
+		long end = mClock.mNow + 120000;
+		int wakeUp = 0;
+		while(mClock.mNow < end) {
+			mClock.mNow += mScheduler.getDelayToNextTask() + (wakeUp++ % 7 == 0 ? 150 : 0);
+			mScheduler.runDueTasks();
+		}
+		for(int i=0; i<mLog.size(); i++) {
+			runs[mLog.mTaskId.get(i)]++;
+		}
+		assertEquals(120, runs[TASK_REPORT], 1);
+		assertEquals(2, runs[TASK_ROLLUP]);
+	}
+
+	@Test
+	public void flushRunsEveryTaskAndRestartsPeriods() {
+		mScheduler.addTask(TASK_REPORT, 1000);
+		mScheduler.addTask(TASK_ROLLUP, 60000);
+		mClock.mNow = 10400;
+		mScheduler.flush();
+		assertEquals(2, mLog.size());
+		mLog.assertRun(0, TASK_REPORT, 10400, true);
+		mLog.assertRun(1, TASK_ROLLUP, 10400, true);
+		assertEquals(1000, mScheduler.getDelayToNextTask());
+
+		mClock.mNow = 11000;
+		assertEquals(0, mScheduler.runDueTasks());
+		mClock.mNow = 11400;
+		assertEquals(1, mScheduler.runDueTasks());
+		mLog.assertRun(2, TASK_REPORT, 11400, false);
+	}
+
+	@Test
+	public void noTaskHasNoDeadline() {
+		assertEquals(Long.MAX_VALUE, mScheduler.getDelayToNextTask());
+		assertEquals(0, mScheduler.runDueTasks());
+	}
+
+	@Test
+	public void invalidTasksAreRejected() {
+		try {
+			mScheduler.addTask(TASK_REPORT, 0);
+			fail("period 0 accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		for(int i=0; i<AnalysisScheduler.MAX_TASKS; i++) {
+			mScheduler.addTask(i, 1000);
+		}
+		try {
+			mScheduler.addTask(TASK_REPORT, 1000);
+			fail("too many tasks accepted");
+		} catch(IllegalStateException e) {
+		}
+	}
+
+
+	private static class FakeClock implements IClock {
+		long mNow = 0;
+
+		@Override
+		public long elapsedRealtime() {
+			return mNow;
+		}
+	}
+
+	private static class TaskLog implements IScheduleListener {
+		final ArrayList<Integer> mTaskId = new ArrayList<Integer>();
+		final ArrayList<Long> mTime = new ArrayList<Long>();
+		final ArrayList<Boolean> mFlush = new ArrayList<Boolean>();
+
+		@Override
+		public void OnScheduledTask(int taskId, long now, boolean isFlush) {
+			mTaskId.add(taskId);
+			mTime.add(now);
+			mFlush.add(isFlush);
+		}
+
+		int size() {
+			return mTaskId.size();
+		}
+
+		void assertRun(int index, int taskId, long now, boolean isFlush) {
+			assertEquals(taskId, mTaskId.get(index).intValue());
+			assertEquals(now, mTime.get(index).longValue());
+			assertEquals(isFlush, mFlush.get(index).booleanValue());
+		}
+	}
+
+}
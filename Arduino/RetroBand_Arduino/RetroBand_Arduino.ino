@@ -6,9 +6,15 @@
 /* Bluetooth */
 SoftwareSerial BTSerial(2, 3); //Connect HC-06. Use your (TX, RX) settings
 
+/* Debug */
+// Printing on Serial at 9600 baud takes ~1ms per character.
+// Per-sample logs limit sampling to ~20Hz, so they are disabled by default.
+#define DEBUG_SERIAL 0
+
 /* time */
 #define SENDING_INTERVAL 1000
-#define SENSOR_READ_INTERVAL 50
+#define DEFAULT_SENSOR_READ_INTERVAL 50  // 20Hz
+unsigned long sensorReadInterval = DEFAULT_SENSOR_READ_INTERVAL;  // Changed by command from remote
 unsigned long prevSensoredTime = 0;
 unsigned long curSensoredTime = 0;
 
@@ -17,6 +23,45 @@ unsigned long curSensoredTime = 0;
 byte aAccelBuffer[ACCEL_BUFFER_COUNT];
 int iAccelIndex = 2;
 
+/* Protocol */
+#define PROTOCOL_LEGACY 0x01
+#define PROTOCOL_V2 0x02
+#define PROTOCOL_COBS 0x03
+#define COMMAND_SET_PROTOCOL_VERSION 0x10
+#define COMMAND_SET_COMPRESSION 0x11
+#define COMMAND_SET_SAMPLE_RATE 0x12     // Parameter: samples per second (1 ~ 100)
+#define COMMAND_SET_FRAME_SIZE 0x13      // Parameter: samples per frame (1 ~ MAX_SAMPLE_COUNT)
+byte protocolVersion = PROTOCOL_LEGACY;  // Changed by command from remote
+boolean useCompression = false;          // Changed by command from remote
+
+/* Protocol version 2 frame
+ * [0xFE 0xFB][version][flags][sequence: 2][sample count][payload length: 2][payload][CRC-16: 2]
+ * Multi-byte values are high byte first. CRC covers version ~ payload.
+ * If flags has FLAG_DELTA_VARINT, payload has per-axis deltas in zigzag varint.
+ */
+#define FLAG_DELTA_VARINT 0x01
+#define LEGACY_SAMPLE_COUNT 20           // Legacy frame always has 20 samples
+#define MAX_SAMPLE_COUNT 50
+#define FRAME_V2_HEADER_SIZE 9
+#define FRAME_V2_PAYLOAD_SIZE (MAX_SAMPLE_COUNT * 3 * 2)
+#define FRAME_V2_SIZE (FRAME_V2_HEADER_SIZE + FRAME_V2_PAYLOAD_SIZE + 2)
+int aSampleBuffer[MAX_SAMPLE_COUNT * 3];
+int iSampleCount = 0;
+int samplesPerFrame = LEGACY_SAMPLE_COUNT;  // Changed by command from remote
+byte aFrameBuffer[FRAME_V2_SIZE];
+unsigned int frameSequence = 0;
+
+/* Protocol version 3 frame
+ * Version 2 frame without start bytes, COBS encoded and followed by 0x00 delimiter.
+ * COBS adds 1 byte per 254 bytes.
+ */
+#define FRAME_COBS_SIZE (FRAME_V2_SIZE - 2 + (FRAME_V2_SIZE - 2) / 254 + 1)
+byte aCobsBuffer[FRAME_COBS_SIZE + 1];
+
+/* Command from remote: [0xFE 0xFB][command][parameter] */
+byte aCommandBuffer[4];
+int iCommandIndex = 0;
+
 /* MPU-6050 sensor */
 #define MPU6050_ACCEL_XOUT_H 0x3B // R
 #define MPU6050_PWR_MGMT_1 0x6B // R/W
@@ -95,16 +140,30 @@ void setup() {
 void loop() {
   curSensoredTime = millis();
   
+  // Read command from remote
+  while(BTSerial.available()) {
+    readCommand(BTSerial.read());
+  }
+  
   // Read from sensor
-  if(curSensoredTime - prevSensoredTime > SENSOR_READ_INTERVAL) {
+  if(curSensoredTime - prevSensoredTime >= sensorReadInterval) {
     readFromSensor();  // Read from sensor
     prevSensoredTime = curSensoredTime;
     
     // Send buffer data to remote
-    if(iAccelIndex >= ACCEL_BUFFER_COUNT - 3) {
-      sendToRemote();
+    int frameSize = (protocolVersion == PROTOCOL_LEGACY) ? LEGACY_SAMPLE_COUNT : samplesPerFrame;
+    if(iSampleCount >= frameSize) {
+      if(protocolVersion == PROTOCOL_COBS)
+        sendFrameCobs();
+      else if(protocolVersion == PROTOCOL_V2)
+        sendFrameV2();
+      else
+        sendToRemote();
       initBuffer();
-      Serial.println("------------- Send 20 accel data to remote");
+#if DEBUG_SERIAL
+      Serial.print("------------- Send accel data to remote: ");
+      Serial.println(frameSize);
+#endif
     }
   }
 }
@@ -121,6 +180,127 @@ void sendToRemote() {
   //BTSerial.flush();
 }
 
+// Fill aFrameBuffer with version 2 frame and returns frame size
+int makeFrame(byte version) {
+  int index = 0;
+  aFrameBuffer[index++] = 0xfe;
+  aFrameBuffer[index++] = 0xfb;
+  aFrameBuffer[index++] = version;
+  int flagsIndex = index++;
+  aFrameBuffer[index++] = (byte)(frameSequence >> 8);
+  aFrameBuffer[index++] = (byte)(frameSequence);
+  aFrameBuffer[index++] = (byte)iSampleCount;
+  int lengthIndex = index;
+  index += 2;
+  
+  byte flags = 0x00;
+  int rawLength = iSampleCount * 3 * 2;
+  int payloadLength = rawLength;
+  if(useCompression) {
+    int compressed = writeDeltaVarint(aFrameBuffer + index, rawLength);
+    if(compressed < rawLength) {
+      flags = FLAG_DELTA_VARINT;
+      payloadLength = compressed;
+    }
+  }
+  if(flags == 0x00) {
+    for(int i=0; i<iSampleCount * 3; i++) {
+      aFrameBuffer[index + i * 2] = (byte)(aSampleBuffer[i] >> 8);
+      aFrameBuffer[index + i * 2 + 1] = (byte)(aSampleBuffer[i]);
+    }
+  }
+  index += payloadLength;
+  aFrameBuffer[flagsIndex] = flags;
+  aFrameBuffer[lengthIndex] = (byte)(payloadLength >> 8);
+  aFrameBuffer[lengthIndex + 1] = (byte)(payloadLength);
+  
+  unsigned int crc = crc16(aFrameBuffer + 2, index - 2);
+  aFrameBuffer[index++] = (byte)(crc >> 8);
+  aFrameBuffer[index++] = (byte)(crc);
+  frameSequence++;
+  return index;
+}
+
+// Write per-axis deltas as zigzag varint. Returns payload size.
+// Stops and returns rawLength if it's not smaller than raw payload.
+int writeDeltaVarint(byte* dst, int rawLength) {
+  int length = 0;
+  long previous[3] = {0, 0, 0};
+  for(int i=0; i<iSampleCount * 3; i++) {
+    // Varint of 17 bit zigzag value takes 3 bytes at most
+    if(length + 3 > rawLength)
+      return rawLength;
+    long delta = (long)aSampleBuffer[i] - previous[i % 3];
+    previous[i % 3] = aSampleBuffer[i];
+    unsigned long zigzag = (unsigned long)((delta << 1) ^ (delta >> 31));
+    while(zigzag >= 0x80) {
+      dst[length++] = (byte)(zigzag | 0x80);
+      zigzag >>= 7;
+    }
+    dst[length++] = (byte)zigzag;
+  }
+  return length;
+}
+
+void sendFrameV2() {
+  int length = makeFrame(PROTOCOL_V2);
+  // Null byte is allowed. Send with length.
+  BTSerial.write(aFrameBuffer, length);
+}
+
+void sendFrameCobs() {
+  int length = makeFrame(PROTOCOL_COBS);
+  // Encode without start bytes
+  int encoded = cobsEncode(aFrameBuffer + 2, length - 2, aCobsBuffer);
+  aCobsBuffer[encoded++] = 0x00;  // Delimiter
+  BTSerial.write(aCobsBuffer, encoded);
+}
+
+/**************************************************
+ * Command from remote
+ **************************************************/
+void readCommand(byte c) {
+  // Wait start bytes
+  if(iCommandIndex == 0 && c != 0xfe)
+    return;
+  if(iCommandIndex == 1 && c != 0xfb) {
+    iCommandIndex = (c == 0xfe) ? 1 : 0;
+    return;
+  }
+  aCommandBuffer[iCommandIndex++] = c;
+  if(iCommandIndex < 4)
+    return;
+  
+  iCommandIndex = 0;
+  switch(aCommandBuffer[2]) {
+  case COMMAND_SET_PROTOCOL_VERSION:
+    if(aCommandBuffer[3] == PROTOCOL_LEGACY || aCommandBuffer[3] == PROTOCOL_V2
+        || aCommandBuffer[3] == PROTOCOL_COBS) {
+      protocolVersion = aCommandBuffer[3];
+      frameSequence = 0;
+      initBuffer();
+      // Delimiter lets remote find the first COBS frame
+      if(protocolVersion == PROTOCOL_COBS)
+        BTSerial.write((byte)0x00);
+    }
+    break;
+  case COMMAND_SET_COMPRESSION:
+    useCompression = (aCommandBuffer[3] != 0);
+    break;
+  case COMMAND_SET_SAMPLE_RATE:
+    // Only divisors of 1000, so the interval is exact in milli-second
+    if(aCommandBuffer[3] > 0 && aCommandBuffer[3] <= 100 && 1000 % aCommandBuffer[3] == 0)
+      sensorReadInterval = 1000 / aCommandBuffer[3];
+    break;
+  case COMMAND_SET_FRAME_SIZE:
+    if(aCommandBuffer[3] > 0 && aCommandBuffer[3] <= MAX_SAMPLE_COUNT) {
+      samplesPerFrame = aCommandBuffer[3];
+      initBuffer();
+    }
+    break;
+  }
+}
+
 /**************************************************
  * Read data from sensor and save it
  **************************************************/
@@ -150,6 +330,7 @@ void readFromSensor() {
   SWAP (accel_t_gyro.reg.z_gyro_h, accel_t_gyro.reg.z_gyro_l);
   
   // Print the raw acceleration values
+#if DEBUG_SERIAL
   Serial.print(F("accel x,y,z: "));
   Serial.print(accel_t_gyro.value.x_accel, DEC);
   Serial.print(F(", "));
@@ -159,6 +340,14 @@ void readFromSensor() {
   Serial.print(F(", at "));
   Serial.print(iAccelIndex);
   Serial.println(F(""));
+#endif
+  
+  if(iSampleCount < MAX_SAMPLE_COUNT) {
+    aSampleBuffer[iSampleCount * 3] = accel_t_gyro.value.x_accel;
+    aSampleBuffer[iSampleCount * 3 + 1] = accel_t_gyro.value.y_accel;
+    aSampleBuffer[iSampleCount * 3 + 2] = accel_t_gyro.value.z_accel;
+    iSampleCount++;
+  }
   
   if(iAccelIndex < ACCEL_BUFFER_COUNT && iAccelIndex > 1) {
     int tempX = accel_t_gyro.value.x_accel;
@@ -294,7 +483,47 @@ int MPU6050_write_reg(int reg, uint8_t data)
 /**************************************************
  * Utilities
  **************************************************/
+// CRC-16/CCITT-FALSE
+unsigned int crc16(byte* buffer, int length) {
+  unsigned int crc = 0xffff;
+  for(int i=0; i<length; i++) {
+    crc ^= ((unsigned int)buffer[i]) << 8;
+    for(int j=0; j<8; j++) {
+      if(crc & 0x8000)
+        crc = (crc << 1) ^ 0x1021;
+      else
+        crc = crc << 1;
+    }
+  }
+  return crc;
+}
+
+// Consistent Overhead Byte Stuffing. Returns encoded size (without delimiter).
+int cobsEncode(byte* src, int length, byte* dst) {
+  int codeIndex = 0;
+  int index = 1;
+  byte code = 1;
+  for(int i=0; i<length; i++) {
+    if(src[i] == 0x00) {
+      dst[codeIndex] = code;
+      codeIndex = index++;
+      code = 1;
+    } else {
+      dst[index++] = src[i];
+      code++;
+      if(code == 0xff) {
+        dst[codeIndex] = code;
+        codeIndex = index++;
+        code = 1;
+      }
+    }
+  }
+  dst[codeIndex] = code;
+  return index;
+}
+
 void initBuffer() {
+  iSampleCount = 0;
   iAccelIndex = 2;
   for(int i=iAccelIndex; i<ACCEL_BUFFER_COUNT; i++) {
     aAccelBuffer[i] = 0x00;